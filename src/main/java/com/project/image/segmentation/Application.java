@@ -1,8 +1,11 @@
 package com.project.image.segmentation;
 
+import com.project.image.segmentation.service.SegmentationSettings;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
     @SpringBootApplication
+    @EnableConfigurationProperties(SegmentationSettings.class)
     public class Application {
         public static void main(String[] args) {
         SpringApplication.run(Application.class, args);
@@ -0,0 +1,32 @@
+package com.project.image.segmentation.DTOs;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.List;
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record BatchItemSummary(
+        int index,
+        String name,
+        String status,
+        String mask,
+        Integer width,
+        Integer height,
+        Integer threshold,
+        Integer segmentCount,
+        List<Integer> areasPx,
+        List<Double> areasPercent,
+        long durationMs,
+        String error
+) {
+    public static BatchItemSummary ok(int index, String name, String mask, SegmentationResult result, long durationMs) {
+        return new BatchItemSummary(index, name, "ok", mask,
+                result.width(), result.height(), result.threshold(), result.segmentCount(),
+                result.areasPx(), result.areasPercent(), durationMs, null);
+    }
+
+    public static BatchItemSummary failed(int index, String name, String error, long durationMs) {
+        return new BatchItemSummary(index, name, "error", null,
+                null, null, null, null, null, null, durationMs, error);
+    }
+}
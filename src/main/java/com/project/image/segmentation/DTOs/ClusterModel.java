@@ -0,0 +1,12 @@
+package com.project.image.segmentation.DTOs;
+
+/**
+ * Крайното състояние на k-means за един кадър: центроиди в Lab (k x 3, interleaved),
+ * избраният фонов клъстер и броя итерации. Подава се като warm start на следващия кадър.
+ */
+public record ClusterModel(
+        int k,
+        float[] centroids,
+        int backgroundCluster,
+        int iterations
+) {}
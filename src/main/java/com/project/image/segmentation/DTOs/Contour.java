@@ -0,0 +1,11 @@
+package com.project.image.segmentation.DTOs;
+
+/**
+ * Външната граница на една свързана област от маската като затворен многоъгълник:
+ * points = [x0, y0, x1, y1, ...] в центровете на граничните пиксели, последният връх се свързва с първия.
+ */
+public record Contour(int[] points) {
+    public int vertexCount() {
+        return points.length / 2;
+    }
+}
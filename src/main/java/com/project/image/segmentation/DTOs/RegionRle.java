@@ -0,0 +1,9 @@
+package com.project.image.segmentation.DTOs;
+
+/**
+ * Един регион на финалната маска (след доизглаждането): обединението на регионите е точно
+ * маската на отговора. areaPx/areaPercent са на тази RLE маска, затова може да се различават от
+ * areasPx/regionStats, които са на регионите от flood fill преди доизглаждането.
+ * Регионите, премахнати изцяло от почистването, липсват.
+ */
+public record RegionRle(int label, int areaPx, double areaPercent, RleMask rle) {}
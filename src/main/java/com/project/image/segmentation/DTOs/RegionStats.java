@@ -0,0 +1,37 @@
+package com.project.image.segmentation.DTOs;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Статистики на запазените региони в паралелни масиви - индекс r отговаря на keptLabels[r].
+ * Кутията е включителна, perimeter е броят пиксели на региона с 4-съсед извън него (или на ръба
+ * на изображението), meanRgb е 0xRRGGBB. Смятат се при етикетирането, преди доизглаждането на маската,
+ * както и areasPx.
+ */
+public record RegionStats(
+        int[] area,
+        int[] minX,
+        int[] minY,
+        int[] maxX,
+        int[] maxY,
+        float[] centroidX,
+        float[] centroidY,
+        int[] meanRgb,
+        int[] perimeter
+) {
+    public int count() {
+        return area.length;
+    }
+
+    /** По един обект на регион - за JSON и шаблоните. */
+    public List<RegionSummary> summaries(int[] labels, int totalPixels) {
+        List<RegionSummary> out = new ArrayList<>(count());
+        for (int r = 0; r < count(); r++) {
+            out.add(new RegionSummary(labels[r], area[r], 100.0 * area[r] / totalPixels,
+                    minX[r], minY[r], maxX[r] - minX[r] + 1, maxY[r] - minY[r] + 1,
+                    centroidX[r], centroidY[r], String.format("#%06x", meanRgb[r]), perimeter[r]));
+        }
+        return out;
+    }
+}
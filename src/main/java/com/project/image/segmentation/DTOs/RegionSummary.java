@@ -0,0 +1,16 @@
+package com.project.image.segmentation.DTOs;
+
+/** Един регион от {@link RegionStats}: кутия (x, y, width, height), център на тежестта, среден цвят (#rrggbb). */
+public record RegionSummary(
+        int label,
+        int areaPx,
+        double areaPercent,
+        int x,
+        int y,
+        int width,
+        int height,
+        float centroidX,
+        float centroidY,
+        String meanColor,
+        int perimeterPx
+) {}
@@ -0,0 +1,7 @@
+package com.project.image.segmentation.DTOs;
+
+/**
+ * COCO-съвместимо некомпресирано RLE: size = [височина, ширина], counts започва с брой нули
+ * и обхожда маската по колони (column-major), както pycocotools.
+ */
+public record RleMask(int[] size, int[] counts) {}
@@ -0,0 +1,46 @@
+package com.project.image.segmentation.DTOs;
+
+/**
+ * Параметри на едно извикване на сегментацията.
+ * renderImages=false пропуска рисуването и PNG кодирането (за JSON API-то).
+ * warmStart (по избор) е моделът от предишен кадър: k-means тръгва от неговите центроиди
+ * и фоновият клъстер не се определя наново.
+ * superpixels=true групира пикселите в SLIC суперпиксели и k-means и фонът се решават
+ * върху тях - по-бързо при големи изображения, с малко по-груби ръбове.
+ * contours=true проследява границите на финалната маска като опростени многоъгълници.
+ * cacheKey (по избор) идентифицира съдържанието на изображението (напр. SHA-256 на качения файл):
+ * етапите до морфологията се кешират под него и повторно извикване с друг minRegionSize
+ * пуска само етикетирането и почистването. Без ефект при warm start.
+ */
+public record SegmentationOptions(
+        int minRegionSize,
+        boolean renderImages,
+        ClusterModel warmStart,
+        boolean superpixels,
+        boolean contours,
+        String cacheKey
+) {
+    public static SegmentationOptions defaults(int minRegionSize) {
+        return new SegmentationOptions(minRegionSize, true, null, false, false, null);
+    }
+
+    public SegmentationOptions withRenderImages(boolean render) {
+        return new SegmentationOptions(minRegionSize, render, warmStart, superpixels, contours, cacheKey);
+    }
+
+    public SegmentationOptions withWarmStart(ClusterModel model) {
+        return new SegmentationOptions(minRegionSize, renderImages, model, superpixels, contours, cacheKey);
+    }
+
+    public SegmentationOptions withSuperpixels(boolean enabled) {
+        return new SegmentationOptions(minRegionSize, renderImages, warmStart, enabled, contours, cacheKey);
+    }
+
+    public SegmentationOptions withContours(boolean enabled) {
+        return new SegmentationOptions(minRegionSize, renderImages, warmStart, superpixels, enabled, cacheKey);
+    }
+
+    public SegmentationOptions withCacheKey(String key) {
+        return new SegmentationOptions(minRegionSize, renderImages, warmStart, superpixels, contours, key);
+    }
+}
@@ -0,0 +1,29 @@
+package com.project.image.segmentation.DTOs;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.List;
+
+/**
+ * JSON отговор на /api/segment: метаданните от SegmentationResult плюс маската като RLE.
+ * regionStats е само за k-means - там регионите са етикетирани поотделно.
+ * regions (при regions=true) - RLE на всеки регион в крайната маска; обединението им е mask.
+ * subsampling (само ако е > 1) - стъпката, с която е декодирано изображението; width/height и маските
+ * са в намаления размер.
+ * contours - границите на маската като многоъгълници [x0, y0, x1, y1, ...] (само при contours=true).
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record SegmentationResponse(
+        String engine,
+        int width,
+        int height,
+        int threshold,
+        int segmentCount,
+        Integer subsampling,
+        List<Integer> areasPx,
+        List<Double> areasPercent,
+        RleMask mask,
+        List<RegionRle> regions,
+        List<RegionSummary> regionStats,
+        List<Contour> contours
+) {}
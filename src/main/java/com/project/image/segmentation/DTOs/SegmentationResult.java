@@ -2,6 +2,14 @@ package com.project.image.segmentation.DTOs;
 
 import java.util.List;
 
+/**
+ * Резултат от сегментацията. PNG полетата са null, когато изображенията не са поискани.
+ * objectMask е финалната маска (row-major), labels/keptLabels описват запазените региони
+ * (null за OpenCV методите, където има един регион - самата маска).
+ * clusterModel е k-means моделът (null за OpenCV) - за warm start на следващ кадър.
+ * regionStats - кутия, център, среден цвят и периметър на всеки запазен регион (null за OpenCV).
+ * contours - външните граници на маската като многоъгълници (null, ако не са поискани).
+ */
 public record SegmentationResult(
         int width,
         int height,
@@ -11,5 +19,11 @@ public record SegmentationResult(
         byte[] outlinePng,
         byte[] recoloredPng,
         List<Integer> areasPx,
-        List<Double> areasPercent
+        List<Double> areasPercent,
+        boolean[] objectMask,
+        int[] labels,
+        int[] keptLabels,
+        ClusterModel clusterModel,
+        RegionStats regionStats,
+        List<Contour> contours
 ) {}
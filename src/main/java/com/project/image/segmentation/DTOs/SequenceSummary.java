@@ -0,0 +1,13 @@
+package com.project.image.segmentation.DTOs;
+
+/**
+ * Обобщение на последователност от кадри: колко са сегментирани, колко с warm start
+ * и средния брой k-means итерации на успешен кадър.
+ */
+public record SequenceSummary(
+        int frames,
+        int failed,
+        int warmStarted,
+        double meanIterations,
+        long durationMs
+) {}
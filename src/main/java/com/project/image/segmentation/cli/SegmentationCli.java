@@ -0,0 +1,393 @@
+package com.project.image.segmentation.cli;
+
+import ch.qos.logback.classic.Level;
+import com.project.image.segmentation.DTOs.SegmentationOptions;
+import com.project.image.segmentation.DTOs.SegmentationResult;
+import com.project.image.segmentation.service.ImageLoadingService;
+import com.project.image.segmentation.service.OpenCVSegmentationService;
+import com.project.image.segmentation.service.SegmentationEngine;
+import com.project.image.segmentation.service.SegmentationMetrics;
+import com.project.image.segmentation.service.SegmentationService;
+import com.project.image.segmentation.service.SegmentationSettings;
+import com.project.image.segmentation.service.SegmentationService.KMeansAlgorithm;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Пакетна сегментация на директория от командния ред - без Spring контекст, сигурност, Thymeleaf и Tomcat,
+ * затова стартира за под секунда. Всеки файл минава през decode -> segment -> encode -> write в отделни пулове,
+ * с най-много maxInFlight изображения в паметта. Маските отиват в {@code <output>/masks/<относителен път>.png},
+ * а summary.csv получава ред с времената на всеки етап веднага след записа на маската - при повторно
+ * пускане файловете със status=ok се прескачат, а неуспелите се опитват отново.
+ * <p>
+ * От fat jar-а: {@code java -cp app.jar -Dloader.main=com.project.image.segmentation.cli.SegmentationCli
+ * org.springframework.boot.loader.launch.PropertiesLauncher --input DIR --output DIR}
+ */
+public final class SegmentationCli {
+    private static final Logger log = LoggerFactory.getLogger(SegmentationCli.class);
+
+    static final String SUMMARY_FILE = "summary.csv";
+    static final String SUMMARY_HEADER =
+            "file,status,width,height,segments,coverage_percent,decode_ms,segment_ms,encode_ms,write_ms,total_ms,error";
+    private static final Set<String> EXTENSIONS = Set.of("jpg", "jpeg", "png", "gif", "bmp", "webp");
+
+    static final String USAGE = """
+            Usage: SegmentationCli --input DIR --output DIR [options]
+              --engine kmeans|grabcut|watershed   (default kmeans)
+              --kmeans lloyd|accelerated          (default accelerated)
+              --min-region-size N                 (default 50)
+              --max-side N                        decode with subsampling so the longer side is ~N (0 = full size)
+              --threads N                         decode and segment threads (default: available cores)
+              --max-in-flight N                   images held in memory at once (default 2 x threads)
+              --verbose                           INFO logging from the segmentation services""";
+
+    private SegmentationCli() {}
+
+    public static void main(String[] args) {
+        System.exit(run(args, System.out, System.err));
+    }
+
+    /** 0 - всичко е сегментирано, 1 - някои файлове са неуспешни, 2 - грешни аргументи. */
+    public static int run(String[] args, PrintStream out, PrintStream err) {
+        Options options;
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException e) {
+            err.println(e.getMessage());
+            err.println(USAGE);
+            return 2;
+        }
+        ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME))
+                .setLevel(options.verbose() ? Level.INFO : Level.WARN);
+        try {
+            return new Runner(options).run(out);
+        } catch (IOException e) {
+            err.println("Batch failed: " + e.getMessage());
+            return 1;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            err.println("Interrupted");
+            return 1;
+        }
+    }
+
+    record Options(Path input, Path output, SegmentationEngine engine, KMeansAlgorithm kmeans,
+                   int minRegionSize, int maxSide, int threads, int maxInFlight, boolean verbose) {
+
+        static Options parse(String[] args) {
+            Path input = null, output = null;
+            SegmentationEngine engine = SegmentationEngine.KMEANS;
+            KMeansAlgorithm kmeans = KMeansAlgorithm.ACCELERATED;
+            int minRegionSize = 50, maxSide = 0, threads = Runtime.getRuntime().availableProcessors(), maxInFlight = 0;
+            boolean verbose = false;
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if (arg.equals("--verbose")) {
+                    verbose = true;
+                    continue;
+                }
+                if (i + 1 >= args.length) throw new IllegalArgumentException("Missing value for " + arg);
+                String value = args[++i];
+                switch (arg) {
+                    case "--input" -> input = Path.of(value);
+                    case "--output" -> output = Path.of(value);
+                    case "--engine" -> engine = SegmentationEngine.fromParam(value);
+                    case "--kmeans" -> kmeans = kmeansAlgorithm(value);
+                    case "--min-region-size" -> minRegionSize = positive(arg, value);
+                    case "--max-side" -> maxSide = Integer.parseInt(value);
+                    case "--threads" -> threads = positive(arg, value);
+                    case "--max-in-flight" -> maxInFlight = positive(arg, value);
+                    default -> throw new IllegalArgumentException("Unknown option: " + arg);
+                }
+            }
+            if (input == null || output == null) throw new IllegalArgumentException("--input and --output are required");
+            if (!Files.isDirectory(input)) throw new IllegalArgumentException("Not a directory: " + input);
+            return new Options(input, output, engine, kmeans, minRegionSize, maxSide, threads,
+                    maxInFlight > 0 ? maxInFlight : 2 * threads, verbose);
+        }
+
+        private static KMeansAlgorithm kmeansAlgorithm(String value) {
+            try {
+                return KMeansAlgorithm.valueOf(value.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown k-means algorithm: " + value
+                        + " (expected lloyd or accelerated)");
+            }
+        }
+
+        private static int positive(String name, String value) {
+            int v = Integer.parseInt(value);
+            if (v <= 0) throw new IllegalArgumentException(name + " must be positive");
+            return v;
+        }
+    }
+
+    /** Състоянието на един файл; етапите го попълват последователно, всеки в своя пул. */
+    private static final class Item {
+        final Path file;
+        final String name;
+        long start;
+        BufferedImage image;
+        SegmentationResult result;
+        byte[] maskPng;
+        long decodeMs, segmentMs, encodeMs, writeMs;
+        String error;
+
+        Item(Path file, String name) {
+            this.file = file;
+            this.name = name;
+        }
+    }
+
+    private static final class Runner {
+        private final Options options;
+        private final ImageLoadingService imageLoading = new ImageLoadingService();
+        private final SegmentationService segmentation;
+        private final OpenCVSegmentationService openCv;
+
+        Runner(Options options) {
+            this.options = options;
+            SegmentationMetrics metrics = SegmentationMetrics.standalone();
+            this.segmentation = new SegmentationService(metrics, SegmentationSettings.defaults()
+                    .withKmeans(options.kmeans()).withWorkspace(4_000_000, options.threads()));
+            // нативната библиотека се зарежда едва при първото GrabCut/Watershed извикване
+            this.openCv = new OpenCVSegmentationService(metrics);
+        }
+
+        int run(PrintStream out) throws IOException, InterruptedException {
+            Files.createDirectories(options.output());
+            Path summaryFile = options.output().resolve(SUMMARY_FILE);
+            Set<String> done = resume(summaryFile);
+            List<Item> todo = new ArrayList<>();
+            // изходът може да е вътре във входа - маските не се сегментират отново
+            Path outputDir = options.output().toAbsolutePath().normalize();
+            try (Stream<Path> files = Files.walk(options.input())) {
+                files.filter(Files::isRegularFile).filter(SegmentationCli::isImage)
+                        .filter(file -> !file.toAbsolutePath().normalize().startsWith(outputDir))
+                        .sorted().forEach(file -> {
+                    String name = options.input().relativize(file).toString().replace('\\', '/');
+                    if (!done.contains(name)) todo.add(new Item(file, name));
+                });
+            }
+            out.printf("%d images to segment, %d already done%n", todo.size(), done.size());
+
+            long start = System.nanoTime();
+            AtomicInteger failed = new AtomicInteger();
+            ExecutorService decodePool = pool("cli-decode", options.threads());
+            ExecutorService segmentPool = pool("cli-segment", options.threads());
+            ExecutorService writePool = pool("cli-write", 2);
+            Semaphore inFlight = new Semaphore(options.maxInFlight());
+            try (BufferedWriter summary = Files.newBufferedWriter(summaryFile, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                for (Item item : todo) {
+                    inFlight.acquire();
+                    item.start = System.nanoTime();
+                    CompletableFuture.runAsync(() -> decode(item), decodePool)
+                            .thenRunAsync(() -> segment(item), segmentPool)
+                            .thenRunAsync(() -> encode(item), writePool)
+                            .thenRun(() -> write(item))
+                            .whenComplete((ignored, e) -> {
+                                if (e != null) {
+                                    item.error = message(e);
+                                    failed.incrementAndGet();
+                                    log.warn("{} failed: {}", item.name, item.error);
+                                }
+                                appendRow(summary, item);
+                                inFlight.release();
+                            });
+                }
+                // всички разрешения се връщат едва когато и последният файл е записан
+                inFlight.acquire(options.maxInFlight());
+            } finally {
+                decodePool.shutdownNow();
+                segmentPool.shutdownNow();
+                writePool.shutdownNow();
+            }
+
+            double seconds = (System.nanoTime() - start) / 1e9;
+            out.printf(Locale.ROOT, "Segmented %d images (%d failed) in %.1f s, %.2f images/s; summary: %s%n",
+                    todo.size() - failed.get(), failed.get(), seconds, todo.size() / Math.max(seconds, 1e-9),
+                    summaryFile);
+            return failed.get() == 0 ? 0 : 1;
+        }
+
+        private void decode(Item item) {
+            long t = System.nanoTime();
+            try (InputStream in = Files.newInputStream(item.file)) {
+                item.image = imageLoading.decode(in, options.maxSide());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            item.decodeMs = millisSince(t);
+        }
+
+        private void segment(Item item) {
+            long t = System.nanoTime();
+            BufferedImage image = item.image;
+            item.result = switch (options.engine()) {
+                case KMEANS -> segmentation.segment(image,
+                        SegmentationOptions.defaults(options.minRegionSize()).withRenderImages(false));
+                case GRABCUT -> openCv.segmentWithGrabCut(image, false);
+                case WATERSHED -> openCv.segmentWithWatershed(image, false);
+            };
+            item.image = null;
+            item.segmentMs = millisSince(t);
+        }
+
+        private void encode(Item item) {
+            long t = System.nanoTime();
+            SegmentationResult r = item.result;
+            item.maskPng = segmentation.encodeMaskPng(r.objectMask(), r.width(), r.height());
+            item.encodeMs = millisSince(t);
+        }
+
+        /** През временен файл - прекъснат запис не оставя непълна маска, която resume би приел. */
+        private void write(Item item) {
+            long t = System.nanoTime();
+            Path target = options.output().resolve("masks").resolve(maskName(item.name));
+            try {
+                Files.createDirectories(target.getParent());
+                Path tmp = target.resolveSibling(target.getFileName() + ".part");
+                Files.write(tmp, item.maskPng);
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            item.maskPng = null;
+            item.writeMs = millisSince(t);
+        }
+
+        private synchronized void appendRow(BufferedWriter summary, Item item) {
+            SegmentationResult r = item.error == null ? item.result : null;
+            double coverage = r == null ? 0 : r.areasPercent().stream().mapToDouble(Double::doubleValue).sum();
+            String row = String.join(",", csv(item.name), item.error == null ? "ok" : "error",
+                    r == null ? "" : Integer.toString(r.width()), r == null ? "" : Integer.toString(r.height()),
+                    r == null ? "" : Integer.toString(r.segmentCount()),
+                    r == null ? "" : String.format(Locale.ROOT, "%.2f", coverage),
+                    Long.toString(item.decodeMs), Long.toString(item.segmentMs), Long.toString(item.encodeMs),
+                    Long.toString(item.writeMs), Long.toString(millisSince(item.start)),
+                    item.error == null ? "" : csv(item.error));
+            item.result = null;
+            try {
+                summary.write(row);
+                summary.newLine();
+                summary.flush();
+            } catch (IOException e) {
+                log.error("Cannot write summary row for {}", item.name, e);
+            }
+        }
+
+        private static ExecutorService pool(String name, int threads) {
+            AtomicInteger counter = new AtomicInteger();
+            return Executors.newFixedThreadPool(threads, r -> {
+                Thread t = new Thread(r, name + "-" + counter.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    /**
+     * Чете съществуващото summary.csv и връща файловете със status=ok. Файлът се пренаписва само с тях,
+     * така че неуспелите при предишното пускане не се дублират.
+     */
+    static Set<String> resume(Path summaryFile) throws IOException {
+        Set<String> done = new HashSet<>();
+        List<String> kept = new ArrayList<>();
+        kept.add(SUMMARY_HEADER);
+        if (Files.exists(summaryFile)) {
+            for (String line : Files.readAllLines(summaryFile, StandardCharsets.UTF_8)) {
+                if (line.isEmpty() || line.equals(SUMMARY_HEADER)) continue;
+                String[] head = firstTwoFields(line);
+                if (head != null && head[1].equals("ok")) {
+                    done.add(head[0]);
+                    kept.add(line);
+                }
+            }
+        }
+        Files.write(summaryFile, kept, StandardCharsets.UTF_8);
+        return done;
+    }
+
+    private static String[] firstTwoFields(String line) {
+        String name;
+        int next;
+        if (line.startsWith("\"")) {
+            StringBuilder sb = new StringBuilder();
+            int i = 1;
+            for (; i < line.length(); i++) {
+                char c = line.charAt(i);
+                if (c == '"') {
+                    if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        sb.append('"');
+                        i++;
+                    } else {
+                        break;
+                    }
+                } else {
+                    sb.append(c);
+                }
+            }
+            name = sb.toString();
+            next = i + 2;
+        } else {
+            int comma = line.indexOf(',');
+            if (comma < 0) return null;
+            name = line.substring(0, comma);
+            next = comma + 1;
+        }
+        if (next > line.length()) return null;
+        int end = line.indexOf(',', next);
+        return new String[]{name, end < 0 ? line.substring(next) : line.substring(next, end)};
+    }
+
+    static String csv(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) return value;
+        return '"' + value.replace("\"", "\"\"").replace('\n', ' ') + '"';
+    }
+
+    static String maskName(String name) {
+        int dot = name.lastIndexOf('.');
+        return (dot > name.lastIndexOf('/') ? name.substring(0, dot) : name) + ".png";
+    }
+
+    private static boolean isImage(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 && EXTENSIONS.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
+    private static String message(Throwable e) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        if (cause instanceof UncheckedIOException && cause.getCause() != null) cause = cause.getCause();
+        return cause.getMessage() != null ? cause.getMessage() : cause.getClass().getSimpleName();
+    }
+
+    private static long millisSince(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1_000_000;
+    }
+}
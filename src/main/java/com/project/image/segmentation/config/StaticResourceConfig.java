@@ -1,16 +1,24 @@
 package com.project.image.segmentation.config;
 
+import com.project.image.segmentation.service.StorageIndex;
+import com.project.image.segmentation.service.StorageService;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.ResourceHandlerRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
+import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 
 /**
  * Експлицитен resource handler за /uploads/** към реалната папка за качвания.
  * Така URL /uploads/... винаги сочи към app.upload.dir, независимо от working directory.
+ * Пътища с част, започваща с точка (.meta/ с препратките), връщат 404.
  */
 @Configuration
 public class StaticResourceConfig implements WebMvcConfigurer {
@@ -19,10 +27,40 @@ public class StaticResourceConfig implements WebMvcConfigurer {
     @Value("${app.upload.dir:uploads}")
     private String uploadDir;
 
+    private final StorageService storageService;
+
+    public StaticResourceConfig(StorageService storageService) {
+        this.storageService = storageService;
+    }
+
     @Override
     public void addResourceHandlers(ResourceHandlerRegistry registry) {
         Path abs = Paths.get(uploadDir).toAbsolutePath().normalize();
         registry.addResourceHandler("/uploads/**")
                 .addResourceLocations("file:" + abs.toString() + "/");
     }
-}
\ No newline at end of file
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        // всяко сервиране опреснява файла в индекса, за да не бъде изтрит от retention
+        registry.addInterceptor(new HandlerInterceptor() {
+            @Override
+            public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler)
+                    throws IOException {
+                String prefix = request.getContextPath() + "/uploads/";
+                String uri = request.getRequestURI();
+                if (uri.startsWith(prefix)) {
+                    Path file = storageService.rootDir().resolve(uri.substring(prefix.length())).normalize();
+                    if (!file.startsWith(storageService.rootDir())) return true;
+                    // служебните файлове (.meta/refs с имената на всички качвания) не се сервират
+                    if (StorageIndex.isHidden(storageService.rootDir().relativize(file))) {
+                        response.sendError(HttpServletResponse.SC_NOT_FOUND);
+                        return false;
+                    }
+                    storageService.touch(file);
+                }
+                return true;
+            }
+        }).addPathPatterns("/uploads/**");
+    }
+}
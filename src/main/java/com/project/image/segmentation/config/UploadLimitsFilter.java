@@ -0,0 +1,64 @@
+package com.project.image.segmentation.config;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Лимит за размера на multipart заявките извън пакетните endpoint-и.
+ * spring.servlet.multipart.* важи за целия сървлет и е вдигнат заради ZIP архивите;
+ * тук останалите заявки се отказват по Content-Length, преди контейнерът да е прочел частите
+ * (филтърът е преди Spring Security, чийто CSRF филтър иначе би разчел формата).
+ * Chunked заявки без Content-Length минават: Tomcat чете частите направо от връзката, така че тук
+ * не могат да се прекъснат; за тях остават общият лимит на сървлета и проверката от 10MB на файл.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class UploadLimitsFilter extends OncePerRequestFilter {
+    private static final Logger log = LoggerFactory.getLogger(UploadLimitsFilter.class);
+
+    static final List<String> BATCH_PATHS = List.of("/api/segment/batch", "/api/segment/sequence");
+
+    private final long maxRequestBytes;
+
+    public UploadLimitsFilter(@Value("${app.upload.max-request-size:11MB}") DataSize maxRequestSize) {
+        this.maxRequestBytes = maxRequestSize.toBytes();
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        String contentType = request.getContentType();
+        if (contentType == null || !contentType.toLowerCase().startsWith(MediaType.MULTIPART_FORM_DATA_VALUE)) {
+            return true;
+        }
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        return BATCH_PATHS.contains(path);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        long length = request.getContentLengthLong();
+        if (length > maxRequestBytes) {
+            log.warn("Upload rejected: {} bytes to {} exceeds {} bytes", length, request.getRequestURI(), maxRequestBytes);
+            response.sendError(HttpStatus.PAYLOAD_TOO_LARGE.value(),
+                    "Upload too large: the limit is " + maxRequestBytes / (1024 * 1024) + "MB");
+            return;
+        }
+        chain.doFilter(request, response);
+    }
+}
@@ -26,8 +26,10 @@ public class WebSecurityConfig {
     public SecurityFilterChain filterChain(HttpSecurity http) throws Exception {
         http
                 .authorizeHttpRequests(auth -> auth
-                        // позволяваме CSS, login, error и качените файлове под /uploads/**
-                        .requestMatchers("/css/**", "/uploads/**", "/login", "/error").permitAll()
+                        // позволяваме CSS, login, error и качените файлове под /uploads/** и /results/**
+                        .requestMatchers("/css/**", "/uploads/**", "/results/**", "/login", "/error").permitAll()
+                        // health и Prometheus scrape без логин; останалите actuator endpoints изискват вход
+                        .requestMatchers("/actuator/health/**", "/actuator/prometheus").permitAll()
                         .anyRequest().authenticated()
                 )
                 .formLogin(form -> form
@@ -36,9 +38,11 @@ public class WebSecurityConfig {
                         .permitAll()
                 )
                 .logout(logout -> logout.logoutSuccessUrl("/login?logout"))
+                // REST API-то се ползва машина-към-машина с HTTP basic, без CSRF токен
+                .csrf(csrf -> csrf.ignoringRequestMatchers("/api/**"))
                 .httpBasic(Customizer.withDefaults());
 
-        log.info("Security configured: public [/css/**, /uploads/**, /login, /error], auth for others.");
+        log.info("Security configured: public [/css/**, /uploads/**, /results/**, /login, /error, /actuator/health, /actuator/prometheus], auth for others.");
         return http.build();
     }
 
@@ -0,0 +1,105 @@
+package com.project.image.segmentation.controller;
+
+import com.project.image.segmentation.service.BatchSegmentationService;
+import com.project.image.segmentation.service.SequenceSegmentationService;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.validation.annotation.Validated;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+@RestController
+@Validated
+public class BatchSegmentationController {
+    private static final Logger log = LoggerFactory.getLogger(BatchSegmentationController.class);
+
+    private final BatchSegmentationService batchService;
+    private final SequenceSegmentationService sequenceService;
+
+    public BatchSegmentationController(BatchSegmentationService batchService,
+                                       SequenceSegmentationService sequenceService) {
+        this.batchService = batchService;
+        this.sequenceService = sequenceService;
+    }
+
+    /**
+     * Приема или ZIP архив ("archive"), или няколко файла ("files") и връща поточно ZIP
+     * с masks/*.png и summaries/*.json за всяко изображение.
+     */
+    @PostMapping(value = "/api/segment/batch", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<StreamingResponseBody> segmentBatch(
+            @RequestParam(name = "archive", required = false) MultipartFile archive,
+            @RequestParam(name = "files", required = false) List<MultipartFile> files,
+            @RequestParam(name = "minRegionSize", defaultValue = "50")
+            @Min(10) @Max(5000) int minRegionSize
+    ) {
+        return streamZip("Batch", "images", "segmentation-results.zip", archive, files, minRegionSize,
+                batchService::processZip, batchService::processFiles);
+    }
+
+    /**
+     * Последователност от кадри (ZIP в реда на архива или файлове, подредени по име):
+     * всеки кадър стартира k-means от модела на предишния. Изходът е като при batch
+     * плюс sequence.json с обобщение.
+     */
+    @PostMapping(value = "/api/segment/sequence", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<StreamingResponseBody> segmentSequence(
+            @RequestParam(name = "archive", required = false) MultipartFile archive,
+            @RequestParam(name = "files", required = false) List<MultipartFile> files,
+            @RequestParam(name = "minRegionSize", defaultValue = "50")
+            @Min(10) @Max(5000) int minRegionSize
+    ) {
+        return streamZip("Sequence", "frames", "sequence-results.zip", archive, files, minRegionSize,
+                sequenceService::processZip, sequenceService::processFiles);
+    }
+
+    /** Проверява, че е подаден точно един от двата източника, и връща резултата поточно като ZIP. */
+    private static ResponseEntity<StreamingResponseBody> streamZip(
+            String kind, String items, String resultName,
+            MultipartFile archive, List<MultipartFile> files, int minRegionSize,
+            Job<InputStream> fromArchive, Job<List<MultipartFile>> fromFiles
+    ) {
+        boolean hasArchive = archive != null && !archive.isEmpty();
+        boolean hasFiles = files != null && files.stream().anyMatch(f -> !f.isEmpty());
+        if (hasArchive == hasFiles) {
+            throw new IllegalArgumentException(
+                    "Expected either a ZIP archive ('archive') or one or more " + items + " ('files')");
+        }
+
+        log.info("{} request: archive={}, files={}, minRegionSize={}", kind,
+                hasArchive ? archive.getOriginalFilename() : "-", hasFiles ? files.size() : 0, minRegionSize);
+
+        StreamingResponseBody body = out -> {
+            if (hasArchive) {
+                try (var in = archive.getInputStream()) {
+                    fromArchive.run(in, minRegionSize, out);
+                }
+            } else {
+                fromFiles.run(files, minRegionSize, out);
+            }
+        };
+
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + resultName + "\"")
+                .contentType(MediaType.parseMediaType("application/zip"))
+                .body(body);
+    }
+
+    @FunctionalInterface
+    private interface Job<S> {
+        Object run(S source, int minRegionSize, OutputStream out) throws IOException;
+    }
+}
@@ -0,0 +1,176 @@
+package com.project.image.segmentation.controller;
+
+import com.project.image.segmentation.exceptions.StorageException;
+import com.project.image.segmentation.service.StorageService;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Сервира неизменяемите артефакти: резултатите (уникално име) и оригиналите (име = SHA-256).
+ * Съдържанието под дадено име никога не се променя, затова името е силен ETag,
+ * а Cache-Control е immutable за година. Поддържа единичен Range и 304 при If-None-Match.
+ * Резултатите се сервират от паметта, докато чакат запис или са в hot cache;
+ * от диска - чрез sendfile на Tomcat, а извън него чрез FileChannel.transferTo.
+ */
+@Controller
+public class ResultController {
+    private static final Logger log = LoggerFactory.getLogger(ResultController.class);
+
+    static final String CACHE_CONTROL = "public, max-age=31536000, immutable";
+
+    // атрибути, с които Tomcat праща файла директно от ядрото (sendfile)
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    private final StorageService storageService;
+
+    public ResultController(StorageService storageService) {
+        this.storageService = storageService;
+    }
+
+    @GetMapping("/results/{filename:.+}")
+    public void result(@PathVariable("filename") String filename, HttpServletRequest request,
+                       HttpServletResponse response) throws IOException {
+        Path path;
+        try {
+            path = storageService.resolveResult(filename);
+        } catch (StorageException e) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        String etag = "\"" + filename + "\"";
+        boolean pending = storageService.pendingResult(filename).isPresent();
+        var cached = storageService.cachedResult(filename);
+        if (cached.isPresent()) {
+            log.debug("Serving {} from memory ({})", filename, pending ? "flush pending" : "hot cache");
+            response.setHeader("X-Storage-State", pending ? "pending" : "durable");
+            send(request, response, etag, MediaType.IMAGE_PNG, cached.get(), null);
+            return;
+        }
+
+        if (!Files.isRegularFile(path)) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        storageService.touch(path);
+        response.setHeader("X-Storage-State", "durable");
+        send(request, response, etag, MediaType.IMAGE_PNG, null, path);
+    }
+
+    /** Оригинали по съдържание; има предимство пред общия /uploads/** resource handler. */
+    @GetMapping("/uploads/{first}/{second}/{blob}")
+    public void original(@PathVariable("first") String first, @PathVariable("second") String second,
+                         @PathVariable("blob") String blob, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        Path path = storageService.resolveBlob(blob);
+        if (path == null || !path.getParent().endsWith(Path.of(first, second)) || !Files.isRegularFile(path)) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        storageService.touch(path);
+        String hash = blob.contains(".") ? blob.substring(0, blob.indexOf('.')) : blob;
+        MediaType type = MediaTypeFactory.getMediaType(blob).orElse(MediaType.APPLICATION_OCTET_STREAM);
+        send(request, response, "\"" + hash + "\"", type, null, path);
+    }
+
+    /** Точно едно от bytes / file е зададено. */
+    private void send(HttpServletRequest request, HttpServletResponse response, String etag, MediaType type,
+                      byte[] bytes, Path file) throws IOException {
+        response.setHeader(HttpHeaders.ETAG, etag);
+        response.setHeader(HttpHeaders.CACHE_CONTROL, CACHE_CONTROL);
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+
+        if (matches(request.getHeader(HttpHeaders.IF_NONE_MATCH), etag)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        long length = bytes != null ? bytes.length : Files.size(file);
+        long start = 0;
+        long end = length - 1;
+        String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (rangeHeader != null && (ifRange == null || ifRange.equals(etag))) {
+            List<HttpRange> ranges;
+            try {
+                ranges = HttpRange.parseRanges(rangeHeader);
+            } catch (IllegalArgumentException e) {
+                ranges = List.of();
+            }
+            // няколко диапазона (multipart/byteranges) не си струват - връщаме целия файл
+            if (ranges.size() == 1) {
+                HttpRange range = ranges.get(0);
+                try {
+                    start = range.getRangeStart(length);
+                    end = range.getRangeEnd(length);
+                } catch (IllegalArgumentException e) {
+                    start = length;
+                }
+                if (start >= length || start > end) {
+                    response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+                    response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                    return;
+                }
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
+            }
+        }
+
+        long count = end - start + 1;
+        response.setContentType(type.toString());
+        response.setContentLengthLong(count);
+        if ("HEAD".equals(request.getMethod())) return;
+
+        if (bytes != null) {
+            response.getOutputStream().write(bytes, (int) start, (int) count);
+        } else if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            request.setAttribute(SENDFILE_FILENAME, file.toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START, start);
+            request.setAttribute(SENDFILE_END, end + 1);
+        } else {
+            transfer(file, start, count, response.getOutputStream());
+        }
+    }
+
+    private static void transfer(Path file, long position, long count, OutputStream out) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            WritableByteChannel target = Channels.newChannel(out);
+            while (count > 0) {
+                long sent = channel.transferTo(position, count, target);
+                if (sent <= 0) break;
+                position += sent;
+                count -= sent;
+            }
+        }
+    }
+
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) return false;
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.equals("*") || tag.equals(etag) || tag.equals("W/" + etag)) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,170 @@
+package com.project.image.segmentation.controller;
+
+import com.project.image.segmentation.DTOs.Contour;
+import com.project.image.segmentation.DTOs.RegionRle;
+import com.project.image.segmentation.DTOs.RegionSummary;
+import com.project.image.segmentation.DTOs.RleMask;
+import com.project.image.segmentation.DTOs.SegmentationOptions;
+import com.project.image.segmentation.DTOs.SegmentationResponse;
+import com.project.image.segmentation.DTOs.SegmentationResult;
+import com.project.image.segmentation.service.ContourTracer;
+import com.project.image.segmentation.service.ExecutionPools;
+import com.project.image.segmentation.service.ImageLoadingService;
+import com.project.image.segmentation.service.MemoryAdmissionService;
+import com.project.image.segmentation.service.OpenCVSegmentationService;
+import com.project.image.segmentation.service.RleEncoder;
+import com.project.image.segmentation.service.SegmentationEngine;
+import com.project.image.segmentation.service.SegmentationService;
+import com.project.image.segmentation.service.StorageService;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.MediaType;
+import org.springframework.validation.annotation.Validated;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
+/**
+ * Машина-към-машина интерфейс: маската се връща като RLE в JSON,
+ * без PNG кодиране и без запис в uploads/.
+ */
+@RestController
+@Validated
+public class SegmentationApiController {
+    private static final Logger log = LoggerFactory.getLogger(SegmentationApiController.class);
+
+    static final String SVG_MEDIA_TYPE = "image/svg+xml";
+
+    private final SegmentationService segmentationService;
+    private final OpenCVSegmentationService openCvService;
+    private final ImageLoadingService imageLoadingService;
+    private final MemoryAdmissionService admissionService;
+    private final ExecutionPools pools;
+
+    public SegmentationApiController(SegmentationService segmentationService,
+                                     OpenCVSegmentationService openCvService,
+                                     ImageLoadingService imageLoadingService,
+                                     MemoryAdmissionService admissionService,
+                                     ExecutionPools pools) {
+        this.segmentationService = segmentationService;
+        this.openCvService = openCvService;
+        this.imageLoadingService = imageLoadingService;
+        this.admissionService = admissionService;
+        this.pools = pools;
+    }
+
+    @PostMapping(value = "/api/segment", consumes = MediaType.MULTIPART_FORM_DATA_VALUE,
+            produces = MediaType.APPLICATION_JSON_VALUE)
+    public SegmentationResponse segment(
+            @RequestParam("file") @NotNull MultipartFile file,
+            @RequestParam(name = "minRegionSize", defaultValue = "50") @Min(10) @Max(5000) int minRegionSize,
+            @RequestParam(name = "engine", defaultValue = "kmeans") String engineParam,
+            @RequestParam(name = "regions", defaultValue = "false") boolean includeRegions,
+            @RequestParam(name = "superpixels", defaultValue = "false") boolean superpixels,
+            @RequestParam(name = "contours", defaultValue = "false") boolean contours,
+            @RequestParam(name = "maxSide", defaultValue = "0") @Min(0) int maxSide
+    ) throws IOException {
+        SegmentationEngine engine = SegmentationEngine.fromParam(engineParam);
+        Segmented segmented = run(file, minRegionSize, engine, superpixels, contours, maxSide);
+        return toResponse(engine, segmented.result(), includeRegions, contours, segmented.subsampling());
+    }
+
+    /**
+     * Само границите на маската като SVG в пикселните координати на (евентуално намаленото) изображение -
+     * клиентът го слага върху оригинала вместо да тегли PNG с очертанието.
+     */
+    @PostMapping(value = "/api/segment/overlay.svg", consumes = MediaType.MULTIPART_FORM_DATA_VALUE,
+            produces = SVG_MEDIA_TYPE)
+    public String overlaySvg(
+            @RequestParam("file") @NotNull MultipartFile file,
+            @RequestParam(name = "minRegionSize", defaultValue = "50") @Min(10) @Max(5000) int minRegionSize,
+            @RequestParam(name = "engine", defaultValue = "kmeans") String engineParam,
+            @RequestParam(name = "superpixels", defaultValue = "false") boolean superpixels,
+            @RequestParam(name = "maxSide", defaultValue = "0") @Min(0) int maxSide
+    ) throws IOException {
+        SegmentationResult result = run(file, minRegionSize, SegmentationEngine.fromParam(engineParam),
+                superpixels, true, maxSide).result();
+        return ContourTracer.toSvg(contoursOf(result), result.width(), result.height());
+    }
+
+    private Segmented run(MultipartFile file, int minRegionSize, SegmentationEngine engine,
+                          boolean superpixels, boolean contours, int maxSide) throws IOException {
+        imageLoadingService.validateUpload(file);
+        var source = imageLoadingService.readDimensions(file);
+        // maxSide > 0: декодира се с подизвадка и маските са в намаления размер
+        int step = ImageLoadingService.subsampling(source, maxSide);
+        var dims = ImageLoadingService.subsampled(source, step);
+        // SHA-256 на съдържанието - ключ за кеша на k-means етапите и GrabCut, както при формата
+        // (без запис в uploads/); подизвадката влиза в ключа чрез размерите
+        String contentHash = StorageService.contentHash(file);
+
+        log.info("API segmentation: {} ({}KB), engine={}, minRegionSize={}, subsampling={}",
+                file.getOriginalFilename(), file.getSize() / 1024, engine.paramName(), minRegionSize, step);
+
+        try (var reservation = admissionService.reserve(dims.width(), dims.height(), EnumSet.of(engine))) {
+            // декодиране и сегментация в CPU пула; нишката на заявката само чака
+            SegmentationResult result = pools.onCpu(() -> {
+                BufferedImage input = imageLoadingService.load(file, maxSide);
+                return switch (engine) {
+                    case KMEANS -> segmentationService.segment(input,
+                            SegmentationOptions.defaults(minRegionSize).withRenderImages(false)
+                                    .withSuperpixels(superpixels).withContours(contours)
+                                    .withCacheKey(contentHash));
+                    case GRABCUT -> openCvService.segmentWithGrabCut(input, false, contentHash);
+                    case WATERSHED -> openCvService.segmentWithWatershed(input, false);
+                };
+            });
+            return new Segmented(result, step);
+        }
+    }
+
+    /** K-means проследява контурите в конвейера; за OpenCV маските - тук. */
+    private static List<Contour> contoursOf(SegmentationResult result) {
+        return result.contours() != null ? result.contours()
+                : ContourTracer.trace(result.objectMask(), result.width(), result.height(),
+                        ContourTracer.DEFAULT_EPSILON);
+    }
+
+    private static SegmentationResponse toResponse(SegmentationEngine engine, SegmentationResult result,
+                                                   boolean includeRegions, boolean includeContours,
+                                                   int subsampling) {
+        int w = result.width(), h = result.height();
+        RleMask mask = RleEncoder.encode(result.objectMask(), w, h);
+
+        List<RegionRle> regions = null;
+        if (includeRegions) {
+            regions = new ArrayList<>();
+            if (result.labels() != null) {
+                // регионите на финалната маска - обединението им е точно mask
+                RleMask[] rles = RleEncoder.encodeRegions(result.labels(), result.keptLabels(),
+                        result.objectMask(), w, h);
+                for (int r = 0; r < rles.length; r++) {
+                    int area = RleEncoder.area(rles[r]);
+                    if (area == 0) continue;
+                    regions.add(new RegionRle(result.keptLabels()[r], area, 100.0 * area / (w * h), rles[r]));
+                }
+            } else {
+                // OpenCV методите дават един регион - самата маска
+                regions.add(new RegionRle(1, result.areasPx().get(0), result.areasPercent().get(0), mask));
+            }
+        }
+
+        List<RegionSummary> stats = result.regionStats() != null
+                ? result.regionStats().summaries(result.keptLabels(), w * h) : null;
+        return new SegmentationResponse(engine.paramName(), w, h, result.threshold(), result.segmentCount(),
+                subsampling > 1 ? subsampling : null, result.areasPx(), result.areasPercent(), mask, regions, stats,
+                includeContours ? contoursOf(result) : null);
+    }
+
+    private record Segmented(SegmentationResult result, int subsampling) {}
+}
@@ -1,13 +1,17 @@
 package com.project.image.segmentation.controller;
 
+import com.project.image.segmentation.DTOs.SegmentationOptions;
 import com.project.image.segmentation.DTOs.SegmentationResult;
 import com.project.image.segmentation.exceptions.SegmentationException;
+import com.project.image.segmentation.service.ExecutionPools;
+import com.project.image.segmentation.service.ImageLoadingService;
+import com.project.image.segmentation.service.MemoryAdmissionService;
+import com.project.image.segmentation.service.SegmentationEngine;
 import com.project.image.segmentation.service.SegmentationService;
 import com.project.image.segmentation.service.StorageService;
 import com.project.image.segmentation.service.OpenCVSegmentationService;
 import jakarta.validation.constraints.Max;
 import jakarta.validation.constraints.Min;
-import jakarta.validation.constraints.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
@@ -22,45 +26,58 @@ import org.springframework.web.multipart.MultipartFile;
 
 import java.awt.image.BufferedImage;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
-import javax.imageio.ImageIO;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
 
 @Controller
 @Validated
 public class SegmentationController {
     private static final Logger log = LoggerFactory.getLogger(SegmentationController.class);
 
-    private static final List<String> SUPPORTED_FORMATS = Arrays.asList(
-            "image/jpeg", "image/jpg", "image/png", "image/gif", "image/bmp", "image/webp"
-    );
+    // формата пуска k-means и GrabCut върху едно и също изображение; без OpenCV - само k-means
+    private static final Set<SegmentationEngine> ENGINES = EnumSet.of(SegmentationEngine.KMEANS, SegmentationEngine.GRABCUT);
+    private static final Set<SegmentationEngine> KMEANS_ONLY = EnumSet.of(SegmentationEngine.KMEANS);
 
     private final SegmentationService segmentationService;
     private final StorageService storageService;
     private final OpenCVSegmentationService openCvService;
+    private final ImageLoadingService imageLoadingService;
+    private final MemoryAdmissionService admissionService;
+    private final ExecutionPools pools;
 
     @Value("${app.segmentation.default-min-region-size:50}")
     private int defaultMinRegionSize;
 
     public SegmentationController(SegmentationService segmentationService,
                                   StorageService storageService,
-                                  OpenCVSegmentationService openCvService) {
+                                  OpenCVSegmentationService openCvService,
+                                  ImageLoadingService imageLoadingService,
+                                  MemoryAdmissionService admissionService,
+                                  ExecutionPools pools) {
         this.segmentationService = segmentationService;
         this.storageService = storageService;
         this.openCvService = openCvService;
+        this.imageLoadingService = imageLoadingService;
+        this.admissionService = admissionService;
+        this.pools = pools;
     }
 
     @GetMapping("/segment")
     public String showForm(Model model) {
         model.addAttribute("defaultMinRegionSize", defaultMinRegionSize);
-        model.addAttribute("supportedFormats", String.join(", ", SUPPORTED_FORMATS));
+        model.addAttribute("supportedFormats", String.join(", ", ImageLoadingService.SUPPORTED_FORMATS));
         return "segment";
     }
 
+    /**
+     * Ново качване (file) или повторно пускане на вече качен оригинал по SHA-256 (original) - тогава
+     * файлът не се качва и хешира наново, а k-means етапите до морфологията и GrabCut се вземат от кеша.
+     */
     @PostMapping(value = "/segment", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
     public String handleUpload(
-            @RequestParam("file") @NotNull MultipartFile file,
+            @RequestParam(name = "file", required = false) MultipartFile file,
+            @RequestParam(name = "original", required = false) String original,
             @RequestParam(name = "minRegionSize", defaultValue = "50")
             @Min(value = 10, message = "Минималният размер на региона трябва да бъде поне 10 пиксела")
             @Max(value = 5000, message = "Минималният размер на региона не може да бъде повече от 5000 пиксела")
@@ -68,94 +85,94 @@ public class SegmentationController {
             Model model
     ) throws IOException {
 
-        validateUploadedFile(file);
-
-        log.info("Processing file: {} ({}KB), minRegionSize: {}",
-                file.getOriginalFilename(), file.getSize() / 1024, minRegionSize);
-
-        var storedOriginal = storageService.store(file);
-        log.debug("File stored as: {}", storedOriginal.filename());
-
-        BufferedImage input = loadAndValidateImage(file);
-
-        try {
-            // K-means сегментация (традиционна)
-            SegmentationResult kmeansResult = segmentationService.segment(input, minRegionSize);
-            var kmeansOverlay = storageService.storeResultImage(kmeansResult.outlinePng());
-            var kmeansMask = storageService.storeResultImage(kmeansResult.maskPng());
-
-            // GrabCut сегментация (ML обучен модел)
-            SegmentationResult grabCutResult = openCvService.segmentWithGrabCut(input);
-            var grabCutOverlay = storageService.storeResultImage(grabCutResult.outlinePng());
-            var grabCutMask = storageService.storeResultImage(grabCutResult.maskPng());
-
-            model.addAttribute("originalPath", "/" + storedOriginal.relativeWebPath());
-
-            model.addAttribute("kmeansOverlayPath", "/" + kmeansOverlay.relativeWebPath());
-            model.addAttribute("kmeansMaskPath", "/" + kmeansMask.relativeWebPath());
-            model.addAttribute("kmeansSegments", kmeansResult.segmentCount());
-            model.addAttribute("kmeansAreaPercent", String.format("%.2f",
-                    kmeansResult.areasPercent().stream().mapToDouble(Double::doubleValue).sum()));
-
-            model.addAttribute("grabCutOverlayPath", "/" + grabCutOverlay.relativeWebPath());
-            model.addAttribute("grabCutMaskPath", "/" + grabCutMask.relativeWebPath());
-            model.addAttribute("grabCutAreaPercent", String.format("%.2f",
-                    grabCutResult.areasPercent().stream().mapToDouble(Double::doubleValue).sum()));
-
-            model.addAttribute("width", input.getWidth());
-            model.addAttribute("height", input.getHeight());
-            model.addAttribute("totalPixels", input.getWidth() * input.getHeight());
-
-            log.info("All segmentation methods completed successfully for {}", file.getOriginalFilename());
-            return "result";
-
-        } catch (SegmentationException e) {
-            log.warn("Segmentation failed for {}: {}", file.getOriginalFilename(), e.getMessage());
-            model.addAttribute("error", e.getMessage());
-            model.addAttribute("suggestion", getSuggestionForError(e.getMessage()));
-            return "segment";
+        StorageService.StoredFile storedOriginal;
+        ImageLoadingService.Dimensions dims;
+        Callable<BufferedImage> decode;
+        String name;
+        if (original != null && !original.isBlank()) {
+            storedOriginal = storageService.findOriginal(original)
+                    .orElseThrow(() -> new IllegalArgumentException("Оригиналът вече не е наличен. Моля качете файла отново"));
+            dims = imageLoadingService.readDimensions(storedOriginal.path());
+            decode = () -> imageLoadingService.load(storedOriginal.path());
+            name = storedOriginal.filename();
+            log.info("Re-running stored original {}, minRegionSize: {}", name, minRegionSize);
+        } else {
+            imageLoadingService.validateUpload(file);
+            dims = imageLoadingService.readDimensions(file);
+            name = file.getOriginalFilename();
+            log.info("Processing file: {} ({}KB), minRegionSize: {}", name, file.getSize() / 1024, minRegionSize);
+
+            storedOriginal = storageService.store(file);
+            log.debug("File stored as: {} (sha256 {})", storedOriginal.filename(), storedOriginal.contentHash());
+            decode = () -> imageLoadingService.load(file);
         }
-    }
-
-    private void validateUploadedFile(MultipartFile file) {
-        if (file == null || file.isEmpty()) {
-            throw new IllegalArgumentException("Моля изберете файл за качване");
-        }
-
-        String contentType = file.getContentType();
-        if (contentType == null || !SUPPORTED_FORMATS.contains(contentType.toLowerCase())) {
-            throw new IllegalArgumentException(
-                    "Неподдържан формат на файла: " + contentType +
-                            ". Поддържани формати: " + String.join(", ", SUPPORTED_FORMATS)
-            );
-        }
-
-        long maxSize = 10 * 1024 * 1024; // 10MB
-        if (file.getSize() > maxSize) {
-            throw new IllegalArgumentException("Файлът е твърде голям. Максимален размер: 10MB");
+        String contentHash = storedOriginal.contentHash();
+
+        // резервираме памет преди декодирането; при пълен бюджет -> 503 вместо OOM.
+        // isUsable не зарежда OpenCV - това става в CPU задачата при първото GrabCut извикване
+        boolean grabCut = openCvService.isUsable();
+        try (var reservation = admissionService.reserve(dims.width(), dims.height(), grabCut ? ENGINES : KMEANS_ONLY)) {
+            // декодирането и сегментацията вървят в CPU пула; нишката на заявката само чака
+            BufferedImage input = pools.onCpu(decode);
+
+            try {
+                // K-means (традиционна) и GrabCut (ML модел, само с OpenCV) в една CPU задача; при същото съдържание
+                // с друг minRegionSize клъстерирането и морфологията, както и GrabCut, се вземат от кеша по SHA-256
+                Segmented segmented = pools.onCpu(() -> new Segmented(
+                        segmentationService.segment(input, SegmentationOptions.defaults(minRegionSize)
+                                .withCacheKey(contentHash)),
+                        grabCut ? grabCutIfLoadable(input, contentHash) : null));
+                SegmentationResult kmeansResult = segmented.kmeans();
+                var kmeansOverlay = storageService.storeResultImageAsync(kmeansResult.outlinePng());
+                var kmeansMask = storageService.storeResultImageAsync(kmeansResult.maskPng());
+
+                model.addAttribute("originalPath", "/" + storedOriginal.relativeWebPath());
+                model.addAttribute("originalHash", contentHash);
+                model.addAttribute("minRegionSize", minRegionSize);
+
+                model.addAttribute("kmeansOverlayPath", "/" + kmeansOverlay.relativeWebPath());
+                model.addAttribute("kmeansMaskPath", "/" + kmeansMask.relativeWebPath());
+                model.addAttribute("kmeansSegments", kmeansResult.segmentCount());
+                model.addAttribute("kmeansRegions", kmeansResult.regionStats().summaries(
+                        kmeansResult.keptLabels(), input.getWidth() * input.getHeight()));
+                model.addAttribute("kmeansAreaPercent", String.format("%.2f",
+                        kmeansResult.areasPercent().stream().mapToDouble(Double::doubleValue).sum()));
+
+                if (segmented.grabCut() != null) {
+                    SegmentationResult grabCutResult = segmented.grabCut();
+                    var grabCutOverlay = storageService.storeResultImageAsync(grabCutResult.outlinePng());
+                    var grabCutMask = storageService.storeResultImageAsync(grabCutResult.maskPng());
+                    model.addAttribute("grabCutOverlayPath", "/" + grabCutOverlay.relativeWebPath());
+                    model.addAttribute("grabCutMaskPath", "/" + grabCutMask.relativeWebPath());
+                    model.addAttribute("grabCutAreaPercent", String.format("%.2f",
+                            grabCutResult.areasPercent().stream().mapToDouble(Double::doubleValue).sum()));
+                }
+
+                model.addAttribute("width", input.getWidth());
+                model.addAttribute("height", input.getHeight());
+                model.addAttribute("totalPixels", input.getWidth() * input.getHeight());
+
+                log.info("All segmentation methods completed successfully for {}", name);
+                return "result";
+
+            } catch (SegmentationException e) {
+                log.warn("Segmentation failed for {}: {}", name, e.getMessage());
+                model.addAttribute("error", e.getMessage());
+                model.addAttribute("suggestion", getSuggestionForError(e.getMessage()));
+                return "segment";
+            }
         }
     }
 
-    private BufferedImage loadAndValidateImage(MultipartFile file) throws IOException {
-        BufferedImage input;
-        try (var inputStream = file.getInputStream()) {
-            input = ImageIO.read(inputStream);
-        }
-
-        if (input == null) {
-            throw new SegmentationException("Файлът не е валидно изображение или е повреден.");
-        }
-
-        if (input.getWidth() < 50 || input.getHeight() < 50) {
-            throw new SegmentationException("Изображението е твърде малко. Минимален размер: 50x50 пиксела");
-        }
-
-        if (input.getWidth() > 4000 || input.getHeight() > 4000) {
-            throw new SegmentationException("Изображението е твърде голямо. Максимален размер: 4000x4000 пиксела");
+    /** null, ако нативната библиотека не успее да се зареди - страницата показва само k-means. */
+    private SegmentationResult grabCutIfLoadable(BufferedImage input, String contentHash) {
+        try {
+            return openCvService.segmentWithGrabCut(input, true, contentHash);
+        } catch (SegmentationException e) {
+            if (openCvService.isUsable()) throw e;
+            log.warn("GrabCut skipped: {}", e.getMessage());
+            return null;
         }
-
-        log.debug("Image loaded successfully: {}x{}", input.getWidth(), input.getHeight());
-        return input;
     }
 
     private String getSuggestionForError(String errorMessage) {
@@ -171,5 +188,7 @@ public class SegmentationController {
         return "Опитайте с различни параметри или друго изображение.";
     }
 
+    private record Segmented(SegmentationResult kmeans, SegmentationResult grabCut) {}
+
     public static record SegmentDetails(int id, int areaPx, String areaPercent) {}
 }
\ No newline at end of file
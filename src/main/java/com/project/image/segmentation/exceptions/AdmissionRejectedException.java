@@ -0,0 +1,6 @@
+package com.project.image.segmentation.exceptions;
+
+public class AdmissionRejectedException extends RuntimeException {
+    public AdmissionRejectedException(String message) { super(message); }
+    public AdmissionRejectedException(String message, Throwable cause) { super(message, cause); }
+}
@@ -4,11 +4,14 @@ import com.project.image.segmentation.exceptions.SegmentationException;
 import com.project.image.segmentation.exceptions.StorageException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.multipart.MaxUploadSizeExceededException;
 
+import jakarta.servlet.http.HttpServletResponse;
 import jakarta.validation.ConstraintViolationException;
 import java.io.IOException;
 
@@ -23,6 +26,15 @@ public class GlobalExceptionHandler {
         return "index";
     }
 
+    @ExceptionHandler(AdmissionRejectedException.class)
+    public String handleAdmissionRejected(AdmissionRejectedException ex, Model model, HttpServletResponse response) {
+        log.warn("Request rejected by admission control: {}", ex.getMessage());
+        response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+        response.setHeader(HttpHeaders.RETRY_AFTER, "5");
+        model.addAttribute("error", "Сървърът в момента обработва други изображения. Моля опитайте отново след няколко секунди.");
+        return "segment";
+    }
+
     @ExceptionHandler(MaxUploadSizeExceededException.class)
     public String handleMaxUploadSizeExceeded(MaxUploadSizeExceededException ex, Model model) {
         log.warn("File upload size exceeded: {}", ex.getMessage());
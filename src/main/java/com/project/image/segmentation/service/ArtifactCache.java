@@ -0,0 +1,44 @@
+package com.project.image.segmentation.service;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LRU кеш в паметта за наскоро записани резултати, ограничен по общ брой байтове.
+ * Страницата с резултата зарежда картинките веднага след записа им - те се сервират оттук,
+ * без да се отваря файл.
+ */
+final class ArtifactCache {
+    private final long maxBytes;
+    private final LinkedHashMap<String, byte[]> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long bytes;
+
+    ArtifactCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    synchronized void put(String name, byte[] data) {
+        if (data.length > maxBytes) return;
+        byte[] previous = entries.put(name, data);
+        bytes += data.length - (previous == null ? 0 : previous.length);
+        Iterator<Map.Entry<String, byte[]>> it = entries.entrySet().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            bytes -= it.next().getValue().length;
+            it.remove();
+        }
+    }
+
+    synchronized byte[] get(String name) {
+        return entries.get(name);
+    }
+
+    synchronized void remove(String name) {
+        byte[] previous = entries.remove(name);
+        if (previous != null) bytes -= previous.length;
+    }
+
+    synchronized long bytes() {
+        return bytes;
+    }
+}
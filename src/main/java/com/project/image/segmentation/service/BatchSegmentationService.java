@@ -0,0 +1,307 @@
+package com.project.image.segmentation.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.project.image.segmentation.DTOs.BatchItemSummary;
+import com.project.image.segmentation.DTOs.SegmentationOptions;
+import com.project.image.segmentation.DTOs.SegmentationResult;
+import com.project.image.segmentation.exceptions.AdmissionRejectedException;
+import com.project.image.segmentation.exceptions.SegmentationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Поточна пакетна сегментация: ZIP (или няколко файла) на вход, ZIP с маски и JSON резюмета на изход.
+ * Входът се чете запис по запис, декодирането става в работната нишка, а резултатите
+ * се записват веднага щом са готови, така че нито входният, нито изходният архив се държи в паметта.
+ * Записите се обработват в общия CPU пул ({@link ExecutionPools#cpuBackground()}) - при натоварване
+ * пакетът чака място, вместо да заема ядра извън лимита. Паметта за всеки запис се резервира преди
+ * подаването, в нишката на заявката, както при последователностите.
+ */
+@Service
+public class BatchSegmentationService {
+    private static final Logger log = LoggerFactory.getLogger(BatchSegmentationService.class);
+
+    private final SegmentationService segmentationService;
+    private final ImageLoadingService imageLoadingService;
+    private final MemoryAdmissionService admissionService;
+    private final ObjectMapper objectMapper;
+    private final Executor executor;
+    private final int maxInFlight;
+    private final long maxEntryBytes;
+
+    @Autowired
+    public BatchSegmentationService(SegmentationService segmentationService,
+                                    ImageLoadingService imageLoadingService,
+                                    MemoryAdmissionService admissionService,
+                                    ObjectMapper objectMapper,
+                                    ExecutionPools pools,
+                                    @Value("${app.batch.max-in-flight:0}") int maxInFlight,
+                                    @Value("${app.batch.max-entry-size:10485760}") long maxEntryBytes) {
+        this.segmentationService = segmentationService;
+        this.imageLoadingService = imageLoadingService;
+        this.admissionService = admissionService;
+        this.objectMapper = objectMapper;
+        this.executor = pools.cpuBackground();
+        this.maxInFlight = maxInFlight > 0 ? maxInFlight : pools.cpuThreads() * 2;
+        this.maxEntryBytes = maxEntryBytes;
+        log.info("Batch segmentation: {} entries in flight on the CPU pool", this.maxInFlight);
+    }
+
+    @FunctionalInterface
+    public interface EntrySource {
+        InputStream open() throws IOException;
+    }
+
+    public record BatchEntry(String name, EntrySource source) {}
+
+    public int processZip(InputStream zip, int minRegionSize, OutputStream out) throws IOException {
+        try (ZipInputStream zin = new ZipInputStream(zip)) {
+            return process(new ZipEntryIterator(zin, maxEntryBytes), minRegionSize, out);
+        }
+    }
+
+    public int processFiles(List<MultipartFile> files, int minRegionSize, OutputStream out) throws IOException {
+        Iterator<BatchEntry> entries = files.stream()
+                .filter(f -> !f.isEmpty())
+                .map(f -> entryOf(f, imageLoadingService))
+                .iterator();
+        return process(entries, minRegionSize, out);
+    }
+
+    /**
+     * Всяка част се проверява като самостоятелно качване (формат, 10MB) при отварянето си,
+     * така че невалиден файл проваля само своя запис, а не целия пакет.
+     */
+    static BatchEntry entryOf(MultipartFile file, ImageLoadingService imageLoadingService) {
+        return new BatchEntry(file.getOriginalFilename() == null ? "upload" : file.getOriginalFilename(), () -> {
+            imageLoadingService.validateUpload(file);
+            return file.getInputStream();
+        });
+    }
+
+    /**
+     * Подава записите към пула с най-много maxInFlight едновременно и записва всеки резултат
+     * в изходния архив по реда на завършване.
+     */
+    int process(Iterator<BatchEntry> entries, int minRegionSize, OutputStream out) throws IOException {
+        CompletionService<ItemOutcome> completion = new ExecutorCompletionService<>(executor);
+        ZipOutputStream zout = new ZipOutputStream(out);
+        int submitted = 0;
+        int pending = 0;
+        try {
+            while (entries.hasNext()) {
+                if (pending >= maxInFlight) {
+                    write(zout, await(completion.take()));
+                    pending--;
+                }
+                Future<ItemOutcome> done;
+                while ((done = completion.poll()) != null) {
+                    write(zout, await(done));
+                    pending--;
+                }
+
+                BatchEntry entry = entries.next();
+                int index = ++submitted;
+                long start = System.nanoTime();
+                // паметта се резервира в подаващата нишка: чакането за бюджет е обратно налягане
+                // за пакета, а не паркирана CPU нишка, която интерактивните заявки чакат
+                MemoryAdmissionService.Reservation reservation;
+                try {
+                    reservation = reserve(entry);
+                } catch (IOException | RuntimeException e) {
+                    write(zout, failure(index, entry, e, start));
+                    continue;
+                }
+                try {
+                    completion.submit(() -> segmentOne(index, entry, minRegionSize, reservation, start));
+                } catch (RuntimeException e) {
+                    reservation.close();
+                    throw e;
+                }
+                pending++;
+            }
+            while (pending > 0) {
+                write(zout, await(completion.take()));
+                pending--;
+            }
+            zout.finish();
+            zout.flush();
+            log.info("Batch finished: {} entries", submitted);
+            return submitted;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Batch processing interrupted", e);
+        }
+    }
+
+    private MemoryAdmissionService.Reservation reserve(BatchEntry entry) throws IOException {
+        ImageLoadingService.Dimensions dims;
+        try (InputStream in = entry.source().open()) {
+            dims = imageLoadingService.readDimensions(in);
+        }
+        return admissionService.reserve(dims.width(), dims.height(), EnumSet.of(SegmentationEngine.KMEANS));
+    }
+
+    /**
+     * Резервацията се освобождава тук, щом изходът е готов - декодираното изображение вече не е нужно.
+     * Ако се държеше до записа в архива, подаващата нишка можеше да чака бюджет, зает от готови,
+     * но незаписани записи, които само тя освобождава.
+     */
+    private ItemOutcome segmentOne(int index, BatchEntry entry, int minRegionSize,
+                                   MemoryAdmissionService.Reservation reservation, long start) {
+        try (reservation) {
+            BufferedImage image;
+            try (InputStream in = entry.source().open()) {
+                image = imageLoadingService.decode(in);
+            }
+            // пакетът връща само маската - без очертание и оцветяване
+            SegmentationResult result = segmentationService.segment(image,
+                    SegmentationOptions.defaults(minRegionSize).withRenderImages(false));
+            byte[] maskPng = segmentationService.encodeMaskPng(result.objectMask(), result.width(), result.height());
+            String base = baseOf(index, entry);
+            String maskName = "masks/" + base + ".png";
+            long ms = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            return new ItemOutcome(base, maskPng, BatchItemSummary.ok(index, entry.name(), maskName, result, ms));
+        } catch (IOException | RuntimeException e) {
+            return failure(index, entry, e, start);
+        }
+    }
+
+    private static ItemOutcome failure(int index, BatchEntry entry, Exception e, long start) {
+        if (e instanceof SegmentationException || e instanceof AdmissionRejectedException
+                || e instanceof IllegalArgumentException || e instanceof IOException) {
+            log.warn("Batch entry {} failed: {}", entry.name(), e.getMessage());
+            return failed(index, baseOf(index, entry), entry, e.getMessage(), start);
+        }
+        // неочаквана грешка в декодер или конвейера - записва се за този запис, архивът продължава
+        log.error("Batch entry {} failed unexpectedly", entry.name(), e);
+        return failed(index, baseOf(index, entry), entry, e.toString(), start);
+    }
+
+    private static String baseOf(int index, BatchEntry entry) {
+        return String.format("%05d_%s", index, baseName(entry.name()));
+    }
+
+    private static ItemOutcome failed(int index, String base, BatchEntry entry, String error, long start) {
+        long ms = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        return new ItemOutcome(base, null, BatchItemSummary.failed(index, entry.name(), error, ms));
+    }
+
+    private void write(ZipOutputStream zout, ItemOutcome outcome) throws IOException {
+        if (outcome.maskPng() != null) {
+            zout.putNextEntry(new ZipEntry("masks/" + outcome.base() + ".png"));
+            zout.write(outcome.maskPng());
+            zout.closeEntry();
+        }
+        zout.putNextEntry(new ZipEntry("summaries/" + outcome.base() + ".json"));
+        zout.write(objectMapper.writeValueAsBytes(outcome.summary()));
+        zout.closeEntry();
+        zout.flush();
+    }
+
+    private static ItemOutcome await(Future<ItemOutcome> future) throws InterruptedException, IOException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw new IOException("Batch entry failed unexpectedly", e.getCause());
+        }
+    }
+
+    static String baseName(String name) {
+        String file = name.substring(name.lastIndexOf('/') + 1);
+        int dot = file.lastIndexOf('.');
+        if (dot > 0) file = file.substring(0, dot);
+        String safe = file.replaceAll("[^a-zA-Z0-9._-]", "_");
+        return safe.isEmpty() ? "image" : safe;
+    }
+
+    private record ItemOutcome(String base, byte[] maskPng, BatchItemSummary summary) {}
+
+    /**
+     * Мързеливо обхождане на ZIP: всеки запис се прочита едва когато има свободно място в опашката.
+     */
+    static final class ZipEntryIterator implements Iterator<BatchEntry> {
+        private final ZipInputStream zin;
+        private final long maxEntryBytes;
+        private BatchEntry next;
+
+        ZipEntryIterator(ZipInputStream zin, long maxEntryBytes) {
+            this.zin = zin;
+            this.maxEntryBytes = maxEntryBytes;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next != null) return true;
+            try {
+                ZipEntry entry;
+                while ((entry = zin.getNextEntry()) != null) {
+                    if (entry.isDirectory() || isHidden(entry.getName())) continue;
+                    String name = entry.getName();
+                    byte[] data = readEntry();
+                    next = new BatchEntry(name, () -> {
+                        if (data == null) throw new IOException("Archive entry too large: " + name);
+                        return new ByteArrayInputStream(data);
+                    });
+                    return true;
+                }
+                return false;
+            } catch (IOException e) {
+                throw new SegmentationException("Cannot read batch archive: " + e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public BatchEntry next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            BatchEntry entry = next;
+            next = null;
+            return entry;
+        }
+
+        /** Връща null, ако записът надхвърля лимита; остатъкът се прескача без буфериране. */
+        private byte[] readEntry() throws IOException {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            byte[] chunk = new byte[8192];
+            long total = 0;
+            int read;
+            while ((read = zin.read(chunk)) != -1) {
+                total += read;
+                if (total > maxEntryBytes) {
+                    buffer = null;
+                }
+                if (buffer != null) buffer.write(chunk, 0, read);
+            }
+            return buffer == null ? null : buffer.toByteArray();
+        }
+
+        private static boolean isHidden(String name) {
+            String file = name.substring(name.lastIndexOf('/') + 1);
+            return name.startsWith("__MACOSX/") || file.startsWith(".");
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.project.image.segmentation.service;
+
+import com.project.image.segmentation.DTOs.Contour;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Векторни контури от маска: Moore-neighbour обхождане на външната граница на всяка 8-свързана
+ * област и опростяване с Douglas-Peucker. Резултатът е няколко стотин върха вместо растер с ръбовете.
+ */
+public final class ContourTracer {
+
+    /** Допустимо отклонение на опростения многоъгълник от граничните пиксели. */
+    public static final double DEFAULT_EPSILON = 1.0;
+
+    // съседите по часовниковата стрелка (y расте надолу): E, SE, S, SW, W, NW, N, NE
+    private static final int[] DX = {1, 1, 0, -1, -1, -1, 0, 1};
+    private static final int[] DY = {0, 1, 1, 1, 0, -1, -1, -1};
+    private static final int WEST = 4;
+
+    private ContourTracer() {}
+
+    public static List<Contour> trace(boolean[] mask, int w, int h, double epsilon) {
+        return trace(mask, w, h, epsilon, new boolean[w * h], new int[w * h]);
+    }
+
+    /** visited и queue са работни буфери с дължина поне w * h. */
+    static List<Contour> trace(boolean[] mask, int w, int h, double epsilon, boolean[] visited, int[] queue) {
+        int n = w * h;
+        Arrays.fill(visited, 0, n, false);
+        List<Contour> contours = new ArrayList<>();
+        Points boundary = new Points();
+        for (int p = 0; p < n; p++) {
+            if (!mask[p] || visited[p]) continue;
+            // първият пиксел на областта в реда на обхождане - отляво и отгоре е фон
+            boundary.clear();
+            follow(mask, w, h, p % w, p / w, boundary);
+            contours.add(new Contour(simplify(boundary, epsilon)));
+            markComponent(mask, visited, queue, p, w, h);
+        }
+        return contours;
+    }
+
+    /**
+     * Moore-neighbour: от текущия пиксел се търси по часовниковата стрелка, започвайки след последния
+     * фонов съсед, и той става фонов съсед на следващия пиксел. Спира, когато от началото се тръгне
+     * отново в същата посока - така тесните провлаци се обхождат и в двете посоки.
+     */
+    private static void follow(boolean[] mask, int w, int h, int sx, int sy, Points out) {
+        out.add(sx, sy);
+        int x = sx, y = sy, back = WEST, firstMove = -1;
+        for (long guard = 4L * w * h + 8; guard > 0; guard--) {
+            int found = -1;
+            for (int k = 1; k <= 8; k++) {
+                int d = (back + k) & 7, nx = x + DX[d], ny = y + DY[d];
+                if (nx >= 0 && ny >= 0 && nx < w && ny < h && mask[ny * w + nx]) {
+                    found = d;
+                    break;
+                }
+            }
+            if (found < 0) return; // единичен пиксел
+            if (x == sx && y == sy) {
+                if (firstMove < 0) firstMove = found;
+                else if (found == firstMove) return;
+            }
+            // фоновата клетка преди намерената е съседна и на новия пиксел
+            int bd = (found + 7) & 7;
+            int bx = x + DX[bd], by = y + DY[bd];
+            x += DX[found];
+            y += DY[found];
+            back = direction(bx - x, by - y);
+            if (x != sx || y != sy) out.add(x, y);
+        }
+    }
+
+    private static int direction(int dx, int dy) {
+        for (int d = 0; d < 8; d++) {
+            if (DX[d] == dx && DY[d] == dy) return d;
+        }
+        throw new IllegalStateException("Not a neighbour: " + dx + "," + dy);
+    }
+
+    private static void markComponent(boolean[] mask, boolean[] visited, int[] queue, int start, int w, int h) {
+        int head = 0, tail = 0;
+        queue[tail++] = start;
+        visited[start] = true;
+        while (head < tail) {
+            int p = queue[head++], px = p % w, py = p / w;
+            for (int d = 0; d < 8; d++) {
+                int nx = px + DX[d], ny = py + DY[d];
+                if (nx < 0 || ny < 0 || nx >= w || ny >= h) continue;
+                int q = ny * w + nx;
+                if (mask[q] && !visited[q]) {
+                    visited[q] = true;
+                    queue[tail++] = q;
+                }
+            }
+        }
+    }
+
+    /**
+     * Douglas-Peucker за затворен контур: разделя се на две вериги между първия връх и най-далечния
+     * от него и всяка се опростява поотделно (със стек вместо рекурсия).
+     */
+    static int[] simplify(Points ring, double epsilon) {
+        int m = ring.size;
+        if (m <= 3) return Arrays.copyOf(ring.xy, 2 * m);
+        int far = 0;
+        long farD = -1;
+        for (int i = 1; i < m; i++) {
+            long dx = ring.x(i) - ring.x(0), dy = ring.y(i) - ring.y(0), d = dx * dx + dy * dy;
+            if (d > farD) {
+                farD = d;
+                far = i;
+            }
+        }
+        boolean[] keep = new boolean[m + 1];
+        keep[0] = keep[far] = keep[m] = true;
+        int[] stack = new int[2 * (m + 1)];
+        int top = 0;
+        stack[top++] = 0; stack[top++] = far;
+        stack[top++] = far; stack[top++] = m;
+        double eps2 = epsilon * epsilon;
+        while (top > 0) {
+            int j = stack[--top], i = stack[--top];
+            int best = -1;
+            double bestD = eps2;
+            for (int k = i + 1; k < j; k++) {
+                double d = distance2(ring, k, i, j % m);
+                if (d > bestD) {
+                    bestD = d;
+                    best = k;
+                }
+            }
+            if (best >= 0) {
+                keep[best] = true;
+                stack[top++] = i; stack[top++] = best;
+                stack[top++] = best; stack[top++] = j;
+            }
+        }
+        Points out = new Points();
+        for (int i = 0; i < m; i++) {
+            if (keep[i]) out.add(ring.x(i), ring.y(i));
+        }
+        return Arrays.copyOf(out.xy, 2 * out.size);
+    }
+
+    /** Квадрат на разстоянието от връх k до отсечката между върхове a и b. */
+    private static double distance2(Points ring, int k, int a, int b) {
+        double ax = ring.x(a), ay = ring.y(a), bx = ring.x(b), by = ring.y(b), px = ring.x(k), py = ring.y(k);
+        double vx = bx - ax, vy = by - ay, len2 = vx * vx + vy * vy;
+        double t = len2 == 0 ? 0 : Math.max(0, Math.min(1, ((px - ax) * vx + (py - ay) * vy) / len2));
+        double dx = px - (ax + t * vx), dy = py - (ay + t * vy);
+        return dx * dx + dy * dy;
+    }
+
+    /**
+     * SVG с един path за всички контури (evenodd), в пикселни координати на изображението -
+     * слага се върху оригинала без допълнителен PNG. Цветовете са като в PNG-то с очертанието.
+     */
+    public static String toSvg(List<Contour> contours, int w, int h) {
+        StringBuilder path = new StringBuilder();
+        for (Contour contour : contours) {
+            int[] p = contour.points();
+            path.append('M').append(p[0]).append(' ').append(p[1]);
+            for (int i = 2; i < p.length; i += 2) path.append('L').append(p[i]).append(' ').append(p[i + 1]);
+            path.append('Z');
+        }
+        return String.format(Locale.ROOT,
+                "<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"%d\" height=\"%d\" viewBox=\"0 0 %d %d\">"
+                        + "<path d=\"%s\" transform=\"translate(0.5 0.5)\" fill=\"rgb(0,180,255)\" fill-opacity=\"0.3\""
+                        + " fill-rule=\"evenodd\" stroke=\"rgb(255,0,0)\" stroke-width=\"2\""
+                        + " stroke-linejoin=\"round\" vector-effect=\"non-scaling-stroke\"/></svg>",
+                w, h, w, h, path);
+    }
+
+    /** Растящ масив от двойки x, y. */
+    static final class Points {
+        int[] xy = new int[64];
+        int size;
+
+        void add(int x, int y) {
+            if (2 * size == xy.length) xy = Arrays.copyOf(xy, xy.length * 2);
+            xy[2 * size] = x;
+            xy[2 * size + 1] = y;
+            size++;
+        }
+
+        int x(int i) {
+            return xy[2 * i];
+        }
+
+        int y(int i) {
+            return xy[2 * i + 1];
+        }
+
+        void clear() {
+            size = 0;
+        }
+    }
+}
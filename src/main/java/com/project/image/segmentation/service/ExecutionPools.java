@@ -0,0 +1,314 @@
+package com.project.image.segmentation.service;
+
+import com.project.image.segmentation.exceptions.AdmissionRejectedException;
+import com.project.image.segmentation.exceptions.SegmentationException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Разделени пулове (bulkheads) за CPU и I/O работа.
+ * CPU: ForkJoinPool с фиксиран брой нишки (по едно ядро) и ограничен брой задачи в движение
+ * (нишки + опашка) - декодиране, сегментация, PNG кодиране. Паралелните потоци (лентите на
+ * SegmentationService, Superpixels), пуснати от задача в пула, се разклоняват в същия пул, а не в
+ * общия ForkJoinPool - така целият CPU товар остава в лимита. Интерактивните заявки ({@link #onCpu})
+ * при пълен пул се отказват с 503; пакетите и последователностите ({@link #cpuBackground()}) чакат място.
+ * Извън пула (CLI, тестове) паралелните потоци ползват общия ForkJoinPool.
+ * I/O: виртуални нишки на Java 21+ (иначе малък платформен пул) с ограничен брой задачи в движение -
+ * запис на резултатите на диска.
+ * Метрики: executor.* с tag name=cpu|io (Micrometer), executor.in.flight и executor.rejected.
+ */
+@Service
+public class ExecutionPools {
+    private static final Logger log = LoggerFactory.getLogger(ExecutionPools.class);
+
+    static final String CPU = "cpu";
+    static final String IO = "io";
+
+    private final ForkJoinPool cpuPool;
+    private final BoundedExecutor cpu;
+    private final Executor cpuBackground;
+    private final BoundedExecutor ioPool;
+    private final ExecutorService io;
+    private final boolean virtualIo;
+    private final Counter cpuRejected;
+
+    public ExecutionPools(@Value("${app.pools.cpu.threads:0}") int cpuThreads,
+                          @Value("${app.pools.cpu.queue-capacity:32}") int cpuQueue,
+                          @Value("${app.pools.io.max-in-flight:256}") int ioMaxInFlight,
+                          @Value("${app.pools.io.platform-threads:4}") int ioPlatformThreads,
+                          SegmentationMetrics metrics) {
+        int threads = cpuThreads > 0 ? cpuThreads : Runtime.getRuntime().availableProcessors();
+        this.cpuPool = new ForkJoinPool(threads, new CpuThreadFactory(), null, false);
+
+        ThreadFactory virtual = virtualThreadFactory("io-");
+        ExecutorService ioDelegate = virtual != null
+                ? threadPerTaskExecutor(virtual)
+                : Executors.newFixedThreadPool(Math.max(1, ioPlatformThreads), daemon("io-"));
+        this.ioPool = new BoundedExecutor(ioDelegate, Math.max(1, ioMaxInFlight));
+        this.virtualIo = virtual != null;
+
+        var registry = metrics.registry();
+        this.cpu = new BoundedExecutor(ExecutorServiceMetrics.monitor(registry, cpuPool, CPU),
+                threads + Math.max(1, cpuQueue));
+        BoundedExecutor cpuWaiting = cpu.waiting();
+        // вложено извикване от CPU нишка се изпълнява на място - иначе пулът може да чака сам себе си
+        this.cpuBackground = command -> {
+            if (onCpuThread()) command.run();
+            else cpuWaiting.execute(command);
+        };
+        this.io = ExecutorServiceMetrics.monitor(registry, ioPool, IO);
+        this.cpuRejected = Counter.builder("executor.rejected").tag("name", CPU).register(registry);
+        Gauge.builder("executor.in.flight", cpu, BoundedExecutor::inFlight).tag("name", CPU)
+                .register(registry);
+        Counter ioRejected = Counter.builder("executor.rejected").tag("name", IO).register(registry);
+        ioPool.onReject(ioRejected::increment);
+        Gauge.builder("executor.in.flight", ioPool, BoundedExecutor::inFlight).tag("name", IO)
+                .register(registry);
+        Gauge.builder("executor.in.flight.max", ioPool, p -> p.maxInFlight).tag("name", IO)
+                .register(registry);
+
+        log.info("CPU pool: {} threads, queue {}; I/O pool: {} threads, max {} in flight",
+                threads, Math.max(1, cpuQueue), virtualIo ? "virtual" : "platform",
+                Math.max(1, ioMaxInFlight));
+    }
+
+    /** За тестове и CLI: CPU по ядрата, I/O с настройките по подразбиране. */
+    public static ExecutionPools standalone(SegmentationMetrics metrics) {
+        return new ExecutionPools(0, 32, 256, 4, metrics);
+    }
+
+    /**
+     * Изпълнява работата в CPU пула и чака резултата (на виртуална нишка на заявката чакането е евтино).
+     * Извикано от CPU нишка - изпълнява се на място, за да не се блокира пулът сам в себе си.
+     */
+    public <T> T onCpu(Callable<T> work) throws IOException {
+        if (onCpuThread()) {
+            return call(work);
+        }
+        Future<T> future;
+        try {
+            future = cpu.submit(work);
+        } catch (RejectedExecutionException e) {
+            cpuRejected.increment();
+            log.warn("CPU pool saturated: {} tasks in flight", cpu.inFlight());
+            throw new AdmissionRejectedException("Server is busy processing other images. Please retry shortly.");
+        }
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new AdmissionRejectedException("Interrupted while waiting for the CPU pool", e);
+        } catch (ExecutionException e) {
+            throw rethrow(e.getCause());
+        }
+    }
+
+    /**
+     * CPU пулът за фонова работа (пакети, последователности): при пълен пул подаващата нишка чака,
+     * вместо да получи отказ - естествено обратно налягане за поточните отговори.
+     */
+    public Executor cpuBackground() {
+        return cpuBackground;
+    }
+
+    /** Изпълнител за I/O (запис на диска); при надхвърлен лимит хвърля RejectedExecutionException. */
+    public ExecutorService io() {
+        return io;
+    }
+
+    public int cpuThreads() {
+        return cpuPool.getParallelism();
+    }
+
+    public boolean virtualIo() {
+        return virtualIo;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        cpuPool.shutdown();
+        ioPool.shutdown();
+        try {
+            if (!ioPool.awaitTermination(30, TimeUnit.SECONDS)) {
+                log.warn("I/O pool did not drain; {} tasks still running", ioPool.inFlight());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private boolean onCpuThread() {
+        return ForkJoinTask.getPool() == cpuPool;
+    }
+
+    private static <T> T call(Callable<T> work) throws IOException {
+        try {
+            return work.call();
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new SegmentationException("Segmentation failed: " + e.getMessage(), e);
+        }
+    }
+
+    private static IOException rethrow(Throwable cause) throws IOException {
+        if (cause instanceof IOException io) throw io;
+        if (cause instanceof RuntimeException re) throw re;
+        if (cause instanceof Error error) throw error;
+        throw new SegmentationException("Segmentation failed: " + cause.getMessage(), cause);
+    }
+
+    /** Thread.ofVirtual().name(prefix, 1).factory() на Java 21+; null на по-стари JVM. */
+    static ThreadFactory virtualThreadFactory(String prefix) {
+        try {
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, prefix, 1L);
+            return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private static ExecutorService threadPerTaskExecutor(ThreadFactory factory) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                    .invoke(null, factory);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Virtual threads are available but newThreadPerTaskExecutor is not", e);
+        }
+    }
+
+    private static ThreadFactory daemon(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, prefix + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    private static final class CpuThreadFactory implements ForkJoinPool.ForkJoinWorkerThreadFactory {
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+            ForkJoinWorkerThread thread = new ForkJoinWorkerThread(pool) {};
+            thread.setName("cpu-" + counter.incrementAndGet());
+            return thread;
+        }
+    }
+
+    /**
+     * Ограничава задачите в движение (в опашка или изпълнявани) с семафор -
+     * нито виртуалните нишки, нито ForkJoinPool имат опашка, която да се препълни.
+     * Изгледът от {@link #waiting()} дели същите места, но чака за място вместо да отказва.
+     */
+    static final class BoundedExecutor extends AbstractExecutorService {
+        private final ExecutorService delegate;
+        private final Semaphore permits;
+        private final int maxInFlight;
+        private final boolean wait;
+        private Runnable onReject = () -> {};
+
+        BoundedExecutor(ExecutorService delegate, int maxInFlight) {
+            this(delegate, new Semaphore(maxInFlight), maxInFlight, false);
+        }
+
+        private BoundedExecutor(ExecutorService delegate, Semaphore permits, int maxInFlight, boolean wait) {
+            this.delegate = delegate;
+            this.permits = permits;
+            this.maxInFlight = maxInFlight;
+            this.wait = wait;
+        }
+
+        BoundedExecutor waiting() {
+            return new BoundedExecutor(delegate, permits, maxInFlight, true);
+        }
+
+        void onReject(Runnable onReject) {
+            this.onReject = onReject;
+        }
+
+        int inFlight() {
+            return maxInFlight - permits.availablePermits();
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            if (wait) {
+                try {
+                    permits.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RejectedExecutionException("Interrupted while waiting for a free slot", e);
+                }
+            } else if (!permits.tryAcquire()) {
+                onReject.run();
+                throw new RejectedExecutionException("Pool limit of " + maxInFlight + " tasks reached");
+            }
+            try {
+                delegate.execute(() -> {
+                    try {
+                        command.run();
+                    } finally {
+                        permits.release();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                permits.release();
+                throw e;
+            }
+        }
+
+        @Override
+        public void shutdown() {
+            delegate.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return delegate.shutdownNow();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return delegate.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return delegate.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return delegate.awaitTermination(timeout, unit);
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.project.image.segmentation.service;
+
+import com.project.image.segmentation.exceptions.SegmentationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Валидиране и декодиране на входни изображения.
+ * Общо за формата, batch endpoint-а и всички бъдещи входни точки.
+ */
+@Service
+public class ImageLoadingService {
+    private static final Logger log = LoggerFactory.getLogger(ImageLoadingService.class);
+
+    public static final List<String> SUPPORTED_FORMATS = Arrays.asList(
+            "image/jpeg", "image/jpg", "image/png", "image/gif", "image/bmp", "image/webp"
+    );
+
+    public static final int MIN_DIMENSION = 50;
+    public static final int MAX_DIMENSION = 4000;
+    private static final long MAX_UPLOAD_SIZE = 10 * 1024 * 1024; // 10MB
+
+    public void validateUpload(MultipartFile file) {
+        if (file == null || file.isEmpty()) {
+            throw new IllegalArgumentException("Моля изберете файл за качване");
+        }
+
+        String contentType = file.getContentType();
+        if (contentType == null || !SUPPORTED_FORMATS.contains(contentType.toLowerCase())) {
+            throw new IllegalArgumentException(
+                    "Неподдържан формат на файла: " + contentType +
+                            ". Поддържани формати: " + String.join(", ", SUPPORTED_FORMATS)
+            );
+        }
+
+        if (file.getSize() > MAX_UPLOAD_SIZE) {
+            throw new IllegalArgumentException("Файлът е твърде голям. Максимален размер: 10MB");
+        }
+    }
+
+    public record Dimensions(int width, int height) {
+        public long pixels() {
+            return (long) width * height;
+        }
+    }
+
+    public Dimensions readDimensions(MultipartFile file) throws IOException {
+        try (var inputStream = file.getInputStream()) {
+            return readDimensions(inputStream);
+        }
+    }
+
+    public Dimensions readDimensions(Path path) throws IOException {
+        try (var inputStream = Files.newInputStream(path)) {
+            return readDimensions(inputStream);
+        }
+    }
+
+    /**
+     * Чете само заглавката на изображението (без декодиране на пикселите).
+     * Размерите се проверяват веднага, за да не се заделя памет за твърде големи изображения.
+     */
+    public Dimensions readDimensions(InputStream inputStream) throws IOException {
+        try (ImageInputStream iis = ImageIO.createImageInputStream(inputStream)) {
+            ImageReader reader = reader(iis);
+            try {
+                Dimensions dims = new Dimensions(reader.getWidth(0), reader.getHeight(0));
+                validateDimensions(dims.width(), dims.height());
+                return dims;
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Стъпката на подизвадката, при която по-дългата страна става най-много maxSide
+     * (1 - без намаляване; maxSide 0 - без ограничение). По-късата страна не пада под MIN_DIMENSION.
+     */
+    public static int subsampling(Dimensions dims, int maxSide) {
+        int longest = Math.max(dims.width(), dims.height());
+        if (maxSide <= 0 || longest <= maxSide) return 1;
+        int step = (longest + maxSide - 1) / maxSide;
+        return Math.max(1, Math.min(step, Math.min(dims.width(), dims.height()) / MIN_DIMENSION));
+    }
+
+    /** Размерите след подизвадка със стъпка step - колкото пиксела ще върне decode. */
+    public static Dimensions subsampled(Dimensions dims, int step) {
+        return new Dimensions((dims.width() + step - 1) / step, (dims.height() + step - 1) / step);
+    }
+
+    public BufferedImage load(MultipartFile file) throws IOException {
+        return load(file, 0);
+    }
+
+    public BufferedImage load(MultipartFile file, int maxSide) throws IOException {
+        try (var inputStream = file.getInputStream()) {
+            return decode(inputStream, maxSide);
+        }
+    }
+
+    /** Вече съхранен оригинал (повторно пускане) - без ново качване. */
+    public BufferedImage load(Path path) throws IOException {
+        try (var inputStream = Files.newInputStream(path)) {
+            return decode(inputStream, 0);
+        }
+    }
+
+    public BufferedImage decode(byte[] data) throws IOException {
+        return decode(new ByteArrayInputStream(data));
+    }
+
+    public BufferedImage decode(InputStream inputStream) throws IOException {
+        return decode(inputStream, 0);
+    }
+
+    /**
+     * Декодира с ImageReader вместо ImageIO.read: размерите се проверяват по заглавката преди
+     * декодирането, при maxSide > 0 декодерът пропуска редове и колони (setSourceSubsampling) и
+     * не строи пълното изображение, а пикселите отиват направо в TYPE_3BYTE_BGR, ако форматът го
+     * поддържа - този растер RasterRows и OpenCV четат без преобразуване.
+     */
+    public BufferedImage decode(InputStream inputStream, int maxSide) throws IOException {
+        try (ImageInputStream iis = ImageIO.createImageInputStream(inputStream)) {
+            ImageReader reader = reader(iis);
+            try {
+                Dimensions source = new Dimensions(reader.getWidth(0), reader.getHeight(0));
+                validateDimensions(source.width(), source.height());
+
+                ImageReadParam param = reader.getDefaultReadParam();
+                int step = subsampling(source, maxSide);
+                if (step > 1) param.setSourceSubsampling(step, step, 0, 0);
+                ImageTypeSpecifier bgr = bgrType(reader);
+                if (bgr != null) param.setDestinationType(bgr);
+
+                BufferedImage input = reader.read(0, param);
+                log.debug("Image loaded successfully: {}x{} (source {}x{}, subsampling {})",
+                        input.getWidth(), input.getHeight(), source.width(), source.height(), step);
+                return input;
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static ImageReader reader(ImageInputStream iis) {
+        Iterator<ImageReader> readers = iis == null ? null : ImageIO.getImageReaders(iis);
+        if (readers == null || !readers.hasNext()) {
+            throw new SegmentationException("Файлът не е валидно изображение или е повреден.");
+        }
+        ImageReader reader = readers.next();
+        reader.setInput(iis, true, true);
+        return reader;
+    }
+
+    private static ImageTypeSpecifier bgrType(ImageReader reader) throws IOException {
+        for (Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0); types.hasNext(); ) {
+            ImageTypeSpecifier type = types.next();
+            if (type.getBufferedImageType() == BufferedImage.TYPE_3BYTE_BGR) return type;
+        }
+        return null;
+    }
+
+    private static void validateDimensions(int width, int height) {
+        if (width < MIN_DIMENSION || height < MIN_DIMENSION) {
+            throw new SegmentationException("Изображението е твърде малко. Минимален размер: 50x50 пиксела");
+        }
+
+        if (width > MAX_DIMENSION || height > MAX_DIMENSION) {
+            throw new SegmentationException("Изображението е твърде голямо. Максимален размер: 4000x4000 пиксела");
+        }
+    }
+}
@@ -0,0 +1,308 @@
+package com.project.image.segmentation.service;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * k-means върху Lab пиксели в structure-of-arrays вид ({@link Planes}); центроидите са interleaved k x 3.
+ * <ul>
+ *   <li>{@link #lloyd} - класическият вариант: случайни пиксели за начало, всички n*k разстояния на итерация;</li>
+ *   <li>{@link #accelerated} - k-means++ върху извадка, границите на Hamerly за прескачане на разстояния,
+ *       които не могат да сменят клъстера, и спиране при изместване на центроидите под tolerance.</li>
+ * </ul>
+ * При подадени initial центроиди (warm start) и двата варианта пропускат избора на начални точки.
+ * Попикселните масиви (assign, границите) идват отвън с дължина поне n - обикновено от
+ * {@link SegmentationWorkspace}, затова резултатът assign може да е по-дълъг от n.
+ */
+final class KMeans {
+
+    /** Горна граница на извадката за k-means++ - за големи изображения изборът е O(sample * k). */
+    static final int SEED_SAMPLE = 10_000;
+
+    /**
+     * skippedRatio е делът от n*k*iterations разстояния, които не са пресметнати (0 при Lloyd).
+     */
+    record Result(int[] assign, float[] centroids, int iterations, double skippedRatio) {}
+
+    /** L, a, b каналите в отделни масиви - така попикселните цикли се векторизират. */
+    record Planes(float[] l, float[] a, float[] b) {
+        void copyTo(int i, float[] dst, int offset) {
+            dst[offset] = l[i];
+            dst[offset + 1] = a[i];
+            dst[offset + 2] = b[i];
+        }
+    }
+
+    private KMeans() {
+    }
+
+    static Result lloyd(Planes lab, int n, int k, int iters, long seed, float[] initial, PixelKernels kernels,
+                        int[] assign) {
+        Random rnd = new Random(seed);
+        float[] cent = new float[k * 3];
+
+        if (initial != null) {
+            System.arraycopy(initial, 0, cent, 0, k * 3);
+        } else {
+            for (int c = 0; c < k; c++) {
+                lab.copyTo(rnd.nextInt(n), cent, 3 * c);
+            }
+        }
+
+        Arrays.fill(assign, 0, n, -1);
+        float[] sum = new float[k * 3];
+        int[] cnt = new int[k];
+        int iterations = 0;
+        float[] L = lab.l(), A = lab.a(), B = lab.b();
+
+        for (int it = 0; it < iters; it++) {
+            iterations++;
+            boolean changed = kernels.assign(L, A, B, n, cent, k, assign);
+
+            if (!changed && it > 0) break;
+
+            Arrays.fill(sum, 0);
+            Arrays.fill(cnt, 0);
+
+            for (int i = 0; i < n; i++) {
+                int c = assign[i];
+                sum[3 * c]     += L[i];
+                sum[3 * c + 1] += A[i];
+                sum[3 * c + 2] += B[i];
+                cnt[c]++;
+            }
+
+            for (int c = 0; c < k; c++) {
+                if (cnt[c] == 0) continue;
+                cent[3 * c]     = sum[3 * c] / cnt[c];
+                cent[3 * c + 1] = sum[3 * c + 1] / cnt[c];
+                cent[3 * c + 2] = sum[3 * c + 2] / cnt[c];
+            }
+        }
+        return new Result(assign, cent, iterations, 0.0);
+    }
+
+    /**
+     * Hamerly: за всеки пиксел се пазят горна граница u до собствения центроид и долна l до
+     * втория най-близък. Ако u <= max(l, s/2), където s е разстоянието до най-близкия друг центроид,
+     * клъстерът не може да се смени и разстоянията не се смятат. Сумите по клъстери се обновяват
+     * инкрементално само за пикселите, които сменят клъстер.
+     */
+    static Result accelerated(Planes lab, int n, int k, int iters, long seed, float[] initial, double tolerance,
+                              int[] assign, float[] upper, float[] lower) {
+        float[] cent = initial != null ? Arrays.copyOf(initial, k * 3) : seedPlusPlus(lab, n, k, seed);
+
+        double[] sum = new double[k * 3];
+        int[] cnt = new int[k];
+        float[] Ls = lab.l(), As = lab.a(), Bs = lab.b();
+
+        // начално пълно присвояване - единственият проход с всички n*k разстояния
+        for (int i = 0; i < n; i++) {
+            assignFully(lab, i, cent, k, assign, upper, lower);
+            int c = assign[i];
+            sum[3 * c]     += Ls[i];
+            sum[3 * c + 1] += As[i];
+            sum[3 * c + 2] += Bs[i];
+            cnt[c]++;
+        }
+        long computed = (long) n * k;
+        int iterations = 1;
+
+        float[] halfNearest = new float[k];
+        float[] shift = new float[k];
+        double maxShift = moveCentroids(cent, sum, cnt, k, shift);
+
+        while (iterations < iters && maxShift > tolerance) {
+            iterations++;
+            updateBounds(assign, upper, lower, shift, k, n);
+            nearestOtherCentroid(cent, k, halfNearest);
+
+            for (int i = 0; i < n; i++) {
+                int a = assign[i];
+                float bound = Math.max(halfNearest[a], lower[i]);
+                if (upper[i] <= bound) continue;
+
+                float L = Ls[i], A = As[i], B = Bs[i];
+                upper[i] = (float) Math.sqrt(dist2(L, A, B, cent[3 * a], cent[3 * a + 1], cent[3 * a + 2]));
+                computed++;
+                if (upper[i] <= bound) continue;
+
+                assignFully(lab, i, cent, k, assign, upper, lower);
+                computed += k;
+                int b = assign[i];
+                if (b != a) {
+                    sum[3 * a] -= L; sum[3 * a + 1] -= A; sum[3 * a + 2] -= B; cnt[a]--;
+                    sum[3 * b] += L; sum[3 * b + 1] += A; sum[3 * b + 2] += B; cnt[b]++;
+                }
+            }
+            maxShift = moveCentroids(cent, sum, cnt, k, shift);
+        }
+
+        double possible = (double) n * k * iterations;
+        return new Result(assign, cent, iterations, 1.0 - computed / possible);
+    }
+
+    /**
+     * k-means++ върху равномерна извадка: всеки следващ център се избира с вероятност,
+     * пропорционална на квадрата на разстоянието до най-близкия вече избран.
+     */
+    static float[] seedPlusPlus(Planes lab, int n, int k, long seed) {
+        Random rnd = new Random(seed);
+        int m = Math.min(n, SEED_SAMPLE);
+        int[] sample = new int[m];
+        if (m == n) {
+            for (int i = 0; i < n; i++) sample[i] = i;
+        } else {
+            for (int i = 0; i < m; i++) sample[i] = rnd.nextInt(n);
+        }
+        return seedPlusPlus(lab, sample, m, k, rnd);
+    }
+
+    /** Изборът на центрове върху готова извадка - rnd продължава от мястото, където е спряло извличането ѝ. */
+    static float[] seedPlusPlus(Planes lab, int[] sample, int m, int k, Random rnd) {
+        float[] cent = new float[k * 3];
+        lab.copyTo(sample[rnd.nextInt(m)], cent, 0);
+        float[] L = lab.l(), A = lab.a(), B = lab.b();
+
+        double[] d2 = new double[m];
+        Arrays.fill(d2, Double.MAX_VALUE);
+        for (int c = 1; c < k; c++) {
+            int prev = 3 * (c - 1);
+            double total = 0;
+            for (int j = 0; j < m; j++) {
+                int p = sample[j];
+                double d = dist2(L[p], A[p], B[p], cent[prev], cent[prev + 1], cent[prev + 2]);
+                if (d < d2[j]) d2[j] = d;
+                total += d2[j];
+            }
+            int chosen = sample[rnd.nextInt(m)];
+            if (total > 0) {
+                double r = rnd.nextDouble() * total;
+                for (int j = 0; j < m; j++) {
+                    r -= d2[j];
+                    if (r <= 0) {
+                        chosen = sample[j];
+                        break;
+                    }
+                }
+            }
+            lab.copyTo(chosen, cent, 3 * c);
+        }
+        return cent;
+    }
+
+    /** Сума от квадратите на разстоянията до присвоения центроид - за сравняване на няколко старта. */
+    static double inertia(Planes lab, int n, Result result) {
+        float[] L = lab.l(), A = lab.a(), B = lab.b(), cent = result.centroids();
+        int[] assign = result.assign();
+        double total = 0;
+        for (int i = 0; i < n; i++) {
+            int c = 3 * assign[i];
+            total += dist2(L[i], A[i], B[i], cent[c], cent[c + 1], cent[c + 2]);
+        }
+        return total;
+    }
+
+    /**
+     * Индекс на Davies-Bouldin: средното по клъстери на max (S_i + S_j) / d(c_i, c_j), където S е средното
+     * разстояние до центроида. По-малкото е по-добре - компактни и раздалечени клъстери. Два съвпаднали
+     * центроида (k по-голямо от различните цветове) дават безкрайност - най-лошата оценка, а не 0/0 = NaN.
+     */
+    static double daviesBouldin(Planes lab, int n, Result result) {
+        float[] L = lab.l(), A = lab.a(), B = lab.b(), cent = result.centroids();
+        int[] assign = result.assign();
+        int k = cent.length / 3;
+        double[] spread = new double[k];
+        int[] cnt = new int[k];
+        for (int i = 0; i < n; i++) {
+            int c = assign[i];
+            spread[c] += Math.sqrt(dist2(L[i], A[i], B[i], cent[3 * c], cent[3 * c + 1], cent[3 * c + 2]));
+            cnt[c]++;
+        }
+        double total = 0;
+        int used = 0;
+        for (int a = 0; a < k; a++) {
+            if (cnt[a] == 0) continue;
+            double worst = 0;
+            for (int b = 0; b < k; b++) {
+                if (b == a || cnt[b] == 0) continue;
+                double d = Math.sqrt(dist2(cent[3 * a], cent[3 * a + 1], cent[3 * a + 2],
+                        cent[3 * b], cent[3 * b + 1], cent[3 * b + 2]));
+                if (d == 0) return Double.POSITIVE_INFINITY;
+                double ratio = (spread[a] / cnt[a] + spread[b] / cnt[b]) / d;
+                worst = Math.max(worst, ratio);
+            }
+            total += worst;
+            used++;
+        }
+        return used < 2 ? Double.POSITIVE_INFINITY : total / used;
+    }
+
+    private static void assignFully(Planes lab, int i, float[] cent, int k,
+                                    int[] assign, float[] upper, float[] lower) {
+        float L = lab.l()[i], A = lab.a()[i], B = lab.b()[i];
+        int best = 0;
+        float bestD = Float.MAX_VALUE, secondD = Float.MAX_VALUE;
+        for (int c = 0; c < k; c++) {
+            float d = dist2(L, A, B, cent[3 * c], cent[3 * c + 1], cent[3 * c + 2]);
+            if (d < bestD) {
+                secondD = bestD;
+                bestD = d;
+                best = c;
+            } else if (d < secondD) {
+                secondD = d;
+            }
+        }
+        assign[i] = best;
+        upper[i] = (float) Math.sqrt(bestD);
+        lower[i] = (float) Math.sqrt(secondD);
+    }
+
+    /** Нови центроиди от сумите; връща най-голямото изместване, а shift[c] - изместването на всеки. */
+    private static double moveCentroids(float[] cent, double[] sum, int[] cnt, int k, float[] shift) {
+        double maxShift = 0;
+        for (int c = 0; c < k; c++) {
+            if (cnt[c] == 0) {
+                shift[c] = 0;
+                continue;
+            }
+            float L = (float) (sum[3 * c] / cnt[c]);
+            float A = (float) (sum[3 * c + 1] / cnt[c]);
+            float B = (float) (sum[3 * c + 2] / cnt[c]);
+            shift[c] = (float) Math.sqrt(dist2(L, A, B, cent[3 * c], cent[3 * c + 1], cent[3 * c + 2]));
+            cent[3 * c] = L; cent[3 * c + 1] = A; cent[3 * c + 2] = B;
+            maxShift = Math.max(maxShift, shift[c]);
+        }
+        return maxShift;
+    }
+
+    private static void updateBounds(int[] assign, float[] upper, float[] lower, float[] shift, int k, int n) {
+        int largest = 0;
+        for (int c = 1; c < k; c++) if (shift[c] > shift[largest]) largest = c;
+        float second = 0;
+        for (int c = 0; c < k; c++) if (c != largest) second = Math.max(second, shift[c]);
+
+        for (int i = 0; i < n; i++) {
+            int a = assign[i];
+            upper[i] += shift[a];
+            lower[i] -= (a == largest) ? second : shift[largest];
+        }
+    }
+
+    private static void nearestOtherCentroid(float[] cent, int k, float[] half) {
+        Arrays.fill(half, Float.MAX_VALUE);
+        for (int a = 0; a < k; a++) {
+            for (int b = a + 1; b < k; b++) {
+                float d = (float) Math.sqrt(dist2(cent[3 * a], cent[3 * a + 1], cent[3 * a + 2],
+                        cent[3 * b], cent[3 * b + 1], cent[3 * b + 2])) / 2;
+                if (d < half[a]) half[a] = d;
+                if (d < half[b]) half[b] = d;
+            }
+        }
+    }
+
+    static float dist2(float l1, float a1, float b1, float l2, float a2, float b2) {
+        float dl = l1 - l2, da = a1 - a2, db = b1 - b2;
+        return dl*dl + da*da + db*db;
+    }
+}
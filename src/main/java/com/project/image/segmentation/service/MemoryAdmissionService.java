@@ -0,0 +1,127 @@
+package com.project.image.segmentation.service;
+
+import com.project.image.segmentation.exceptions.AdmissionRejectedException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Collection;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Допускане на заявки според оценка на пиковата памет.
+ * Всяка заявка резервира байтове от общ бюджет (справедлив семафор в KB) преди декодирането;
+ * ако бюджетът не се освободи до queue-timeout, заявката се отказва с 503 вместо OutOfMemoryError.
+ */
+@Service
+public class MemoryAdmissionService {
+    private static final Logger log = LoggerFactory.getLogger(MemoryAdmissionService.class);
+
+    /** Декодираното изображение (TYPE_INT_*), общо за всички методи. */
+    static final int INPUT_BYTES_PER_PIXEL = 4;
+
+    private final long budgetKb;
+    private final long queueTimeoutMs;
+    private final Semaphore permits;
+    private final Counter rejected;
+    private final Timer waitTimer;
+
+    public MemoryAdmissionService(@Value("${app.admission.memory-budget-mb:0}") long budgetMb,
+                                  @Value("${app.admission.queue-timeout-ms:10000}") long queueTimeoutMs,
+                                  SegmentationMetrics metrics) {
+        long budgetBytes = budgetMb > 0 ? budgetMb * 1024 * 1024 : Runtime.getRuntime().maxMemory() / 2;
+        this.budgetKb = Math.min(Integer.MAX_VALUE, budgetBytes / 1024);
+        this.queueTimeoutMs = queueTimeoutMs;
+        this.permits = new Semaphore((int) budgetKb, true);
+
+        var registry = metrics.registry();
+        Gauge.builder("admission.memory.budget", () -> budgetKb * 1024)
+                .baseUnit("bytes").register(registry);
+        Gauge.builder("admission.memory.reserved", () -> (budgetKb - permits.availablePermits()) * 1024)
+                .baseUnit("bytes").register(registry);
+        Gauge.builder("admission.queue.waiting", permits::getQueueLength).register(registry);
+        this.rejected = Counter.builder("admission.rejected").register(registry);
+        this.waitTimer = Timer.builder("admission.wait").register(registry);
+
+        log.info("Memory admission budget: {} MB, queue timeout: {} ms", budgetKb / 1024, queueTimeoutMs);
+    }
+
+    /** Приблизителни байтове на пиксел за всеки метод, включително рендерирането и PNG буферите. */
+    static long bytesPerPixel(SegmentationEngine engine) {
+        return switch (engine) {
+            // argb 4 + lab 12 + gray 4 + clusters 4 + labels 4 + ~10 boolean маски + 3 ARGB изхода + PNG
+            case KMEANS -> 60;
+            // BGR копие + Mat + маски + графът на GrabCut (върхове и 8-съседни ребра) + изходи
+            case GRABCUT -> 180;
+            // BGR + gray/binary/dist/markers Mat-ове + изходи
+            case WATERSHED -> 50;
+        };
+    }
+
+    public static long estimateBytes(int width, int height, Collection<SegmentationEngine> engines) {
+        long pixels = (long) width * height;
+        long perPixel = INPUT_BYTES_PER_PIXEL;
+        for (SegmentationEngine engine : engines) perPixel += bytesPerPixel(engine);
+        return pixels * perPixel;
+    }
+
+    public Reservation reserve(int width, int height, Collection<SegmentationEngine> engines) {
+        long bytes = estimateBytes(width, height, engines);
+        // една заявка над целия бюджет все пак може да мине сама
+        int kb = (int) Math.min(budgetKb, Math.max(1, bytes / 1024));
+
+        long start = System.nanoTime();
+        boolean acquired;
+        try {
+            acquired = permits.tryAcquire(kb, queueTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AdmissionRejectedException("Interrupted while waiting for memory budget", e);
+        }
+        waitTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+
+        if (!acquired) {
+            rejected.increment();
+            log.warn("Admission rejected: {}x{} needs ~{} MB, {} MB free of {} MB",
+                    width, height, kb / 1024, permits.availablePermits() / 1024, budgetKb / 1024);
+            throw new AdmissionRejectedException("Server is busy processing other images. Please retry shortly.");
+        }
+        log.debug("Admitted {}x{} with ~{} MB reserved", width, height, kb / 1024);
+        return new Reservation(kb);
+    }
+
+    /** Празна резервация - за работа, която е отказана преди да заеме памет. */
+    public Reservation none() {
+        return new Reservation(0);
+    }
+
+    public long queueTimeoutMs() {
+        return queueTimeoutMs;
+    }
+
+    public final class Reservation implements AutoCloseable {
+        private final int kb;
+        private boolean released;
+
+        private Reservation(int kb) {
+            this.kb = kb;
+        }
+
+        public long bytes() {
+            return kb * 1024L;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (!released) {
+                released = true;
+                permits.release(kb);
+            }
+        }
+    }
+}
@@ -2,36 +2,108 @@ package com.project.image.segmentation.service;
 
 import com.project.image.segmentation.DTOs.SegmentationResult;
 import com.project.image.segmentation.exceptions.SegmentationException;
+import io.micrometer.core.instrument.Gauge;
 import org.opencv.core.*;
 import org.opencv.imgproc.Imgproc;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBufferByte;
+import java.awt.image.Raster;
 import java.io.ByteArrayOutputStream;
 import java.util.Arrays;
 import java.util.List;
 import javax.imageio.ImageIO;
 
+/**
+ * GrabCut и Watershed чрез OpenCV. Нативната библиотека се зарежда при първото извикване ({@link OpenCvNative});
+ * при app.opencv.enabled=false не се зарежда изобщо и методите хвърлят SegmentationException.
+ * GrabCut не зависи от параметрите на формата - с cacheKey (SHA-256 на съдържанието) резултатът се пази
+ * в LRU кеш (app.opencv.result-cache-mb, 0 - без кеш) и повторното пускане на същото изображение не го смята.
+ */
 @Service
 public class OpenCVSegmentationService {
     private static final Logger log = LoggerFactory.getLogger(OpenCVSegmentationService.class);
 
-    static {
-        try {
-            nu.pattern.OpenCV.loadShared();
-            log.info("OpenCV loaded successfully");
-        } catch (Exception e) {
-            log.error("Failed to load OpenCV", e);
+    private final SegmentationMetrics metrics;
+    private final boolean enabled;
+    private final ResultCache grabCutCache;
+
+    public OpenCVSegmentationService(SegmentationMetrics metrics) {
+        this(metrics, true);
+    }
+
+    public OpenCVSegmentationService(SegmentationMetrics metrics, boolean enabled) {
+        this(metrics, enabled, 32);
+    }
+
+    @Autowired
+    public OpenCVSegmentationService(SegmentationMetrics metrics,
+                                     @Value("${app.opencv.enabled:true}") boolean enabled,
+                                     @Value("${app.opencv.result-cache-mb:32}") long resultCacheMb) {
+        this.metrics = metrics;
+        this.enabled = enabled;
+        this.grabCutCache = new ResultCache(resultCacheMb << 20);
+        Gauge.builder("segmentation.result.cache.retained", grabCutCache, ResultCache::bytes)
+                .tag("engine", "grabcut").baseUnit("bytes").register(metrics.registry());
+        if (!enabled) log.info("OpenCV engines are disabled (app.opencv.enabled=false)");
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Включен и зареждането не е пропаднало. Не зарежда библиотеката - преди първото извикване
+     * състоянието е неизвестно (not-loaded) и се приема за използваемо.
+     */
+    public boolean isUsable() {
+        return enabled && OpenCvNative.state() != OpenCvNative.State.FAILED;
+    }
+
+    private void requireNative() {
+        if (!enabled) {
+            throw new SegmentationException("OpenCV engines are disabled on this instance (app.opencv.enabled=false)");
+        }
+        if (!OpenCvNative.load()) {
+            throw new SegmentationException("OpenCV native library is unavailable: " + OpenCvNative.failure());
         }
     }
 
     public SegmentationResult segmentWithGrabCut(BufferedImage input) {
+        return segmentWithGrabCut(input, true);
+    }
+
+    public SegmentationResult segmentWithGrabCut(BufferedImage input, boolean renderImages) {
+        return segmentWithGrabCut(input, renderImages, null);
+    }
+
+    /** cacheKey идентифицира съдържанието (напр. SHA-256 на качения файл); null - без кеш. */
+    public SegmentationResult segmentWithGrabCut(BufferedImage input, boolean renderImages, String cacheKey) {
+        requireNative();
+        String key = cacheKey == null ? null
+                : cacheKey + '|' + input.getWidth() + 'x' + input.getHeight() + (renderImages ? "|render" : "");
+        if (key != null) {
+            SegmentationResult cached = grabCutCache.get(key);
+            metrics.resultCache("grabcut", cached != null);
+            if (cached != null) return cached;
+        }
+        SegmentationResult result = grabCut(input, renderImages);
+        if (key != null) grabCutCache.put(key, result);
+        return result;
+    }
+
+    private SegmentationResult grabCut(BufferedImage input, boolean renderImages) {
+        long start = System.nanoTime();
         try {
             log.info("Starting GrabCut segmentation for image {}x{}", input.getWidth(), input.getHeight());
+            metrics.image("grabcut", input.getWidth(), input.getHeight());
             Mat image = bufferedImageToMat(input);
+            long t = metrics.stage("grabcut", "convert", start);
             Mat mask = new Mat();
             Mat bgdModel = new Mat();
             Mat fgdModel = new Mat();
@@ -42,6 +114,7 @@ public class OpenCVSegmentationService {
                     input.getHeight() - 2*border);
 
             Imgproc.grabCut(image, mask, rectangle, bgdModel, fgdModel, 5, Imgproc.GC_INIT_WITH_RECT);
+            t = metrics.stage("grabcut", "grabcut", t);
 
             Mat finalMask = new Mat();
             Core.bitwise_or(new Mat(mask.size(), mask.type(), new Scalar(Imgproc.GC_FGD)),
@@ -49,20 +122,32 @@ public class OpenCVSegmentationService {
             Core.compare(mask, finalMask, finalMask, Core.CMP_EQ);
 
             boolean[] objectMask = matToBooleanArray(finalMask);
+            metrics.stage("grabcut", "mask", t);
 
-            return generateOpenCVResult(input, objectMask, "GrabCut");
+            SegmentationResult result = generateOpenCVResult(input, objectMask, "GrabCut", renderImages);
+            metrics.segmentation("grabcut", "success", start);
+            return result;
 
         } catch (Exception e) {
+            metrics.segmentation("grabcut", "failure", start);
             log.error("GrabCut segmentation failed", e);
             throw new SegmentationException("GrabCut segmentation failed: " + e.getMessage(), e);
         }
     }
 
     public SegmentationResult segmentWithWatershed(BufferedImage input) {
+        return segmentWithWatershed(input, true);
+    }
+
+    public SegmentationResult segmentWithWatershed(BufferedImage input, boolean renderImages) {
+        requireNative();
+        long start = System.nanoTime();
         try {
             log.info("Starting Watershed segmentation for image {}x{}", input.getWidth(), input.getHeight());
+            metrics.image("watershed", input.getWidth(), input.getHeight());
 
             Mat image = bufferedImageToMat(input);
+            long t = metrics.stage("watershed", "convert", start);
             Mat gray = new Mat();
             Mat binary = new Mat();
 
@@ -93,6 +178,7 @@ public class OpenCVSegmentationService {
             markers.setTo(new Scalar(0), unknown);
 
             Imgproc.watershed(image, markers);
+            t = metrics.stage("watershed", "watershed", t);
 
             Mat finalMask = new Mat();
             Mat boundaryMat = new Mat(markers.size(), markers.type(), new Scalar(-1));
@@ -105,26 +191,42 @@ public class OpenCVSegmentationService {
             Core.bitwise_and(finalMask, notBackground, finalMask);
 
             boolean[] objectMask = matToBooleanArray(finalMask);
+            metrics.stage("watershed", "mask", t);
 
-            return generateOpenCVResult(input, objectMask, "Watershed");
+            SegmentationResult result = generateOpenCVResult(input, objectMask, "Watershed", renderImages);
+            metrics.segmentation("watershed", "success", start);
+            return result;
 
         } catch (Exception e) {
+            metrics.segmentation("watershed", "failure", start);
             log.error("Watershed segmentation failed", e);
             throw new SegmentationException("Watershed segmentation failed: " + e.getMessage(), e);
         }
     }
 
+    /** ImageLoadingService декодира направо в TYPE_3BYTE_BGR - тогава байтовете се копират без прерисуване. */
     private Mat bufferedImageToMat(BufferedImage image) {
-        BufferedImage bgrImage = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_3BYTE_BGR);
-        Graphics2D graphics = bgrImage.createGraphics();
-        graphics.drawImage(image, 0, 0, null);
-        graphics.dispose();
+        BufferedImage bgrImage = image;
+        if (!isPlainBgr(image)) {
+            bgrImage = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_3BYTE_BGR);
+            Graphics2D graphics = bgrImage.createGraphics();
+            graphics.drawImage(image, 0, 0, null);
+            graphics.dispose();
+        }
         byte[] pixels = ((DataBufferByte) bgrImage.getRaster().getDataBuffer()).getData();
         Mat mat = new Mat(image.getHeight(), image.getWidth(), CvType.CV_8UC3);
         mat.put(0, 0, pixels);
         return mat;
     }
 
+    private static boolean isPlainBgr(BufferedImage image) {
+        Raster raster = image.getRaster();
+        return image.getType() == BufferedImage.TYPE_3BYTE_BGR
+                && raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0
+                && raster.getDataBuffer().getOffset() == 0
+                && raster.getDataBuffer().getSize() == image.getWidth() * image.getHeight() * 3;
+    }
+
     private boolean[] matToBooleanArray(Mat mask) {
         int rows = mask.rows();
         int cols = mask.cols();
@@ -138,13 +240,25 @@ public class OpenCVSegmentationService {
         return result;
     }
 
-    private SegmentationResult generateOpenCVResult(BufferedImage input, boolean[] objectMask, String method) {
+    private SegmentationResult generateOpenCVResult(BufferedImage input, boolean[] objectMask, String method,
+                                                    boolean renderImages) {
         int w = input.getWidth();
         int h = input.getHeight();
-
-        BufferedImage maskImage = createMaskImage(objectMask, w, h);
-        BufferedImage overlayImage = createOverlayImage(input, objectMask, w, h);
-        BufferedImage recoloredImage = createRecoloredImage(input, objectMask, w, h);
+        String engine = method.toLowerCase();
+
+        byte[] maskPng = null, overlayPng = null, recoloredPng = null;
+        if (renderImages) {
+            long t = System.nanoTime();
+            BufferedImage maskImage = createMaskImage(objectMask, w, h);
+            BufferedImage overlayImage = createOverlayImage(input, objectMask, w, h);
+            BufferedImage recoloredImage = createRecoloredImage(input, objectMask, w, h);
+            t = metrics.stage(engine, "render", t);
+
+            maskPng = toPng(maskImage);
+            overlayPng = toPng(overlayImage);
+            recoloredPng = toPng(recoloredImage);
+            metrics.stage(engine, "encode", t);
+        }
 
         int totalPixels = 0;
         for (boolean pixel : objectMask) {
@@ -154,13 +268,15 @@ public class OpenCVSegmentationService {
         List<Integer> areas = Arrays.asList(totalPixels);
         List<Double> percentages = Arrays.asList(100.0 * totalPixels / (w * h));
 
-        log.info("{} segmentation completed: {} pixels ({:.2f}%)",
-                method, totalPixels, percentages.get(0));
+        log.info("{} segmentation completed: {} pixels ({}%)",
+                method, totalPixels, String.format("%.2f", percentages.get(0)));
+        metrics.regions(engine, 1);
 
         return new SegmentationResult(
                 w, h, 0, 1,
-                toPng(maskImage), toPng(overlayImage), toPng(recoloredImage),
-                areas, percentages
+                maskPng, overlayPng, recoloredPng,
+                areas, percentages,
+                objectMask, null, null, null, null, null
         );
     }
 
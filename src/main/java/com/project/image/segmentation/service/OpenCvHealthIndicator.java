@@ -0,0 +1,32 @@
+package com.project.image.segmentation.service;
+
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+/**
+ * /actuator/health/openCv: DOWN, ако OpenCV е включен, но нативната библиотека не се е заредила.
+ * Проверката не зарежда библиотеката - до първото GrabCut/Watershed извикване състоянието е not-loaded.
+ */
+@Component
+public class OpenCvHealthIndicator implements HealthIndicator {
+    private final OpenCVSegmentationService openCvService;
+
+    public OpenCvHealthIndicator(OpenCVSegmentationService openCvService) {
+        this.openCvService = openCvService;
+    }
+
+    @Override
+    public Health health() {
+        if (!openCvService.isEnabled()) {
+            return Health.up().withDetail("native", "disabled").build();
+        }
+        return switch (OpenCvNative.state()) {
+            case NOT_LOADED -> Health.up().withDetail("native", "not-loaded").build();
+            case LOADED -> Health.up().withDetail("native", "loaded")
+                    .withDetail("version", org.opencv.core.Core.VERSION).build();
+            case FAILED -> Health.down().withDetail("native", "failed")
+                    .withDetail("error", OpenCvNative.failure()).build();
+        };
+    }
+}
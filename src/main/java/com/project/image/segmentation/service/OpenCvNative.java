@@ -0,0 +1,50 @@
+package com.project.image.segmentation.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Нативната библиотека на OpenCV се разархивира и свързва веднъж за процеса, при първото GrabCut/Watershed
+ * извикване, а не при старта на контекста - възлите само с k-means не плащат за нея.
+ * Неуспехът се помни и се вижда в health индикатора, вместо само да се логне.
+ */
+final class OpenCvNative {
+    private static final Logger log = LoggerFactory.getLogger(OpenCvNative.class);
+
+    enum State { NOT_LOADED, LOADED, FAILED }
+
+    private static volatile State state = State.NOT_LOADED;
+    private static volatile String failure;
+
+    private OpenCvNative() {}
+
+    static boolean load() {
+        if (state == State.NOT_LOADED) {
+            synchronized (OpenCvNative.class) {
+                if (state == State.NOT_LOADED) {
+                    long start = System.nanoTime();
+                    try {
+                        // loadShared не се поддържа от Java 12 нататък и така или иначе пада към loadLocally
+                        nu.pattern.OpenCV.loadLocally();
+                        state = State.LOADED;
+                        log.info("OpenCV {} loaded in {} ms", org.opencv.core.Core.VERSION,
+                                (System.nanoTime() - start) / 1_000_000);
+                    } catch (Throwable e) {
+                        failure = e.getClass().getSimpleName() + ": " + e.getMessage();
+                        state = State.FAILED;
+                        log.error("Failed to load OpenCV", e);
+                    }
+                }
+            }
+        }
+        return state == State.LOADED;
+    }
+
+    static State state() {
+        return state;
+    }
+
+    static String failure() {
+        return failure;
+    }
+}
@@ -0,0 +1,66 @@
+package com.project.image.segmentation.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Попикселните ядра на сегментацията върху structure-of-arrays (отделни L, a, b масиви).
+ * Има скаларна реализация и такава с Vector API ({@code jdk.incubator.vector});
+ * векторната се избира веднъж при старт, ако модулът е зареден (--add-modules jdk.incubator.vector)
+ * и не е изключена с -Dsegmentation.simd=false.
+ */
+public interface PixelKernels {
+
+    /**
+     * count пиксела argb -> Lab (D65) в L/A/B от позиция offset нататък; яркостта по Rec.709
+     * (0..255) не се пази, а само се натрупва в histogram.
+     */
+    void toLab(int[] argb, int count, float[] L, float[] A, float[] B, int offset, int[] histogram);
+
+    /**
+     * Най-близкият центроид (interleaved k x 3) за всеки пиксел; при равенство печели по-малкият индекс.
+     * Връща дали някое присвояване се е променило.
+     */
+    boolean assign(float[] L, float[] A, float[] B, int n, float[] cent, int k, int[] assign);
+
+    /** Смесва tintRgb с тежест alpha в пикселите, където mask е true; резултатът е непрозрачен. */
+    void blend(int[] argb, boolean[] mask, int tintRgb, float alpha);
+
+    String name();
+
+    static PixelKernels scalar() {
+        return ScalarKernels.INSTANCE;
+    }
+
+    /** Векторната реализация, ако е налична, иначе скаларната. */
+    static PixelKernels best() {
+        return Holder.BEST;
+    }
+
+    final class Holder {
+        private static final Logger log = LoggerFactory.getLogger(PixelKernels.class);
+        private static final PixelKernels BEST = select();
+
+        private Holder() {
+        }
+
+        private static PixelKernels select() {
+            boolean enabled = Boolean.parseBoolean(System.getProperty("segmentation.simd", "true"));
+            if (enabled && ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+                try {
+                    // зарежда се по име, за да не се свързват класовете на Vector API без модула
+                    PixelKernels kernels = (PixelKernels) Class
+                            .forName("com.project.image.segmentation.service.VectorKernels")
+                            .getDeclaredConstructor().newInstance();
+                    log.info("Pixel kernels: {}", kernels.name());
+                    return kernels;
+                } catch (ReflectiveOperationException | LinkageError e) {
+                    log.warn("Vector API kernels unavailable, using scalar: {}", e.toString());
+                }
+            } else {
+                log.info("Pixel kernels: scalar (jdk.incubator.vector {})", enabled ? "not loaded" : "disabled");
+            }
+            return ScalarKernels.INSTANCE;
+        }
+    }
+}
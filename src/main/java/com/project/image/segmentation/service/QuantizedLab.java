@@ -0,0 +1,163 @@
+package com.project.image.segmentation.service;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Lab с по 8 бита на канал - 3 байта на пиксел вместо 12 за float равнините.
+ * L (0..100) се мащабира към 0..255 (стъпка ~0.39), a и b се закръглят до цяло и се отместват с 128
+ * (sRGB гамата е в -128..127). Грешката от квантуването е под 0.6 ΔE - далеч под разстоянията
+ * между клъстерите. Центроидите остават float в единици Lab, така че моделът е съвместим с float пътя.
+ */
+final class QuantizedLab {
+
+    static final float L_STEP = 100f / 255f;
+    /** Пиксели, разкодирани наведнъж при k-means - 48 KB float, остават в L1/L2. */
+    private static final int BLOCK = 4096;
+
+    // буферите на блока при преобразуването - по един на нишка, не на ивица
+    private static final ThreadLocal<Block> BLOCKS = ThreadLocal.withInitial(Block::new);
+
+    final byte[] l, a, b;
+
+    QuantizedLab(byte[] l, byte[] a, byte[] b) {
+        this.l = l;
+        this.a = a;
+        this.b = b;
+    }
+
+    /**
+     * count пиксела 0xRRGGBB към позиции offset + i, на блокове от {@link #BLOCK}: float Lab съществува
+     * само за един блок на нишка. Хистограмата на яркостта се дописва както при float пътя.
+     */
+    void fromArgb(int[] argb, int count, int offset, PixelKernels kernels, int[] histogram) {
+        Block block = BLOCKS.get();
+        for (int from = 0; from < count; from += BLOCK) {
+            int len = Math.min(BLOCK, count - from);
+            System.arraycopy(argb, from, block.argb, 0, len);
+            kernels.toLab(block.argb, len, block.lab.l(), block.lab.a(), block.lab.b(), 0, histogram);
+            quantize(block.lab, len, offset + from);
+        }
+    }
+
+    /** count стойности от src (от позиция 0) към позиции offset + i. */
+    void quantize(KMeans.Planes src, int count, int offset) {
+        float[] L = src.l(), A = src.a(), B = src.b();
+        for (int i = 0; i < count; i++) {
+            l[offset + i] = (byte) clamp(Math.round(L[i] / L_STEP), 0, 255);
+            a[offset + i] = (byte) (clamp(Math.round(A[i]), -128, 127) + 128);
+            b[offset + i] = (byte) (clamp(Math.round(B[i]), -128, 127) + 128);
+        }
+    }
+
+    float l(int i) {
+        return (l[i] & 0xFF) * L_STEP;
+    }
+
+    float a(int i) {
+        return (a[i] & 0xFF) - 128;
+    }
+
+    float b(int i) {
+        return (b[i] & 0xFF) - 128;
+    }
+
+    /**
+     * Lloyd върху квантуваните пиксели. Пикселите се разкодират на блокове от {@link #BLOCK} във float
+     * и се присвояват със същото ядро като float пътя, така че в пълен размер остават само байтовете.
+     * Сумите са цели числа в квантувани единици. Спира, когато нищо не се смени или центроидите
+     * се изместят под tolerance (0 - само първото).
+     */
+    static KMeans.Result kmeans(QuantizedLab lab, int n, int k, int iters, float[] initial, double tolerance,
+                                PixelKernels kernels, int[] assign) {
+        float[] cent = Arrays.copyOf(initial, k * 3);
+        float[] bl = new float[BLOCK], ba = new float[BLOCK], bb = new float[BLOCK];
+        int[] blockAssign = new int[BLOCK];
+        long[] sum = new long[k * 3];
+        int[] cnt = new int[k];
+        Arrays.fill(assign, 0, n, -1);
+        byte[] Lq = lab.l, Aq = lab.a, Bq = lab.b;
+        int iterations = 0;
+
+        for (int it = 0; it < iters; it++) {
+            iterations++;
+            Arrays.fill(sum, 0);
+            Arrays.fill(cnt, 0);
+            boolean changed = false;
+            for (int from = 0; from < n; from += BLOCK) {
+                int len = Math.min(BLOCK, n - from);
+                for (int j = 0, i = from; j < len; j++, i++) {
+                    bl[j] = (Lq[i] & 0xFF) * L_STEP;
+                    ba[j] = (Aq[i] & 0xFF) - 128;
+                    bb[j] = (Bq[i] & 0xFF) - 128;
+                }
+                System.arraycopy(assign, from, blockAssign, 0, len);
+                if (kernels.assign(bl, ba, bb, len, cent, k, blockAssign)) {
+                    System.arraycopy(blockAssign, 0, assign, from, len);
+                    changed = true;
+                }
+                for (int j = 0, i = from; j < len; j++, i++) {
+                    int c = blockAssign[j];
+                    sum[3 * c]     += Lq[i] & 0xFF;
+                    sum[3 * c + 1] += Aq[i] & 0xFF;
+                    sum[3 * c + 2] += Bq[i] & 0xFF;
+                    cnt[c]++;
+                }
+            }
+
+            if (!changed && it > 0) break;
+
+            double maxShift = 0;
+            for (int c = 0; c < k; c++) {
+                if (cnt[c] == 0) continue;
+                float L = (float) sum[3 * c] / cnt[c] * L_STEP;
+                float A = (float) sum[3 * c + 1] / cnt[c] - 128;
+                float B = (float) sum[3 * c + 2] / cnt[c] - 128;
+                maxShift = Math.max(maxShift,
+                        Math.sqrt(KMeans.dist2(L, A, B, cent[3 * c], cent[3 * c + 1], cent[3 * c + 2])));
+                cent[3 * c] = L; cent[3 * c + 1] = A; cent[3 * c + 2] = B;
+            }
+            if (maxShift <= tolerance) break;
+        }
+        return new KMeans.Result(assign, cent, iterations, 0.0);
+    }
+
+    /** Началото на {@link KMeans#lloyd}: k случайни пиксела. */
+    float[] randomSeeds(int n, int k, long seed) {
+        Random rnd = new Random(seed);
+        float[] cent = new float[k * 3];
+        for (int c = 0; c < k; c++) copyTo(rnd.nextInt(n), cent, 3 * c);
+        return cent;
+    }
+
+    /** Началото на {@link KMeans#accelerated}: k-means++ върху същата извадка, разкодирана във float. */
+    float[] seedPlusPlus(int n, int k, long seed) {
+        Random rnd = new Random(seed);
+        int m = Math.min(n, KMeans.SEED_SAMPLE);
+        float[] sl = new float[m], sa = new float[m], sb = new float[m];
+        int[] sample = new int[m];
+        for (int j = 0; j < m; j++) {
+            int p = m == n ? j : rnd.nextInt(n);
+            sl[j] = l(p);
+            sa[j] = a(p);
+            sb[j] = b(p);
+            sample[j] = j;
+        }
+        return KMeans.seedPlusPlus(new KMeans.Planes(sl, sa, sb), sample, m, k, rnd);
+    }
+
+    private void copyTo(int i, float[] dst, int offset) {
+        dst[offset] = l(i);
+        dst[offset + 1] = a(i);
+        dst[offset + 2] = b(i);
+    }
+
+    private static int clamp(int v, int lo, int hi) {
+        return v < lo ? lo : Math.min(v, hi);
+    }
+
+    private static final class Block {
+        final int[] argb = new int[BLOCK];
+        final KMeans.Planes lab = new KMeans.Planes(new float[BLOCK], new float[BLOCK], new float[BLOCK]);
+    }
+}
@@ -0,0 +1,120 @@
+package com.project.image.segmentation.service;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+
+/**
+ * Чете редове от изображение като 0xRRGGBB (алфата не се ползва) направо от растера.
+ * Бързи пътища за int RGB/ARGB и за байтовите sRGB растери (BGR/ABGR/RGB), с които ImageIO декодира
+ * JPEG и PNG; за всичко останало (вкл. сивите, където getRGB прилага гама) - {@link BufferedImage#getRGB}.
+ * Безопасно е за паралелно четене на различни редове.
+ */
+abstract class RasterRows {
+
+    final int width;
+
+    private RasterRows(int width) {
+        this.width = width;
+    }
+
+    /** rows реда от y0 в dst[0 .. rows * width). */
+    abstract void read(int y0, int rows, int[] dst);
+
+    static RasterRows of(BufferedImage image) {
+        Raster raster = image.getRaster();
+        boolean untranslated = raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0
+                && raster.getDataBuffer().getOffset() == 0;
+        if (untranslated) {
+            int type = image.getType();
+            if ((type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB)
+                    && raster.getSampleModel() instanceof SinglePixelPackedSampleModel sm) {
+                return new PackedInt(image.getWidth(), ((DataBufferInt) raster.getDataBuffer()).getData(),
+                        sm.getScanlineStride());
+            }
+            if (raster.getDataBuffer() instanceof DataBufferByte bytes
+                    && raster.getSampleModel() instanceof ComponentSampleModel sm
+                    && image.getColorModel() instanceof ComponentColorModel cm
+                    && !cm.isAlphaPremultiplied()
+                    && sm.getSampleSize(0) == 8
+                    && bytes.getNumBanks() == 1
+                    && cm.getColorSpace().isCS_sRGB()
+                    && (sm.getNumBands() == 3 || sm.getNumBands() == 4)) {
+                return new InterleavedBytes(image.getWidth(), bytes.getData(), sm.getScanlineStride(),
+                        sm.getPixelStride(), sm.getBandOffsets());
+            }
+        }
+        return new Generic(image);
+    }
+
+    /** Пикселите са директно int-ове 0x(AA)RRGGBB - копира се ред по ред. */
+    private static final class PackedInt extends RasterRows {
+        private final int[] data;
+        private final int stride;
+
+        PackedInt(int width, int[] data, int stride) {
+            super(width);
+            this.data = data;
+            this.stride = stride;
+        }
+
+        @Override
+        void read(int y0, int rows, int[] dst) {
+            if (stride == width) {
+                System.arraycopy(data, y0 * stride, dst, 0, rows * width);
+                return;
+            }
+            for (int r = 0; r < rows; r++) {
+                System.arraycopy(data, (y0 + r) * stride, dst, r * width, width);
+            }
+        }
+    }
+
+    /** По един байт на канал в sRGB; bandOffsets дава позицията на R, G и B в пиксела. */
+    private static final class InterleavedBytes extends RasterRows {
+        private final byte[] data;
+        private final int stride;
+        private final int pixelStride;
+        private final int offR, offG, offB;
+
+        InterleavedBytes(int width, byte[] data, int stride, int pixelStride, int[] bandOffsets) {
+            super(width);
+            this.data = data;
+            this.stride = stride;
+            this.pixelStride = pixelStride;
+            this.offR = bandOffsets[0];
+            this.offG = bandOffsets[1];
+            this.offB = bandOffsets[2];
+        }
+
+        @Override
+        void read(int y0, int rows, int[] dst) {
+            int d = 0;
+            for (int r = 0; r < rows; r++) {
+                int p = (y0 + r) * stride;
+                for (int x = 0; x < width; x++, p += pixelStride) {
+                    dst[d++] = ((data[p + offR] & 0xFF) << 16) | ((data[p + offG] & 0xFF) << 8)
+                            | (data[p + offB] & 0xFF);
+                }
+            }
+        }
+    }
+
+    private static final class Generic extends RasterRows {
+        private final BufferedImage image;
+
+        Generic(BufferedImage image) {
+            super(image.getWidth());
+            this.image = image;
+        }
+
+        @Override
+        void read(int y0, int rows, int[] dst) {
+            image.getRGB(0, y0, width, rows, dst, 0, width);
+        }
+    }
+}
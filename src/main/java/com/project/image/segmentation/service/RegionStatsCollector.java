@@ -0,0 +1,81 @@
+package com.project.image.segmentation.service;
+
+import com.project.image.segmentation.DTOs.RegionStats;
+
+import java.util.Arrays;
+
+/**
+ * Натрупва {@link RegionStats} по време на етикетирането: след flood fill пикселите на региона са
+ * в опашката и кутията, центърът и периметърът се смятат с един проход по тях. Цветът идва отделно
+ * ({@link #addColor}), защото пълен argb масив не се пази.
+ */
+final class RegionStatsCollector {
+
+    private int count;
+    private int[] area = new int[16], minX = new int[16], minY = new int[16], maxX = new int[16],
+            maxY = new int[16], perimeter = new int[16];
+    private long[] sumX = new long[16], sumY = new long[16], sumRgb = new long[48];
+
+    /** pixels[0 .. size) е регионът с етикет label, вече записан в labels. */
+    void add(int[] pixels, int size, int[] labels, int label, int w, int h) {
+        if (count == area.length) grow();
+        int x0 = w, y0 = h, x1 = -1, y1 = -1, edge = 0;
+        long sx = 0, sy = 0;
+        for (int j = 0; j < size; j++) {
+            int p = pixels[j], x = p % w, y = p / w;
+            sx += x;
+            sy += y;
+            if (x < x0) x0 = x;
+            if (x > x1) x1 = x;
+            if (y < y0) y0 = y;
+            if (y > y1) y1 = y;
+            if (x == 0 || y == 0 || x == w - 1 || y == h - 1
+                    || labels[p - 1] != label || labels[p + 1] != label
+                    || labels[p - w] != label || labels[p + w] != label) {
+                edge++;
+            }
+        }
+        area[count] = size;
+        minX[count] = x0; minY[count] = y0; maxX[count] = x1; maxY[count] = y1;
+        sumX[count] = sx; sumY[count] = sy;
+        perimeter[count] = edge;
+        count++;
+    }
+
+    int count() {
+        return count;
+    }
+
+    /** Суми на R, G и B по региони (3 на регион), напр. от една ивица на растера. */
+    void addColor(long[] rgbSums) {
+        for (int i = 0; i < 3 * count; i++) sumRgb[i] += rgbSums[i];
+    }
+
+    RegionStats build() {
+        float[] cx = new float[count], cy = new float[count];
+        int[] rgb = new int[count];
+        for (int r = 0; r < count; r++) {
+            cx[r] = (float) sumX[r] / area[r];
+            cy[r] = (float) sumY[r] / area[r];
+            int red = (int) Math.round((double) sumRgb[3 * r] / area[r]);
+            int green = (int) Math.round((double) sumRgb[3 * r + 1] / area[r]);
+            int blue = (int) Math.round((double) sumRgb[3 * r + 2] / area[r]);
+            rgb[r] = (red << 16) | (green << 8) | blue;
+        }
+        return new RegionStats(Arrays.copyOf(area, count), Arrays.copyOf(minX, count), Arrays.copyOf(minY, count),
+                Arrays.copyOf(maxX, count), Arrays.copyOf(maxY, count), cx, cy, rgb, Arrays.copyOf(perimeter, count));
+    }
+
+    private void grow() {
+        int size = area.length * 2;
+        area = Arrays.copyOf(area, size);
+        minX = Arrays.copyOf(minX, size);
+        minY = Arrays.copyOf(minY, size);
+        maxX = Arrays.copyOf(maxX, size);
+        maxY = Arrays.copyOf(maxY, size);
+        perimeter = Arrays.copyOf(perimeter, size);
+        sumX = Arrays.copyOf(sumX, size);
+        sumY = Arrays.copyOf(sumY, size);
+        sumRgb = Arrays.copyOf(sumRgb, 3 * size);
+    }
+}
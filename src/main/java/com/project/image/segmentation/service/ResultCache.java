@@ -0,0 +1,51 @@
+package com.project.image.segmentation.service;
+
+import com.project.image.segmentation.DTOs.SegmentationResult;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LRU кеш на готови резултати по ключ на съдържанието, ограничен по байтове - за методите,
+ * които не зависят от параметрите на формата (GrabCut). Устроен като {@link StageCache}.
+ */
+final class ResultCache {
+
+    private final long maxBytes;
+    private final LinkedHashMap<String, SegmentationResult> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+
+    ResultCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    synchronized void put(String key, SegmentationResult result) {
+        long size = bytes(result);
+        if (size > maxBytes) return;
+        SegmentationResult previous = entries.put(key, result);
+        bytes += size - (previous == null ? 0 : bytes(previous));
+        Iterator<Map.Entry<String, SegmentationResult>> it = entries.entrySet().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            bytes -= bytes(it.next().getValue());
+            it.remove();
+        }
+    }
+
+    synchronized SegmentationResult get(String key) {
+        return entries.get(key);
+    }
+
+    synchronized long bytes() {
+        return bytes;
+    }
+
+    private static long bytes(SegmentationResult result) {
+        return result.objectMask().length + length(result.maskPng()) + length(result.outlinePng())
+                + length(result.recoloredPng());
+    }
+
+    private static long length(byte[] png) {
+        return png == null ? 0 : png.length;
+    }
+}
@@ -0,0 +1,168 @@
+package com.project.image.segmentation.service;
+
+import com.project.image.segmentation.DTOs.RleMask;
+
+import java.util.Arrays;
+
+/**
+ * Run-length кодиране на маски директно от boolean[]/int[] без PNG междинна стъпка.
+ * Входът е row-major (idx = y*w + x), изходът е column-major според COCO.
+ */
+public final class RleEncoder {
+
+    private RleEncoder() {}
+
+    public static RleMask encode(boolean[] mask, int w, int h) {
+        IntList counts = new IntList();
+        boolean current = false;
+        int run = 0;
+        for (int x = 0; x < w; x++) {
+            for (int idx = x; idx < w * h; idx += w) {
+                if (mask[idx] != current) {
+                    counts.add(run);
+                    current = mask[idx];
+                    run = 0;
+                }
+                run++;
+            }
+        }
+        counts.add(run);
+        return new RleMask(new int[]{h, w}, counts.toArray());
+    }
+
+    /**
+     * Регионите на финалната маска: етикетите от flood fill са отпреди доизглаждането (разрастване,
+     * морфология, запълване на дупки, почистване), затова всеки пиксел на mask получава региона,
+     * от който е достигнат - първо в самата маска (8-свързано) от запазените етикети в нея, а
+     * останалите (компоненти без такъв етикет) - най-близкия запазен етикет по решетката.
+     * Етикетите извън mask отпадат, така че обединението на регионите е точно mask; регион,
+     * премахнат изцяло от почистването, е празен.
+     */
+    public static RleMask[] encodeRegions(int[] labels, int[] keptLabels, boolean[] mask, int w, int h) {
+        return encodeRegions(constrain(labels, keptLabels, mask, w, h), keptLabels, w, h);
+    }
+
+    /** Броят пиксели в маската - сумата на сериите от единици (нечетните позиции в counts). */
+    public static int area(RleMask rle) {
+        int area = 0;
+        for (int i = 1; i < rle.counts().length; i += 2) area += rle.counts()[i];
+        return area;
+    }
+
+    /**
+     * Кодира всеки запазен етикет поотделно с едно обхождане на картата:
+     * пиксел принадлежи на най-много един регион, така че при смяна на региона
+     * се затваря серията на предишния и се отваря тази на новия.
+     */
+    public static RleMask[] encodeRegions(int[] labels, int[] keptLabels, int w, int h) {
+        int maxLabel = 0;
+        for (int label : keptLabels) maxLabel = Math.max(maxLabel, label);
+        int[] regionOf = new int[maxLabel + 1];
+        Arrays.fill(regionOf, -1);
+        for (int r = 0; r < keptLabels.length; r++) regionOf[keptLabels[r]] = r;
+
+        int regions = keptLabels.length;
+        IntList[] counts = new IntList[regions];
+        int[] runStart = new int[regions];
+        for (int r = 0; r < regions; r++) counts[r] = new IntList();
+
+        int pos = 0;
+        int prev = -1;
+        for (int x = 0; x < w; x++) {
+            for (int idx = x; idx < w * h; idx += w, pos++) {
+                int label = labels[idx];
+                int cur = (label > 0 && label <= maxLabel) ? regionOf[label] : -1;
+                if (cur != prev) {
+                    if (prev >= 0) {
+                        counts[prev].add(pos - runStart[prev]);
+                        runStart[prev] = pos;
+                    }
+                    if (cur >= 0) {
+                        counts[cur].add(pos - runStart[cur]);
+                        runStart[cur] = pos;
+                    }
+                    prev = cur;
+                }
+            }
+        }
+
+        RleMask[] out = new RleMask[regions];
+        for (int r = 0; r < regions; r++) {
+            counts[r].add(pos - runStart[r]);
+            out[r] = new RleMask(new int[]{h, w}, counts[r].toArray());
+        }
+        return out;
+    }
+
+    private static int[] constrain(int[] labels, int[] keptLabels, boolean[] mask, int w, int h) {
+        int n = w * h;
+        boolean[] kept = new boolean[Arrays.stream(keptLabels).max().orElse(0) + 1];
+        for (int label : keptLabels) kept[label] = true;
+
+        int[] out = new int[n];
+        int[] queue = new int[n];
+        int tail = 0;
+        boolean leftover = false;
+        for (int i = 0; i < n; i++) {
+            int label = labels[i];
+            if (mask[i] && label > 0 && label < kept.length && kept[label]) {
+                out[i] = label;
+                queue[tail++] = i;
+            }
+        }
+        spread(out, queue, tail, mask, w, h);
+        for (int i = 0; i < n && !leftover; i++) leftover = mask[i] && out[i] == 0;
+        if (!leftover) return out;
+
+        // компонент на маската без запазен етикет (напр. разраснала се част, отрязана от отварянето):
+        // получава най-близкия запазен регион отпреди доизглаждането
+        int[] nearest = new int[n];
+        tail = 0;
+        for (int i = 0; i < n; i++) {
+            int label = labels[i];
+            if (label > 0 && label < kept.length && kept[label]) {
+                nearest[i] = label;
+                queue[tail++] = i;
+            }
+        }
+        spread(nearest, queue, tail, null, w, h);
+        for (int i = 0; i < n; i++) {
+            if (mask[i] && out[i] == 0) out[i] = nearest[i];
+        }
+        return out;
+    }
+
+    /** BFS (8-свързано) от първите tail пиксела на queue към неетикетираните пиксели в within (null - всички). */
+    private static void spread(int[] out, int[] queue, int tail, boolean[] within, int w, int h) {
+        for (int head = 0; head < tail; head++) {
+            int i = queue[head], x = i % w, y = i / w;
+            for (int dy = -1; dy <= 1; dy++) {
+                int ny = y + dy;
+                if (ny < 0 || ny >= h) continue;
+                for (int dx = -1; dx <= 1; dx++) {
+                    int nx = x + dx;
+                    if (nx < 0 || nx >= w) continue;
+                    int j = ny * w + nx;
+                    if (out[j] == 0 && (within == null || within[j])) {
+                        out[j] = out[i];
+                        queue[tail++] = j;
+                    }
+                }
+            }
+        }
+    }
+
+    private static final class IntList {
+        private int[] data = new int[16];
+        private int size;
+
+        void add(int v) {
+            if (size == data.length) data = Arrays.copyOf(data, size * 2);
+            data[size++] = v;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(data, size);
+        }
+    }
+}
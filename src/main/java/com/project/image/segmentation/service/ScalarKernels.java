@@ -0,0 +1,104 @@
+package com.project.image.segmentation.service;
+
+/**
+ * Скаларни ядра - резервният вариант без Vector API и еталонът, с който векторните се сравняват.
+ * Lab се смята в double, като обратната гама корекция е таблица за 256-те стойности на канала.
+ */
+final class ScalarKernels implements PixelKernels {
+    static final ScalarKernels INSTANCE = new ScalarKernels();
+
+    static final double[] LINEAR = new double[256];
+    static {
+        for (int v = 0; v < 256; v++) {
+            double c = v / 255.0;
+            LINEAR[v] = (c <= 0.04045) ? (c / 12.92) : Math.pow((c + 0.055) / 1.055, 2.4);
+        }
+    }
+
+    static final double EPSILON = Math.pow(6.0 / 29.0, 3);
+    static final double KAPPA = 3 * Math.pow(6.0 / 29.0, 2);
+    static final double XN = 0.95047, YN = 1.00000, ZN = 1.08883;
+
+    private ScalarKernels() {
+    }
+
+    @Override
+    public void toLab(int[] argb, int count, float[] L, float[] A, float[] B, int offset, int[] histogram) {
+        toLab(argb, 0, count, L, A, B, offset, histogram);
+    }
+
+    /** Пикселите argb[from..to) към позиции offset + i; ползва се и за опашката на векторния вариант. */
+    static void toLab(int[] argb, int from, int to, float[] L, float[] A, float[] B, int offset, int[] histogram) {
+        for (int i = from; i < to; i++) {
+            int p = argb[i];
+            int r8 = (p >> 16) & 0xFF, g8 = (p >> 8) & 0xFF, b8 = p & 0xFF;
+            double r = LINEAR[r8], g = LINEAR[g8], b = LINEAR[b8];
+            double X = 0.4124564 * r + 0.3575761 * g + 0.1804375 * b;
+            double Y = 0.2126729 * r + 0.7151522 * g + 0.0721750 * b;
+            double Z = 0.0193339 * r + 0.1191920 * g + 0.9503041 * b;
+            double fx = f(X / XN), fy = f(Y / YN), fz = f(Z / ZN);
+            int o = offset + i;
+            L[o] = (float) (116.0 * fy - 16.0);
+            A[o] = (float) (500.0 * (fx - fy));
+            B[o] = (float) (200.0 * (fy - fz));
+            histogram[gray(r8, g8, b8)]++;
+        }
+    }
+
+    /** Rec.709 яркост с коефициенти в 16-битова фиксирана запетая (сборът им е точно 65536), закръглена. */
+    static int gray(int r8, int g8, int b8) {
+        return (13933 * r8 + 46871 * g8 + 4732 * b8 + 32768) >> 16;
+    }
+
+    private static double f(double t) {
+        return (t > EPSILON) ? Math.cbrt(t) : (t / KAPPA + 4.0 / 29.0);
+    }
+
+    @Override
+    public boolean assign(float[] L, float[] A, float[] B, int n, float[] cent, int k, int[] assign) {
+        boolean changed = false;
+        for (int i = 0; i < n; i++) {
+            float l = L[i], a = A[i], b = B[i];
+            int best = 0;
+            float bestD = KMeans.dist2(l, a, b, cent[0], cent[1], cent[2]);
+            for (int c = 1; c < k; c++) {
+                float d = KMeans.dist2(l, a, b, cent[3 * c], cent[3 * c + 1], cent[3 * c + 2]);
+                if (d < bestD) {
+                    bestD = d;
+                    best = c;
+                }
+            }
+            if (assign[i] != best) {
+                assign[i] = best;
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    @Override
+    public void blend(int[] argb, boolean[] mask, int tintRgb, float alpha) {
+        int weight = blendWeight(alpha), keep = 256 - weight;
+        int tr = weight * ((tintRgb >> 16) & 0xFF) + 128;
+        int tg = weight * ((tintRgb >> 8) & 0xFF) + 128;
+        int tb = weight * (tintRgb & 0xFF) + 128;
+        for (int i = 0; i < argb.length; i++) {
+            if (!mask[i]) continue;
+            int p = argb[i];
+            int r = (tr + keep * ((p >> 16) & 0xFF)) >> 8;
+            int g = (tg + keep * ((p >> 8) & 0xFF)) >> 8;
+            int b = (tb + keep * (p & 0xFF)) >> 8;
+            argb[i] = 0xFF000000 | (r << 16) | (g << 8) | b;
+        }
+    }
+
+    /** Смесването е в цели числа с тегло alpha * 256 - без float преобразувания в горещия цикъл. */
+    static int blendWeight(float alpha) {
+        return Math.round(Math.max(0f, Math.min(1f, alpha)) * 256);
+    }
+
+    @Override
+    public String name() {
+        return "scalar";
+    }
+}
@@ -0,0 +1,20 @@
+package com.project.image.segmentation.service;
+
+import java.util.Locale;
+
+public enum SegmentationEngine {
+    KMEANS, GRABCUT, WATERSHED;
+
+    public static SegmentationEngine fromParam(String value) {
+        try {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown segmentation engine: " + value
+                    + " (expected kmeans, grabcut or watershed)");
+        }
+    }
+
+    public String paramName() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+}
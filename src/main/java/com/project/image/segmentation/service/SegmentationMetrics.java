@@ -0,0 +1,134 @@
+package com.project.image.segmentation.service;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Micrometer метрики за сегментацията и съхранението.
+ * Етапите се мерят с nanoTime "щафета": {@code t = metrics.stage(engine, "kmeans", t);}
+ * така че кодът на алгоритмите остава линеен, без обвиващи ламбди.
+ */
+@Component
+public class SegmentationMetrics {
+
+    private final MeterRegistry registry;
+    private final Map<String, Map<String, Timer>> stageTimers = new ConcurrentHashMap<>();
+
+    public SegmentationMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    /** За употреба извън Spring контекста (тестове, CLI). */
+    public static SegmentationMetrics standalone() {
+        return new SegmentationMetrics(new SimpleMeterRegistry());
+    }
+
+    public MeterRegistry registry() {
+        return registry;
+    }
+
+    /** Записва продължителността на етапа от startNanos до сега и връща текущия момент. */
+    public long stage(String engine, String stage, long startNanos) {
+        long now = System.nanoTime();
+        stageTimer(engine, stage).record(now - startNanos, TimeUnit.NANOSECONDS);
+        return now;
+    }
+
+    /** Таймерите се регистрират веднъж - етапите се мерят по десетина пъти на изображение. */
+    private Timer stageTimer(String engine, String stage) {
+        Map<String, Timer> byStage = stageTimers.get(engine);
+        if (byStage == null) byStage = stageTimers.computeIfAbsent(engine, e -> new ConcurrentHashMap<>());
+        Timer timer = byStage.get(stage);
+        if (timer == null) {
+            timer = byStage.computeIfAbsent(stage, s -> Timer.builder("segmentation.stage.duration")
+                    .description("Time spent in a single segmentation stage")
+                    .tag("engine", engine)
+                    .tag("stage", s)
+                    .register(registry));
+        }
+        return timer;
+    }
+
+    public void segmentation(String engine, String outcome, long startNanos) {
+        Timer.builder("segmentation.duration")
+                .description("End-to-end segmentation latency")
+                .tag("engine", engine)
+                .tag("outcome", outcome)
+                .register(registry)
+                .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void image(String engine, int width, int height) {
+        DistributionSummary.builder("segmentation.image.megapixels")
+                .description("Size of segmented images")
+                .baseUnit("megapixels")
+                .tag("engine", engine)
+                .register(registry)
+                .record(width * (double) height / 1_000_000.0);
+    }
+
+    public void clusterIterations(String algorithm, int iterations, double skippedRatio) {
+        DistributionSummary.builder("segmentation.kmeans.iterations")
+                .description("k-means iterations until convergence or the iteration cap")
+                .tag("algorithm", algorithm)
+                .register(registry)
+                .record(iterations);
+        DistributionSummary.builder("segmentation.kmeans.skipped.ratio")
+                .description("Share of pixel-to-centroid distances skipped by bound checks")
+                .tag("algorithm", algorithm)
+                .register(registry)
+                .record(skippedRatio);
+    }
+
+    public void clusterCount(int k, boolean automatic) {
+        DistributionSummary.builder("segmentation.kmeans.clusters")
+                .description("Number of k-means clusters per image")
+                .tag("selection", automatic ? "auto" : "fixed")
+                .register(registry)
+                .record(k);
+    }
+
+    public void regions(String engine, int regions) {
+        DistributionSummary.builder("segmentation.regions")
+                .description("Number of regions kept per image")
+                .tag("engine", engine)
+                .register(registry)
+                .record(regions);
+    }
+
+    public void bytesWritten(String kind, long bytes, long startNanos) {
+        DistributionSummary.builder("storage.bytes.written")
+                .description("Bytes written to the upload directory")
+                .baseUnit("bytes")
+                .tag("kind", kind)
+                .register(registry)
+                .record(bytes);
+        Timer.builder("storage.write.duration")
+                .description("Time spent writing a file to the upload directory")
+                .tag("kind", kind)
+                .register(registry)
+                .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /** Сегментация с cacheKey: етапите до морфологията са взети от кеша (hit) или пресметнати (miss). */
+    public void stageCache(boolean hit) {
+        registry.counter("segmentation.stage.cache", "result", hit ? "hit" : "miss").increment();
+    }
+
+    /** Готов резултат на метод по cacheKey: взет от кеша (hit) или пресметнат (miss). */
+    public void resultCache(String engine, boolean hit) {
+        registry.counter("segmentation.result.cache", "engine", engine, "result", hit ? "hit" : "miss").increment();
+    }
+
+    /** Качване, чието съдържание вече е на диска (hit) или е записано за първи път (miss). */
+    public void deduplication(boolean hit) {
+        registry.counter("storage.dedup", "result", hit ? "hit" : "miss").increment();
+    }
+}
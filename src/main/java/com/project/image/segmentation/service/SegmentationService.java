@@ -1,20 +1,27 @@
 package com.project.image.segmentation.service;
 
+import com.project.image.segmentation.DTOs.ClusterModel;
+import com.project.image.segmentation.DTOs.Contour;
+import com.project.image.segmentation.DTOs.SegmentationOptions;
 import com.project.image.segmentation.DTOs.SegmentationResult;
 import com.project.image.segmentation.exceptions.SegmentationException;
+import io.micrometer.core.instrument.Gauge;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.awt.Color;
 import java.awt.Graphics2D;
-import java.awt.Point;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayOutputStream;
-import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.function.IntUnaryOperator;
+import java.util.stream.IntStream;
 import javax.imageio.ImageIO;
 
 @Service
@@ -26,61 +33,116 @@ public class SegmentationService {
     private static final Color MASK_BACKGROUND   = new Color(0, 0, 0);
     private static final float TINT_ALPHA = 0.65f;
     private static final float FILL_ALPHA = 0.45f;
+    private static final String ENGINE = "kmeans";
+    /** Изместване на центроид (ΔE в Lab), под което accelerated k-means спира - далеч под видимата разлика ~2.3. */
+    private static final double KMEANS_TOLERANCE = 0.5;
+    /** Режим суперпиксели: около 3000 SLIC клетки, 3 итерации (повече не подобряват маската), компактност 10. */
+    private static final int SUPERPIXEL_TARGET = 3000;
+    private static final int SLIC_ITERATIONS = 3;
+    private static final float SLIC_COMPACTNESS = 10f;
+    private static final int SUPERPIXEL_RESTARTS = 5;
+
+    // слотове на булевите маски в workspace-а
+    private static final int ALLOW = 0, SEEDS = 1, WORK = 2, TMP = 3, TMP2 = 4;
+
+    private final SegmentationMetrics metrics;
+    private final KMeansAlgorithm kmeansAlgorithm;
+    private final PixelKernels kernels = PixelKernels.best();
+    private final SegmentationWorkspace.Pool workspaces;
+    private final long compactLabMinPixels;
+    private final int minClusters, maxClusters;
+    private final StageCache stageCache;
+
+    /** lloyd - класическият k-means; accelerated - k-means++ и границите на Hamerly (виж {@link KMeans}). */
+    public enum KMeansAlgorithm { LLOYD, ACCELERATED }
+
+    public SegmentationService() {
+        this(SegmentationMetrics.standalone(), SegmentationSettings.defaults());
+    }
+
+    @Autowired
+    public SegmentationService(SegmentationMetrics metrics, SegmentationSettings settings) {
+        this.metrics = metrics;
+        this.kmeansAlgorithm = settings.kmeans();
+        this.compactLabMinPixels = settings.compactLabMinPixels();
+        this.minClusters = settings.minClusters();
+        this.maxClusters = settings.maxClusters();
+        this.stageCache = new StageCache(settings.stageCacheMb() << 20);
+        int poolSize = settings.workspace().poolSize();
+        this.workspaces = new SegmentationWorkspace.Pool(settings.workspace().maxPixels(),
+                poolSize > 0 ? poolSize : Runtime.getRuntime().availableProcessors());
+        Gauge.builder("segmentation.workspace.retained", workspaces, SegmentationWorkspace.Pool::retainedBytes)
+                .baseUnit("bytes").register(metrics.registry());
+        Gauge.builder("segmentation.stage.cache.retained", stageCache, StageCache::bytes)
+                .baseUnit("bytes").register(metrics.registry());
+    }
 
     public SegmentationResult segment(BufferedImage input, int minRegionSize) {
+        return segment(input, SegmentationOptions.defaults(minRegionSize));
+    }
+
+    public SegmentationResult segment(BufferedImage input, SegmentationOptions options) {
         if (input.getWidth() <= 1 || input.getHeight() <= 1) {
             throw new SegmentationException("Image too small to segment.");
         }
 
-        log.info("Starting segmentation for image {}x{}, minRegionSize={}",
-                input.getWidth(), input.getHeight(), minRegionSize);
-
-        final int w = input.getWidth(), h = input.getHeight(), n = w * h;
-
-        float[] lab = new float[n * 3];
-        int[] gray  = new int[n];
-        int[] argb  = new int[n];
-        input.getRGB(0, 0, w, h, argb, 0, w);
-
-        for (int i = 0; i < n; i++) {
-            int p = argb[i];
-            int r = (p >> 16) & 0xFF, g = (p >> 8) & 0xFF, b = p & 0xFF;
-            float[] LAb = sRGBtoLab(r, g, b);
-            lab[3 * i] = LAb[0]; lab[3 * i + 1] = LAb[1]; lab[3 * i + 2] = LAb[2];
-            gray[i] = (int) Math.round(0.2126 * r + 0.7152 * g + 0.0722 * b);
+        long start = System.nanoTime();
+        SegmentationWorkspace ws = workspaces.acquire(input.getWidth() * input.getHeight());
+        try {
+            SegmentationResult result = runPipeline(input, options, ws, start);
+            metrics.segmentation(ENGINE, "success", start);
+            return result;
+        } catch (SegmentationException e) {
+            metrics.segmentation(ENGINE, "failure", start);
+            throw e;
+        } finally {
+            workspaces.release(ws);
         }
+    }
 
-        int k = (w * h < 200 * 200) ? 3 : 4;
-        log.debug("Using {} clusters for segmentation", k);
-
-        int[] cluster = kmeans(lab, n, k, 15, 12345);
-        int bgCluster = dominantClusterOnBorder(cluster, w, h, k);
-        log.debug("Background cluster identified as: {}", bgCluster);
-
-        int thr = otsuThreshold(gray);
-        log.debug("Otsu threshold: {}", thr);
+    private SegmentationResult runPipeline(BufferedImage input, SegmentationOptions options,
+                                           SegmentationWorkspace ws, long start) {
+        final int minRegionSize = options.minRegionSize();
 
-        boolean[] allow = new boolean[n];
-        boolean[] fg    = new boolean[n];
-        final int slack = 15;
+        log.info("Starting segmentation for image {}x{}, minRegionSize={}",
+                input.getWidth(), input.getHeight(), minRegionSize);
 
-        for (int i = 0; i < n; i++) {
-            boolean byCluster = (cluster[i] != bgCluster);
-            boolean byGray    = (gray[i] <= thr + slack);
-            allow[i] = byCluster;
-            fg[i]    = byCluster && byGray;
+        final int w = input.getWidth(), h = input.getHeight(), n = w * h;
+        metrics.image(ENGINE, w, h);
+        long t = start;
+
+        RasterRows raster = RasterRows.of(input);
+        int stripeRows = stripeRows(h);
+        int stripes = (h + stripeRows - 1) / stripeRows;
+        ws.stripes(stripes);
+
+        // етапите до морфологията не зависят от minRegionSize - при повторно извикване със същия
+        // cacheKey се вземат от кеша
+        String cacheKey = stageCacheKey(options, w, h);
+        StageCache.Entry upstream = cacheKey != null ? stageCache.get(cacheKey) : null;
+        boolean[] allow = ws.mask(ALLOW, n), seeds = ws.mask(SEEDS, n);
+        if (cacheKey != null) metrics.stageCache(upstream != null);
+        if (upstream != null) {
+            System.arraycopy(upstream.allow(), 0, allow, 0, n);
+            System.arraycopy(upstream.fg(), 0, seeds, 0, n);
+            log.debug("Reusing cached clustering and morphology (threshold {})", upstream.threshold());
+            t = metrics.stage(ENGINE, "cached", t);
+        } else {
+            upstream = classify(input, options, ws, raster, stripeRows, stripes, t);
+            if (cacheKey != null) stageCache.put(cacheKey, upstream.copy(n));
+            t = System.nanoTime();
         }
+        boolean[] fg = seeds, tmp = ws.mask(TMP, n);
+        int thr = upstream.threshold();
 
-        log.debug("Applying morphological operations...");
-        fg = morphOpen8(fg, w, h, 1);
-        fg = morphClose8(fg, w, h, 2);
-
+        // labels е част от резултата - единственият голям масив, който се заделя наново
         int[] labels = new int[n];
         int nextLabel = 1;
-        ArrayDeque<Point> q = new ArrayDeque<>();
+        int[] q = ws.queue(n);
         List<Integer> keptLabels = new ArrayList<>();
         List<Integer> areasPx = new ArrayList<>();
         List<Double>  areasPercent = new ArrayList<>();
+        RegionStatsCollector regionStats = new RegionStatsCollector();
 
         int minKeep = Math.max(minRegionSize, Math.max(100, (w * h) / 1000));
         log.debug("Minimum region size set to: {}", minKeep);
@@ -93,16 +155,21 @@ public class SegmentationService {
                 int area = floodFill(fg, labels, q, x, y, w, h, nextLabel);
 
                 if (area >= minKeep) {
+                    regionStats.add(q, area, labels, nextLabel, w, h);
                     keptLabels.add(nextLabel);
                     areasPx.add(area);
                     areasPercent.add(100.0 * area / n);
-                    log.debug("Kept region {} with area {} pixels ({:.2f}%)",
-                            nextLabel, area, 100.0 * area / n);
+                    if (log.isDebugEnabled()) {
+                        log.debug("Kept region {} with area {} pixels ({}%)",
+                                nextLabel, area, String.format("%.2f", 100.0 * area / n));
+                    }
                 }
                 nextLabel++;
             }
         }
 
+        t = metrics.stage(ENGINE, "labeling", t);
+
         if (keptLabels.isEmpty()) {
             log.warn("No suitable objects found with current parameters");
             throw new SegmentationException("No suitable objects found. Try adjusting the minimum region size.");
@@ -110,129 +177,335 @@ public class SegmentationService {
 
         log.info("Found {} valid regions", keptLabels.size());
 
-        boolean[] obj = new boolean[n];
-        for (int i = 0; i < n; i++) {
-            int labId = labels[i];
-            if (labId != 0 && contains(keptLabels, labId)) {
-                obj[i] = true;
+        // етикет -> индекс на запазения регион (-1 за фона и отхвърлените)
+        int[] regionOf = new int[nextLabel];
+        Arrays.fill(regionOf, -1);
+        for (int r = 0; r < keptLabels.size(); r++) regionOf[keptLabels.get(r)] = r;
+
+        // seeds вече не трябва - става втори временен буфер; растерът се чете трети път за средния цвят
+        boolean[] work = ws.mask(WORK, n), tmp2 = seeds;
+        int regions = keptLabels.size();
+        long[][] stripeColors = new long[stripes][3 * regions];
+        IntStream.range(0, stripes).parallel().forEach(s -> {
+            int y0 = s * stripeRows, rows = Math.min(stripeRows, h - y0);
+            int[] argb = ws.stripe(s, rows * w);
+            raster.read(y0, rows, argb);
+            long[] sums = stripeColors[s];
+            for (int j = 0, i = y0 * w, end = rows * w; j < end; j++, i++) {
+                int r = regionOf[labels[i]];
+                work[i] = r >= 0;
+                if (r < 0) continue;
+                int p = argb[j];
+                sums[3 * r] += (p >> 16) & 0xFF;
+                sums[3 * r + 1] += (p >> 8) & 0xFF;
+                sums[3 * r + 2] += p & 0xFF;
             }
+        });
+        for (long[] sums : stripeColors) regionStats.addColor(sums);
+
+        constrainedGrow(work, allow, tmp, w, h, 2);
+        boolean[] opened = openingByReconstruction(work, tmp2, tmp, w, h, 1);
+        morphClose8(opened, opened, tmp, w, h, 1);
+        fillHoles(opened, tmp, q, w, h);
+        cleanupMask(opened, tmp, q, w, h, minRegionSize);
+        boolean[] obj = Arrays.copyOf(opened, n);
+        t = metrics.stage(ENGINE, "refine", t);
+
+        List<Contour> contours = null;
+        if (options.contours()) {
+            contours = ContourTracer.trace(obj, w, h, ContourTracer.DEFAULT_EPSILON, ws.mask(TMP, n), q);
+            t = metrics.stage(ENGINE, "contours", t);
         }
 
-        obj = constrainedGrow(obj, allow, w, h, 2);
-        obj = openingByReconstruction(obj, w, h, 1);
-        obj = morphClose8(obj, w, h, 1);
-        obj = fillHoles(obj, w, h);
-        obj = cleanupMask(obj, w, h, minRegionSize);
-
-        boolean[] edge = generateEdges(obj, w, h);
-        BufferedImage mask = createMaskImage(obj, w, h);
-        BufferedImage overlay = createOverlayImage(input, obj, edge, w, h);
-        BufferedImage recolored = createRecoloredImage(input, obj, w, h);
+        byte[] maskPng = null, overlayPng = null, recoloredPng = null;
+        if (options.renderImages()) {
+            boolean[] edge = generateEdges(obj, ws.mask(TMP, n), ws.mask(TMP2, n), w, h);
+            BufferedImage mask = createMaskImage(obj, w, h);
+            BufferedImage overlay = createOverlayImage(input, obj, edge, w, h);
+            BufferedImage recolored = createRecoloredImage(input, obj, w, h);
+            t = metrics.stage(ENGINE, "render", t);
+
+            maskPng = toPng(mask);
+            overlayPng = toPng(overlay);
+            recoloredPng = toPng(recolored);
+            metrics.stage(ENGINE, "encode", t);
+        }
 
         int segments = keptLabels.size();
+        metrics.regions(ENGINE, segments);
         log.info("Segmentation completed successfully with {} segments", segments);
 
         return new SegmentationResult(
                 w, h, thr, segments,
-                toPng(mask),
-                toPng(overlay),
-                toPng(recolored),
-                areasPx, areasPercent
+                maskPng, overlayPng, recoloredPng,
+                areasPx, areasPercent,
+                obj, labels, keptLabels.stream().mapToInt(Integer::intValue).toArray(),
+                upstream.model(),
+                regionStats.build(),
+                contours
         );
     }
 
-    private boolean[] cleanupMask(boolean[] mask, int w, int h, int minRegionSize) {
-        mask = morphOpen8(mask, w, h, 1);
-        mask = removeSmallRegions(mask, w, h, minRegionSize);
-        mask = morphClose8(mask, w, h, 1);
-        return mask;
+    /**
+     * Ingest, k-means, фон, Otsu, прагове и морфология. Попълва ALLOW и SEEDS в workspace-а
+     * (fg е SEEDS) и ги връща заедно с прага и модела.
+     */
+    private StageCache.Entry classify(BufferedImage input, SegmentationOptions options, SegmentationWorkspace ws,
+                                      RasterRows raster, int stripeRows, int stripes, long t) {
+        final int w = input.getWidth(), h = input.getHeight(), n = w * h;
+
+        // един паралелен проход по ивици редове: Lab + хистограма на яркостта, без пълни argb/gray масиви
+        boolean compact = !options.superpixels() && n >= compactLabMinPixels;
+        KMeans.Planes lab = compact ? null : ws.lab(n);
+        QuantizedLab quantized = compact ? ws.quantizedLab(n) : null;
+        int[][] stripeHistograms = new int[stripes][256];
+        IntStream.range(0, stripes).parallel().forEach(s -> {
+            int y0 = s * stripeRows, rows = Math.min(stripeRows, h - y0);
+            int[] argb = ws.stripe(s, rows * w);
+            raster.read(y0, rows, argb);
+            if (quantized == null) {
+                kernels.toLab(argb, rows * w, lab.l(), lab.a(), lab.b(), y0 * w, stripeHistograms[s]);
+            } else {
+                // float Lab само за блок от 4096 пиксела на нишка, в пълния размер остават байтовете
+                quantized.fromArgb(argb, rows * w, y0 * w, kernels, stripeHistograms[s]);
+            }
+        });
+        int[] histogram = new int[256];
+        for (int[] part : stripeHistograms) {
+            for (int v = 0; v < 256; v++) histogram[v] += part[v];
+        }
+        t = metrics.stage(ENGINE, "ingest", t);
+
+        // при warm start k идва от модела - индексите на клъстерите трябва да останат същите
+        ClusterModel warm = options.warmStart();
+        boolean automatic = warm == null && minClusters < maxClusters;
+        int k = warm != null ? warm.k() : automatic ? selectClusterCount(lab, quantized, n) : minClusters;
+        metrics.clusterCount(k, automatic);
+        log.debug("Using {} clusters for segmentation{}", k,
+                warm != null ? " (warm start)" : automatic ? " (selected)" : "");
+        if (automatic) t = metrics.stage(ENGINE, "kselect", t);
+
+        float[] initial = warm != null ? warm.centroids() : null;
+        Superpixels.Result superpixels = null;
+        KMeans.Planes points = lab;
+        int pointCount = n;
+        if (options.superpixels() && n > SUPERPIXEL_TARGET * 4) {
+            superpixels = Superpixels.compute(lab, w, h, SUPERPIXEL_TARGET, SLIC_ITERATIONS, SLIC_COMPACTNESS,
+                    ws.superpixelLabels(n));
+            points = superpixels.means();
+            pointCount = superpixels.count();
+            log.debug("SLIC produced {} superpixels", pointCount);
+            t = metrics.stage(ENGINE, "superpixels", t);
+        }
+
+        // попикселните буфери идват от workspace-а; точките на суперпикселите са малко и рестартите
+        // трябва да не си делят assign, затова там k-means заделя сам
+        KMeans.Result clustering = quantized != null
+                ? clusterQuantized(quantized, n, k, initial, 12345, ws.assign(n))
+                : superpixels == null
+                ? cluster(points, pointCount, k, initial, 12345, ws)
+                : cluster(points, pointCount, k, initial, 12345, null);
+        if (superpixels != null && initial == null) {
+            // върху няколко хиляди точки k-means е почти безплатен - няколко старта и най-ниската инерция
+            double best = KMeans.inertia(points, pointCount, clustering);
+            for (int restart = 1; restart < SUPERPIXEL_RESTARTS; restart++) {
+                KMeans.Result candidate = cluster(points, pointCount, k, null, 12345 + restart, null);
+                double inertia = KMeans.inertia(points, pointCount, candidate);
+                if (inertia < best) {
+                    best = inertia;
+                    clustering = candidate;
+                }
+            }
+        }
+        // клъстер на пиксел или, в режим суперпиксели, на суперпиксел
+        int[] cluster = clustering.assign();
+        // 8-битовият път винаги е Lloyd - при ACCELERATED взима само k-means++ началото и прага за спиране
+        String algorithm = quantized != null ? "lloyd" : kmeansAlgorithm.name().toLowerCase(Locale.ROOT);
+        metrics.clusterIterations(algorithm, clustering.iterations(), clustering.skippedRatio());
+        log.debug("k-means ({}{}) finished in {} iterations, {}% distances skipped", algorithm,
+                compact ? ", 8-bit Lab" : "", clustering.iterations(), String.format("%.1f", 100 * clustering.skippedRatio()));
+        t = metrics.stage(ENGINE, "kmeans", t);
+
+        int[] spLabels = superpixels != null ? superpixels.labels() : null;
+        IntUnaryOperator clusterAt = spLabels == null ? i -> cluster[i] : i -> cluster[spLabels[i]];
+
+        // при warm start индексите на клъстерите са стабилни, затова фонът се наследява
+        int bgCluster = warm != null ? warm.backgroundCluster() : dominantClusterOnBorder(clusterAt, w, h, k);
+        log.debug("Background cluster identified as: {}", bgCluster);
+        t = metrics.stage(ENGINE, "background", t);
+
+        int thr = otsuThreshold(histogram, n);
+        log.debug("Otsu threshold: {}", thr);
+        t = metrics.stage(ENGINE, "otsu", t);
+
+        boolean[] allow = ws.mask(ALLOW, n);
+        boolean[] seeds = ws.mask(SEEDS, n);
+        final int grayLimit = thr + 15;
+
+        // яркостта се пресмята наново от растера - по-евтино от пазенето на пълен масив;
+        // при суперпиксели клъстерът е на суперпиксела, а прагът по яркост остава попикселен, за да пази ръбовете
+        IntStream.range(0, stripes).parallel().forEach(s -> {
+            int y0 = s * stripeRows, rows = Math.min(stripeRows, h - y0);
+            int[] argb = ws.stripe(s, rows * w);
+            raster.read(y0, rows, argb);
+            for (int j = 0, i = y0 * w, end = rows * w; j < end; j++, i++) {
+                int p = argb[j];
+                boolean byCluster = (clusterAt.applyAsInt(i) != bgCluster);
+                boolean byGray    = ScalarKernels.gray((p >> 16) & 0xFF, (p >> 8) & 0xFF, p & 0xFF) <= grayLimit;
+                allow[i] = byCluster;
+                seeds[i] = byCluster && byGray;
+            }
+        });
+
+        t = metrics.stage(ENGINE, "threshold", t);
+
+        log.debug("Applying morphological operations...");
+        boolean[] tmp = ws.mask(TMP, n);
+        boolean[] fg = morphOpen8(seeds, seeds, tmp, w, h, 1);
+        fg = morphClose8(fg, fg, tmp, w, h, 2);
+        metrics.stage(ENGINE, "morphology", t);
+
+        return new StageCache.Entry(allow, fg, thr,
+                new ClusterModel(k, clustering.centroids(), bgCluster, clustering.iterations()));
+    }
+
+
+    private String stageCacheKey(SegmentationOptions options, int w, int h) {
+        if (options.cacheKey() == null || options.warmStart() != null) return null;
+        return options.cacheKey() + '|' + w + 'x' + h + (options.superpixels() ? "|superpixels" : "");
+    }
+
+    /** Маската като PNG (обект в синьо върху черно) - за случаите, когато segment не рендерира. */
+    public byte[] encodeMaskPng(boolean[] objectMask, int w, int h) {
+        return toPng(createMaskImage(objectMask, w, h));
+    }
+
+    /** ws == null - k-means заделя собствени масиви. */
+    private KMeans.Result cluster(KMeans.Planes points, int count, int k, float[] initial, long seed,
+                                  SegmentationWorkspace ws) {
+        int[] assign = ws != null ? ws.assign(count) : new int[count];
+        return switch (kmeansAlgorithm) {
+            case LLOYD -> KMeans.lloyd(points, count, k, 15, seed, initial, kernels, assign);
+            case ACCELERATED -> KMeans.accelerated(points, count, k, 15, seed, initial, KMEANS_TOLERANCE, assign,
+                    ws != null ? ws.upper(count) : new float[count], ws != null ? ws.lower(count) : new float[count]);
+        };
     }
 
-    private boolean[] generateEdges(boolean[] objectMask, int w, int h) {
-        boolean[] eroded = erode8(objectMask, w, h);
-        boolean[] dilated = dilate8(objectMask, w, h);
-        boolean[] edges = new boolean[w * h];
+    /**
+     * Клъстерира извадка от пикселите за всяко k в диапазона паралелно и връща k с най-нисък индекс
+     * на Davies-Bouldin. Извадката е винаги от пикселите (и в режим суперпиксели), за да не зависи k от режима.
+     */
+    private int selectClusterCount(KMeans.Planes lab, QuantizedLab quantized, int n) {
+        int m = Math.min(n, KMeans.SEED_SAMPLE);
+        KMeans.Planes sample = new KMeans.Planes(new float[m], new float[m], new float[m]);
+        Random rnd = new Random(12345);
+        for (int j = 0; j < m; j++) {
+            int p = m == n ? j : rnd.nextInt(n);
+            sample.l()[j] = lab != null ? lab.l()[p] : quantized.l(p);
+            sample.a()[j] = lab != null ? lab.a()[p] : quantized.a(p);
+            sample.b()[j] = lab != null ? lab.b()[p] : quantized.b(p);
+        }
+        double[] scores = new double[maxClusters + 1];
+        IntStream.rangeClosed(minClusters, maxClusters).parallel().forEach(k -> {
+            KMeans.Result r = KMeans.accelerated(sample, m, k, 15, 12345, null, KMEANS_TOLERANCE,
+                    new int[m], new float[m], new float[m]);
+            scores[k] = KMeans.daviesBouldin(sample, m, r);
+        });
+        int best = minClusters;
+        for (int k = minClusters + 1; k <= maxClusters; k++) {
+            // Double.compare нарежда NaN след безкрайността - невалидна оценка никога не печели
+            if (Double.compare(scores[k], scores[best]) < 0) best = k;
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Davies-Bouldin by k: {}", Arrays.toString(Arrays.copyOfRange(scores, minClusters, maxClusters + 1)));
+        }
+        return best;
+    }
+
+    /** Същото начало и критерий за спиране като float алгоритъма, за да дава същите клъстери. */
+    private KMeans.Result clusterQuantized(QuantizedLab lab, int n, int k, float[] initial, long seed, int[] assign) {
+        boolean accelerated = kmeansAlgorithm == KMeansAlgorithm.ACCELERATED;
+        float[] start = initial != null ? initial
+                : accelerated ? lab.seedPlusPlus(n, k, seed) : lab.randomSeeds(n, k, seed);
+        return QuantizedLab.kmeans(lab, n, k, 15, start, accelerated ? KMEANS_TOLERANCE : 0, kernels, assign);
+    }
+
+    /** Височина на ивица: поне 16 реда и около 4 ивици на ядро, за да се балансира натоварването. */
+    private static int stripeRows(int h) {
+        int target = Runtime.getRuntime().availableProcessors() * 4;
+        return Math.max(16, (h + target - 1) / target);
+    }
+
+    private static void cleanupMask(boolean[] mask, boolean[] tmp, int[] queue, int w, int h, int minRegionSize) {
+        morphOpen8(mask, mask, tmp, w, h, 1);
+        removeSmallRegions(mask, tmp, queue, w, h, minRegionSize);
+        morphClose8(mask, mask, tmp, w, h, 1);
+    }
+
+    /** Ръбът е dilate - erode; пише се в dilated и се връща. */
+    private static boolean[] generateEdges(boolean[] objectMask, boolean[] eroded, boolean[] dilated, int w, int h) {
+        erode8(objectMask, eroded, w, h);
+        dilate8(objectMask, dilated, w, h);
 
         for (int i = 0; i < w * h; i++) {
-            edges[i] = (dilated[i] && !eroded[i]);
+            dilated[i] = (dilated[i] && !eroded[i]);
         }
-        return edges;
+        return dilated;
     }
 
-    private boolean[] removeSmallRegions(boolean[] mask, int w, int h, int minSize) {
-        boolean[] result = new boolean[w * h];
-        boolean[] visited = new boolean[w * h];
-        ArrayDeque<Point> queue = new ArrayDeque<>();
+    /** На място: 4-свързаните региони под minSize се изчистват; опашката пази пикселите на текущия регион. */
+    private static void removeSmallRegions(boolean[] mask, boolean[] visited, int[] queue, int w, int h, int minSize) {
+        Arrays.fill(visited, 0, w * h, false);
 
         for (int y = 0; y < h; y++) {
             for (int x = 0; x < w; x++) {
                 int idx = y * w + x;
 
                 if (mask[idx] && !visited[idx]) {
-                    List<Point> region = new ArrayList<>();
-                    queue.clear();
-                    queue.add(new Point(x, y));
+                    int head = 0, tail = 0;
+                    queue[tail++] = idx;
                     visited[idx] = true;
 
-                    while (!queue.isEmpty()) {
-                        Point p = queue.removeFirst();
-                        region.add(p);
-                        int px = p.x, py = p.y;
-
-                        int[][] dirs = {{0, -1}, {0, 1}, {-1, 0}, {1, 0}};
-                        for (int[] dir : dirs) {
-                            int nx = px + dir[0];
-                            int ny = py + dir[1];
-                            if (nx >= 0 && nx < w && ny >= 0 && ny < h) {
-                                int nIdx = ny * w + nx;
-                                if (mask[nIdx] && !visited[nIdx]) {
-                                    visited[nIdx] = true;
-                                    queue.add(new Point(nx, ny));
-                                }
-                            }
-                        }
+                    while (head < tail) {
+                        int p = queue[head++];
+                        int px = p % w, py = p / w;
+
+                        if (py > 0 && mask[p - w] && !visited[p - w]) { visited[p - w] = true; queue[tail++] = p - w; }
+                        if (py < h - 1 && mask[p + w] && !visited[p + w]) { visited[p + w] = true; queue[tail++] = p + w; }
+                        if (px > 0 && mask[p - 1] && !visited[p - 1]) { visited[p - 1] = true; queue[tail++] = p - 1; }
+                        if (px < w - 1 && mask[p + 1] && !visited[p + 1]) { visited[p + 1] = true; queue[tail++] = p + 1; }
                     }
 
-                    if (region.size() >= minSize) {
-                        for (Point p : region) {
-                            result[p.y * w + p.x] = true;
+                    if (tail < minSize) {
+                        for (int i = 0; i < tail; i++) {
+                            mask[queue[i]] = false;
                         }
                     }
                 }
             }
         }
-        return result;
     }
 
-    private int floodFill(boolean[] fg, int[] labels, ArrayDeque<Point> q, int startX, int startY, int w, int h, int label) {
-        q.clear();
-        q.add(new Point(startX, startY));
-        labels[startY * w + startX] = label;
-        int area = 0;
-
-        while (!q.isEmpty()) {
-            Point p = q.removeFirst();
-            int px = p.x, py = p.y;
-            area++;
-
-            int[][] dirs = {{0, -1}, {0, 1}, {-1, 0}, {1, 0}};
-            for (int[] dir : dirs) {
-                int nx = px + dir[0];
-                int ny = py + dir[1];
-                if (nx >= 0 && nx < w && ny >= 0 && ny < h) {
-                    int nIdx = ny * w + nx;
-                    if (fg[nIdx] && labels[nIdx] == 0) {
-                        labels[nIdx] = label;
-                        q.add(new Point(nx, ny));
-                    }
-                }
-            }
+    private static int floodFill(boolean[] fg, int[] labels, int[] queue, int startX, int startY, int w, int h, int label) {
+        int start = startY * w + startX;
+        int head = 0, tail = 0;
+        queue[tail++] = start;
+        labels[start] = label;
+
+        while (head < tail) {
+            int p = queue[head++];
+            int px = p % w, py = p / w;
+
+            if (py > 0 && fg[p - w] && labels[p - w] == 0) { labels[p - w] = label; queue[tail++] = p - w; }
+            if (py < h - 1 && fg[p + w] && labels[p + w] == 0) { labels[p + w] = label; queue[tail++] = p + w; }
+            if (px > 0 && fg[p - 1] && labels[p - 1] == 0) { labels[p - 1] = label; queue[tail++] = p - 1; }
+            if (px < w - 1 && fg[p + 1] && labels[p + 1] == 0) { labels[p + 1] = label; queue[tail++] = p + 1; }
         }
-        return area;
+        return tail;
     }
 
-    private static boolean[] erode8(boolean[] src, int w, int h) {
-        boolean[] dst = new boolean[w * h];
+    /** dst не може да е src. */
+    private static boolean[] erode8(boolean[] src, boolean[] dst, int w, int h) {
         for (int y = 0; y < h; y++) {
             for (int x = 0; x < w; x++) {
                 int idx = y * w + x;
@@ -260,8 +533,8 @@ public class SegmentationService {
         return dst;
     }
 
-    private static boolean[] dilate8(boolean[] src, int w, int h) {
-        boolean[] dst = new boolean[w * h];
+    /** dst не може да е src. */
+    private static boolean[] dilate8(boolean[] src, boolean[] dst, int w, int h) {
         for (int y = 0; y < h; y++) {
             for (int x = 0; x < w; x++) {
                 int idx = y * w + x;
@@ -310,91 +583,49 @@ public class SegmentationService {
         graphics.drawImage(input, 0, 0, null);
         graphics.dispose();
 
-        int redComponent = MASK_OBJECT_COLOR.getRed();
-        int greenComponent = MASK_OBJECT_COLOR.getGreen();
-        int blueComponent = MASK_OBJECT_COLOR.getBlue();
         int outlineARGB = (0xFF << 24) | (OUTLINE_COLOR.getRed() << 16) |
                 (OUTLINE_COLOR.getGreen() << 8) | OUTLINE_COLOR.getBlue();
 
-        for (int y = 0; y < h; y++) {
-            for (int x = 0; x < w; x++) {
-                int idx = y * w + x;
-                if (obj[idx]) {
-                    int base = overlay.getRGB(x, y);
-                    int rValue = (base >> 16) & 0xFF;
-                    int gValue = (base >> 8) & 0xFF;
-                    int bValue = base & 0xFF;
-
-                    int newRed = blend(rValue, redComponent, FILL_ALPHA);
-                    int newGreen = blend(gValue, greenComponent, FILL_ALPHA);
-                    int newBlue = blend(bValue, blueComponent, FILL_ALPHA);
-
-                    overlay.setRGB(x, y, (0xFF << 24) | (newRed << 16) | (newGreen << 8) | newBlue);
-                }
-            }
-        }
+        int[] pixels = overlay.getRGB(0, 0, w, h, null, 0, w);
+        kernels.blend(pixels, obj, MASK_OBJECT_COLOR.getRGB() & 0xFFFFFF, FILL_ALPHA);
 
-        for (int i = 0; i < edge.length; i++) {
+        for (int i = 0; i < w * h; i++) {
             if (edge[i]) {
-                overlay.setRGB(i % w, i / w, outlineARGB);
+                pixels[i] = outlineARGB;
             }
         }
+        overlay.setRGB(0, 0, w, h, pixels, 0, w);
 
         return overlay;
     }
 
     private BufferedImage createRecoloredImage(BufferedImage input, boolean[] obj, int w, int h) {
         BufferedImage recolored = deepCopy(input);
-        int redComponent = MASK_OBJECT_COLOR.getRed();
-        int greenComponent = MASK_OBJECT_COLOR.getGreen();
-        int blueComponent = MASK_OBJECT_COLOR.getBlue();
-
-        for (int y = 0; y < h; y++) {
-            for (int x = 0; x < w; x++) {
-                int idx = y * w + x;
-                if (!obj[idx]) continue;
-
-                int rgba = recolored.getRGB(x, y);
-                int rValue = (rgba >> 16) & 0xFF;
-                int gValue = (rgba >> 8) & 0xFF;
-                int bValue = rgba & 0xFF;
-
-                int newRed = blend(rValue, redComponent, TINT_ALPHA);
-                int newGreen = blend(gValue, greenComponent, TINT_ALPHA);
-                int newBlue = blend(bValue, blueComponent, TINT_ALPHA);
-
-                recolored.setRGB(x, y, (0xFF << 24) | (newRed << 16) | (newGreen << 8) | newBlue);
-            }
-        }
+        int[] pixels = recolored.getRGB(0, 0, w, h, null, 0, w);
+        kernels.blend(pixels, obj, MASK_OBJECT_COLOR.getRGB() & 0xFFFFFF, TINT_ALPHA);
+        recolored.setRGB(0, 0, w, h, pixels, 0, w);
         return recolored;
     }
 
-    private static boolean contains(List<Integer> list, int v) {
-        for (int x : list) if (x == v) return true;
-        return false;
-    }
-
-    private static boolean[] constrainedGrow(boolean[] src, boolean[] allow, int w, int h, int iters) {
-        boolean[] cur = Arrays.copyOf(src, src.length);
+    /** На място; tmp е работен буфер. */
+    private static void constrainedGrow(boolean[] mask, boolean[] allow, boolean[] tmp, int w, int h, int iters) {
         for (int it = 0; it < iters; it++) {
-            boolean[] d = dilate8(cur, w, h);
-            for (int i = 0; i < d.length; i++) {
-                d[i] = d[i] && allow[i];
+            dilate8(mask, tmp, w, h);
+            for (int i = 0; i < w * h; i++) {
+                mask[i] = tmp[i] && allow[i];
             }
-            cur = d;
         }
-        return cur;
     }
 
-    private static int dominantClusterOnBorder(int[] cluster, int w, int h, int k) {
+    private static int dominantClusterOnBorder(IntUnaryOperator clusterAt, int w, int h, int k) {
         int[] c = new int[k];
         for (int x = 0; x < w; x++) {
-            c[cluster[x]]++;
-            c[cluster[(h - 1) * w + x]]++;
+            c[clusterAt.applyAsInt(x)]++;
+            c[clusterAt.applyAsInt((h - 1) * w + x)]++;
         }
         for (int y = 1; y < h - 1; y++) {
-            c[cluster[y * w]]++;
-            c[cluster[y * w + (w - 1)]]++;
+            c[clusterAt.applyAsInt(y * w)]++;
+            c[clusterAt.applyAsInt(y * w + (w - 1))]++;
         }
         int bg = 0;
         for (int i = 1; i < k; i++) {
@@ -403,11 +634,7 @@ public class SegmentationService {
         return bg;
     }
 
-    private static int otsuThreshold(int[] gray) {
-        int[] hist = new int[256];
-        for (int v : gray) hist[v & 0xFF]++;
-
-        int total = gray.length;
+    private static int otsuThreshold(int[] hist, int total) {
         long sumAll = 0;
         for (int i = 0; i < 256; i++) sumAll += (long) i * hist[i];
 
@@ -436,19 +663,24 @@ public class SegmentationService {
         return threshold;
     }
 
-    private static boolean[] openingByReconstruction(boolean[] src, int w, int h, int iters) {
-        boolean[] seed = Arrays.copyOf(src, src.length);
-        for (int i = 0; i < iters; i++) seed = erode8(seed, w, h);
+    /** Резултатът е в rec (различен от src); tmp е работен буфер. */
+    private static boolean[] openingByReconstruction(boolean[] src, boolean[] rec, boolean[] tmp,
+                                                     int w, int h, int iters) {
+        int n = w * h;
+        System.arraycopy(src, 0, rec, 0, n);
+        for (int i = 0; i < iters; i++) {
+            erode8(rec, tmp, w, h);
+            System.arraycopy(tmp, 0, rec, 0, n);
+        }
 
-        boolean[] rec = Arrays.copyOf(seed, seed.length);
         boolean changed = true;
         int safety = 0;
 
         while (changed && safety++ < 64) {
-            boolean[] dil = dilate8(rec, w, h);
+            dilate8(rec, tmp, w, h);
             changed = false;
-            for (int i = 0; i < rec.length; i++) {
-                boolean v = dil[i] && src[i];
+            for (int i = 0; i < n; i++) {
+                boolean v = tmp[i] && src[i];
                 if (v != rec[i]) changed = true;
                 rec[i] = v;
             }
@@ -456,171 +688,70 @@ public class SegmentationService {
         return rec;
     }
 
-    private static boolean[] fillHoles(boolean[] src, int w, int h) {
+    /** На място: фонът, недостижим от рамката, става обект. outside и queue са работни буфери. */
+    private static void fillHoles(boolean[] mask, boolean[] outside, int[] queue, int w, int h) {
         int n = w * h;
-        boolean[] visited = new boolean[n];
-        boolean[] outside = new boolean[n];
-        ArrayDeque<Point> q = new ArrayDeque<>();
+        Arrays.fill(outside, 0, n, false);
+        int head = 0, tail = 0;
 
         for (int x = 0; x < w; x++) {
-            if (!src[x]) {
+            if (!mask[x] && !outside[x]) {
                 outside[x] = true;
-                visited[x] = true;
-                q.add(new Point(x, 0));
+                queue[tail++] = x;
             }
             int idx = (h - 1) * w + x;
-            if (!src[idx]) {
+            if (!mask[idx] && !outside[idx]) {
                 outside[idx] = true;
-                visited[idx] = true;
-                q.add(new Point(x, h - 1));
+                queue[tail++] = idx;
             }
         }
 
         for (int y = 1; y < h - 1; y++) {
             int l = y * w;
-            if (!src[l]) {
+            if (!mask[l] && !outside[l]) {
                 outside[l] = true;
-                visited[l] = true;
-                q.add(new Point(0, y));
+                queue[tail++] = l;
             }
             int r = y * w + (w - 1);
-            if (!src[r]) {
+            if (!mask[r] && !outside[r]) {
                 outside[r] = true;
-                visited[r] = true;
-                q.add(new Point(w - 1, y));
+                queue[tail++] = r;
             }
         }
 
-        while (!q.isEmpty()) {
-            Point p = q.removeFirst();
-            int x = p.x, y = p.y;
-
-            int[][] dirs = {{0, -1}, {0, 1}, {-1, 0}, {1, 0}};
-            for (int[] dir : dirs) {
-                int nx = x + dir[0];
-                int ny = y + dir[1];
-                if (nx >= 0 && nx < w && ny >= 0 && ny < h) {
-                    int nIdx = ny * w + nx;
-                    if (!src[nIdx] && !visited[nIdx]) {
-                        visited[nIdx] = true;
-                        outside[nIdx] = true;
-                        q.add(new Point(nx, ny));
-                    }
-                }
-            }
+        while (head < tail) {
+            int p = queue[head++];
+            int x = p % w, y = p / w;
+
+            if (y > 0 && !mask[p - w] && !outside[p - w]) { outside[p - w] = true; queue[tail++] = p - w; }
+            if (y < h - 1 && !mask[p + w] && !outside[p + w]) { outside[p + w] = true; queue[tail++] = p + w; }
+            if (x > 0 && !mask[p - 1] && !outside[p - 1]) { outside[p - 1] = true; queue[tail++] = p - 1; }
+            if (x < w - 1 && !mask[p + 1] && !outside[p + 1]) { outside[p + 1] = true; queue[tail++] = p + 1; }
         }
 
-        boolean[] out = Arrays.copyOf(src, n);
         for (int i = 0; i < n; i++) {
-            if (!src[i] && !outside[i]) out[i] = true;
+            if (!mask[i] && !outside[i]) mask[i] = true;
         }
-        return out;
     }
 
-    private static boolean[] morphOpen8(boolean[] src, int w, int h, int iters) {
-        boolean[] out = Arrays.copyOf(src, src.length);
+    /** dst може да е src (на място); tmp - не. */
+    private static boolean[] morphOpen8(boolean[] src, boolean[] dst, boolean[] tmp, int w, int h, int iters) {
+        if (dst != src) System.arraycopy(src, 0, dst, 0, w * h);
         for (int i = 0; i < iters; i++) {
-            out = erode8(out, w, h);
-            out = dilate8(out, w, h);
+            erode8(dst, tmp, w, h);
+            dilate8(tmp, dst, w, h);
         }
-        return out;
+        return dst;
     }
 
-    private static boolean[] morphClose8(boolean[] src, int w, int h, int iters) {
-        boolean[] out = Arrays.copyOf(src, src.length);
+    /** dst може да е src (на място); tmp - не. */
+    private static boolean[] morphClose8(boolean[] src, boolean[] dst, boolean[] tmp, int w, int h, int iters) {
+        if (dst != src) System.arraycopy(src, 0, dst, 0, w * h);
         for (int i = 0; i < iters; i++) {
-            out = dilate8(out, w, h);
-            out = erode8(out, w, h);
+            dilate8(dst, tmp, w, h);
+            erode8(tmp, dst, w, h);
         }
-        return out;
-    }
-
-    private static int[] kmeans(float[] labSpace, int n, int k, int iters, long seed) {
-        java.util.Random rnd = new java.util.Random(seed);
-        float[] cent = new float[k * 3];
-
-        for (int c = 0; c < k; c++) {
-            int idx = rnd.nextInt(n);
-            cent[3 * c]     = labSpace[3 * idx];
-            cent[3 * c + 1] = labSpace[3 * idx + 1];
-            cent[3 * c + 2] = labSpace[3 * idx + 2];
-        }
-
-        int[] assign = new int[n];
-        Arrays.fill(assign, -1);
-        float[] sum = new float[k * 3];
-        int[] cnt = new int[k];
-
-        for (int it = 0; it < iters; it++) {
-            boolean changed = false;
-
-            for (int i = 0; i < n; i++) {
-                float L = labSpace[3 * i], A = labSpace[3 * i + 1], B = labSpace[3 * i + 2];
-                int best = 0;
-                float bestD = dist2(L, A, B, cent[0], cent[1], cent[2]);
-
-                for (int c = 1; c < k; c++) {
-                    float d = dist2(L, A, B, cent[3 * c], cent[3 * c + 1], cent[3 * c + 2]);
-                    if (d < bestD) {
-                        bestD = d;
-                        best = c;
-                    }
-                }
-
-                if (assign[i] != best) {
-                    assign[i] = best;
-                    changed = true;
-                }
-            }
-
-            if (!changed && it > 0) break;
-
-            Arrays.fill(sum, 0);
-            Arrays.fill(cnt, 0);
-
-            for (int i = 0; i < n; i++) {
-                int c = assign[i];
-                sum[3 * c]     += labSpace[3 * i];
-                sum[3 * c + 1] += labSpace[3 * i + 1];
-                sum[3 * c + 2] += labSpace[3 * i + 2];
-                cnt[c]++;
-            }
-
-            for (int c = 0; c < k; c++) {
-                if (cnt[c] == 0) continue;
-                cent[3 * c]     = sum[3 * c] / cnt[c];
-                cent[3 * c + 1] = sum[3 * c + 1] / cnt[c];
-                cent[3 * c + 2] = sum[3 * c + 2] / cnt[c];
-            }
-        }
-        return assign;
-    }
-
-    private static float dist2(float l1, float a1, float b1, float l2, float a2, float b2) {
-        float dl = l1 - l2, da = a1 - a2, db = b1 - b2;
-        return dl*dl + da*da + db*db;
-    }
-
-    private static float[] sRGBtoLab(int r8, int g8, int b8) {
-        double r = invGamma(r8 / 255.0), g = invGamma(g8 / 255.0), b = invGamma(b8 / 255.0);
-        double X = 0.4124564 * r + 0.3575761 * g + 0.1804375 * b;
-        double Y = 0.2126729 * r + 0.7151522 * g + 0.0721750 * b;
-        double Z = 0.0193339 * r + 0.1191920 * g + 0.9503041 * b;
-        double Xn = 0.95047, Yn = 1.00000, Zn = 1.08883;
-        double fx = fxyz(X / Xn), fy = fxyz(Y / Yn), fz = fxyz(Z / Zn);
-        float L = (float) (116.0 * fy - 16.0);
-        float A = (float) (500.0 * (fx - fy));
-        float B = (float) (200.0 * (fy - fz));
-        return new float[]{L, A, B};
-    }
-
-    private static double invGamma(double c) {
-        return (c <= 0.04045) ? (c / 12.92) : Math.pow((c + 0.055) / 1.055, 2.4);
-    }
-
-    private static double fxyz(double t) {
-        double e = Math.pow(6.0/29.0,3);
-        return (t > e) ? Math.cbrt(t) : (t / (3 * Math.pow(6.0/29.0,2)) + 4.0/29.0);
+        return dst;
     }
 
     private static BufferedImage deepCopy(BufferedImage bi) {
@@ -631,14 +762,6 @@ public class SegmentationService {
         return copy;
     }
 
-    private static int blend(int orig, int tint, float alpha) {
-        return clamp(Math.round(alpha * tint + (1f - alpha) * orig));
-    }
-
-    private static int clamp(int v) {
-        return (v < 0) ? 0 : Math.min(255, v);
-    }
-
     private static byte[] toPng(BufferedImage img) {
         try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
             ImageIO.write(img, "png", baos);
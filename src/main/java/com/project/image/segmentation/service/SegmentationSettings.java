@@ -0,0 +1,59 @@
+package com.project.image.segmentation.service;
+
+import com.project.image.segmentation.service.SegmentationService.KMeansAlgorithm;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * Настройки на k-means сегментацията ({@code app.segmentation.*}).
+ * kmeans - вариантът на k-means (виж {@link KMeans}).
+ * workspace.pool-size 0 - по един workspace на ядро; изображения над workspace.max-pixels получават временен.
+ * От compactLabMinPixels пиксела нагоре Lab се пази в 8 бита на канал ({@link QuantizedLab}) - 3 вместо
+ * 12 байта на пиксел; 0 - винаги. Режимът суперпиксели винаги ползва float.
+ * k се избира от [minClusters, maxClusters] за всяко изображение; при minClusters == maxClusters е фиксирано.
+ * stageCacheMb ограничава кеша на етапите до морфологията; 0 - без кеш.
+ */
+@ConfigurationProperties(prefix = "app.segmentation")
+public record SegmentationSettings(
+        @DefaultValue("accelerated") KMeansAlgorithm kmeans,
+        @DefaultValue Workspace workspace,
+        @DefaultValue("8000000") long compactLabMinPixels,
+        @DefaultValue("3") int minClusters,
+        @DefaultValue("5") int maxClusters,
+        @DefaultValue("64") long stageCacheMb
+) {
+    public record Workspace(@DefaultValue("4000000") long maxPixels, @DefaultValue("0") int poolSize) {}
+
+    public SegmentationSettings {
+        if (minClusters < 2 || maxClusters < minClusters) {
+            throw new IllegalArgumentException("Invalid cluster range: " + minClusters + ".." + maxClusters);
+        }
+    }
+
+    /** Стойностите по подразбиране - същите като при липсващи свойства. */
+    public static SegmentationSettings defaults() {
+        return new SegmentationSettings(KMeansAlgorithm.ACCELERATED, new Workspace(4_000_000, 0),
+                8_000_000, 3, 5, 64);
+    }
+
+    public SegmentationSettings withKmeans(KMeansAlgorithm algorithm) {
+        return new SegmentationSettings(algorithm, workspace, compactLabMinPixels, minClusters, maxClusters, stageCacheMb);
+    }
+
+    public SegmentationSettings withWorkspace(long maxPixels, int poolSize) {
+        return new SegmentationSettings(kmeans, new Workspace(maxPixels, poolSize), compactLabMinPixels,
+                minClusters, maxClusters, stageCacheMb);
+    }
+
+    public SegmentationSettings withCompactLabMinPixels(long pixels) {
+        return new SegmentationSettings(kmeans, workspace, pixels, minClusters, maxClusters, stageCacheMb);
+    }
+
+    public SegmentationSettings withClusterRange(int min, int max) {
+        return new SegmentationSettings(kmeans, workspace, compactLabMinPixels, min, max, stageCacheMb);
+    }
+
+    public SegmentationSettings withStageCacheMb(long mb) {
+        return new SegmentationSettings(kmeans, workspace, compactLabMinPixels, minClusters, maxClusters, mb);
+    }
+}
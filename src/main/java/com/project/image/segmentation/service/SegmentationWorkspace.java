@@ -0,0 +1,151 @@
+package com.project.image.segmentation.service;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * Работните буфери на едно извикване на сегментацията: Lab равнините (float или 8-битови), int буферите на k-means,
+ * опашката за flood fill и няколко булеви маски, между които етапите превключват (ping-pong).
+ * Буферите се заделят при първа нужда и растат до най-голямото срещнато изображение, затова
+ * съдържанието им е произволно и размерът може да надвишава n - всички ползватели четат до n.
+ * Не е нишково-безопасен - държи се от едно извикване, а между извикванията стои в {@link Pool}.
+ */
+final class SegmentationWorkspace {
+
+    /** Броят булеви маски, които ползва конвейерът (allow, seeds, работна маска и две временни). */
+    static final int MASKS = 5;
+
+    private float[] l, a, b;
+    private byte[] ql, qa, qb;
+    private int[][] stripes = new int[0][];
+    private int[] queue, assign, superpixelLabels;
+    private float[] upper, lower;
+    private final boolean[][] masks = new boolean[MASKS][];
+    private final boolean pooled;
+
+    private SegmentationWorkspace(boolean pooled) {
+        this.pooled = pooled;
+    }
+
+    KMeans.Planes lab(int n) {
+        if (l == null || l.length < n) {
+            l = new float[n];
+            a = new float[n];
+            b = new float[n];
+        }
+        return new KMeans.Planes(l, a, b);
+    }
+
+    QuantizedLab quantizedLab(int n) {
+        if (ql == null || ql.length < n) {
+            ql = new byte[n];
+            qa = new byte[n];
+            qb = new byte[n];
+        }
+        return new QuantizedLab(ql, qa, qb);
+    }
+
+    /** Подготвя count буфера за ивици - извиква се преди паралелния проход, не от него. */
+    void stripes(int count) {
+        if (stripes.length < count) {
+            stripes = Arrays.copyOf(stripes, count);
+        }
+    }
+
+    /** 0xRRGGBB пикселите на една ивица; всяка паралелна задача пипа само своя индекс. */
+    int[] stripe(int index, int size) {
+        return stripes[index] = ensure(stripes[index], size);
+    }
+
+    /** Опашка с индекси на пиксели - всеки пиксел влиза най-много веднъж на обхождане. */
+    int[] queue(int n) {
+        return queue = ensure(queue, n);
+    }
+
+    int[] assign(int n) {
+        return assign = ensure(assign, n);
+    }
+
+    int[] superpixelLabels(int n) {
+        return superpixelLabels = ensure(superpixelLabels, n);
+    }
+
+    float[] upper(int n) {
+        return upper = ensure(upper, n);
+    }
+
+    float[] lower(int n) {
+        return lower = ensure(lower, n);
+    }
+
+    boolean[] mask(int slot, int n) {
+        if (masks[slot] == null || masks[slot].length < n) masks[slot] = new boolean[n];
+        return masks[slot];
+    }
+
+    long retainedBytes() {
+        long bytes = 0;
+        if (l != null) bytes += 12L * l.length;
+        if (ql != null) bytes += 3L * ql.length;
+        for (int[] stripe : stripes) {
+            if (stripe != null) bytes += 4L * stripe.length;
+        }
+        for (int[] ints : new int[][]{queue, assign, superpixelLabels}) {
+            if (ints != null) bytes += 4L * ints.length;
+        }
+        if (upper != null) bytes += 4L * upper.length;
+        if (lower != null) bytes += 4L * lower.length;
+        for (boolean[] mask : masks) {
+            if (mask != null) bytes += mask.length;
+        }
+        return bytes;
+    }
+
+    private static int[] ensure(int[] buffer, int n) {
+        return buffer == null || buffer.length < n ? new int[n] : buffer;
+    }
+
+    private static float[] ensure(float[] buffer, int n) {
+        return buffer == null || buffer.length < n ? new float[n] : buffer;
+    }
+
+    /**
+     * Свободните workspace-и, най-много maxIdle на брой - колкото сегментации текат едновременно.
+     * Изображения над maxPixels получават еднократен workspace, който не се връща в пула,
+     * за да не държи едно голямо качване стотици MB завинаги.
+     */
+    static final class Pool {
+        private final ArrayDeque<SegmentationWorkspace> idle = new ArrayDeque<>();
+        private final long maxPixels;
+        private final int maxIdle;
+
+        Pool(long maxPixels, int maxIdle) {
+            this.maxPixels = maxPixels;
+            this.maxIdle = maxIdle;
+        }
+
+        SegmentationWorkspace acquire(int n) {
+            if (n > maxPixels) return new SegmentationWorkspace(false);
+            synchronized (idle) {
+                SegmentationWorkspace ws = idle.pollFirst();
+                return ws != null ? ws : new SegmentationWorkspace(true);
+            }
+        }
+
+        void release(SegmentationWorkspace ws) {
+            if (!ws.pooled) return;
+            synchronized (idle) {
+                // последно върнатият е най-вероятно вече пораснал до нужния размер
+                if (idle.size() < maxIdle) idle.addFirst(ws);
+            }
+        }
+
+        long retainedBytes() {
+            synchronized (idle) {
+                long bytes = 0;
+                for (SegmentationWorkspace ws : idle) bytes += ws.retainedBytes();
+                return bytes;
+            }
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package com.project.image.segmentation.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.project.image.segmentation.DTOs.BatchItemSummary;
+import com.project.image.segmentation.DTOs.ClusterModel;
+import com.project.image.segmentation.DTOs.SegmentationOptions;
+import com.project.image.segmentation.DTOs.SegmentationResult;
+import com.project.image.segmentation.DTOs.SequenceSummary;
+import com.project.image.segmentation.exceptions.AdmissionRejectedException;
+import com.project.image.segmentation.exceptions.SegmentationException;
+import com.project.image.segmentation.service.BatchSegmentationService.BatchEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Сегментация на последователност от кадри (напр. въртяща се маса), в реда на входа.
+ * Всеки кадър тръгва от k-means модела на предишния и наследява фоновия му клъстер,
+ * затова самата сегментация е последователна; декодирането на следващите кадри и
+ * PNG кодирането на предишните текат паралелно. Цялата CPU работа минава през общия
+ * CPU пул ({@link ExecutionPools#cpuBackground()}).
+ * Изходът е ZIP като при пакетната обработка плюс sequence.json с обобщение.
+ */
+@Service
+public class SequenceSegmentationService {
+    private static final Logger log = LoggerFactory.getLogger(SequenceSegmentationService.class);
+
+    private final SegmentationService segmentationService;
+    private final ImageLoadingService imageLoadingService;
+    private final MemoryAdmissionService admissionService;
+    private final ObjectMapper objectMapper;
+    private final Executor cpu;
+    private final int lookahead;
+    private final long maxEntryBytes;
+
+    public SequenceSegmentationService(SegmentationService segmentationService,
+                                       ImageLoadingService imageLoadingService,
+                                       MemoryAdmissionService admissionService,
+                                       ObjectMapper objectMapper,
+                                       ExecutionPools pools,
+                                       @Value("${app.sequence.lookahead:2}") int lookahead,
+                                       @Value("${app.batch.max-entry-size:10485760}") long maxEntryBytes) {
+        this.segmentationService = segmentationService;
+        this.imageLoadingService = imageLoadingService;
+        this.admissionService = admissionService;
+        this.objectMapper = objectMapper;
+        this.lookahead = Math.max(1, lookahead);
+        this.maxEntryBytes = maxEntryBytes;
+        this.cpu = pools.cpuBackground();
+    }
+
+    public SequenceSummary processZip(InputStream zip, int minRegionSize, OutputStream out) throws IOException {
+        try (ZipInputStream zin = new ZipInputStream(zip)) {
+            return process(new BatchSegmentationService.ZipEntryIterator(zin, maxEntryBytes), minRegionSize, out);
+        }
+    }
+
+    /** Кадрите се подреждат по име - качванията от браузър не гарантират реда. */
+    public SequenceSummary processFiles(List<MultipartFile> files, int minRegionSize, OutputStream out)
+            throws IOException {
+        Iterator<BatchEntry> entries = files.stream()
+                .filter(f -> !f.isEmpty())
+                .map(f -> BatchSegmentationService.entryOf(f, imageLoadingService))
+                .sorted(Comparator.comparing(BatchEntry::name))
+                .iterator();
+        return process(entries, minRegionSize, out);
+    }
+
+    /** Всички изображения в папката (без поддиректории), подредени по име. */
+    public SequenceSummary processDirectory(Path dir, int minRegionSize, OutputStream out) throws IOException {
+        List<BatchEntry> entries;
+        try (Stream<Path> files = Files.list(dir)) {
+            entries = files.filter(Files::isRegularFile)
+                    .filter(p -> !p.getFileName().toString().startsWith("."))
+                    .sorted()
+                    .map(p -> new BatchEntry(p.getFileName().toString(), () -> Files.newInputStream(p)))
+                    .toList();
+        }
+        return process(entries.iterator(), minRegionSize, out);
+    }
+
+    SequenceSummary process(Iterator<BatchEntry> entries, int minRegionSize, OutputStream out) throws IOException {
+        long start = System.nanoTime();
+        ZipOutputStream zout = new ZipOutputStream(out);
+        SegmentationOptions options = SegmentationOptions.defaults(minRegionSize).withRenderImages(false);
+
+        ArrayDeque<DecodingFrame> decoding = new ArrayDeque<>();
+        ArrayDeque<CompletableFuture<Void>> writes = new ArrayDeque<>();
+        CompletableFuture<Void> lastWrite = CompletableFuture.completedFuture(null);
+        ClusterModel model = null;
+        int index = 0, failed = 0, warmStarted = 0;
+        long iterations = 0;
+
+        try {
+            while (!decoding.isEmpty() || entries.hasNext()) {
+                while (decoding.size() < lookahead && entries.hasNext()) {
+                    decoding.add(startDecode(++index, entries.next()));
+                }
+
+                DecodingFrame frame = decoding.poll();
+                String base = String.format("%05d_%s", frame.index(), BatchSegmentationService.baseName(frame.name()));
+                CompletableFuture<FrameOutput> output;
+                try (var reservation = frame.reservation()) {
+                    BufferedImage image = frame.image().join();
+                    boolean warm = model != null;
+                    ClusterModel warmStart = model;
+                    SegmentationResult result = CompletableFuture.supplyAsync(
+                            () -> segmentationService.segment(image, options.withWarmStart(warmStart)), cpu).join();
+                    model = result.clusterModel();
+                    if (warm) warmStarted++;
+                    iterations += model.iterations();
+                    output = CompletableFuture.supplyAsync(() -> {
+                        byte[] png = segmentationService.encodeMaskPng(
+                                result.objectMask(), result.width(), result.height());
+                        long ms = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - frame.startNanos());
+                        return new FrameOutput(base, png,
+                                BatchItemSummary.ok(frame.index(), frame.name(), "masks/" + base + ".png", result, ms));
+                    }, cpu);
+                } catch (CompletionException | SegmentationException | AdmissionRejectedException e) {
+                    Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                    log.warn("Sequence frame {} failed: {}", frame.name(), cause.getMessage());
+                    // следващият кадър започва наново - моделът може да е от несвързана сцена
+                    model = null;
+                    failed++;
+                    long ms = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - frame.startNanos());
+                    output = CompletableFuture.completedFuture(new FrameOutput(base, null,
+                            BatchItemSummary.failed(frame.index(), frame.name(), cause.getMessage(), ms)));
+                }
+
+                // записите в архива са верижни, за да остане редът на кадрите
+                lastWrite = lastWrite.thenCombine(output, (ignored, o) -> o).thenAccept(o -> write(zout, o));
+                writes.add(lastWrite);
+                if (writes.size() > lookahead) writes.poll().join();
+            }
+            lastWrite.join();
+
+            int ok = index - failed;
+            SequenceSummary summary = new SequenceSummary(index, failed, warmStarted,
+                    ok == 0 ? 0 : (double) iterations / ok,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            zout.putNextEntry(new ZipEntry("sequence.json"));
+            zout.write(objectMapper.writeValueAsBytes(summary));
+            zout.closeEntry();
+            zout.finish();
+            zout.flush();
+            log.info("Sequence finished: {} frames ({} failed, {} warm-started, {} k-means iterations per frame)",
+                    index, failed, warmStarted, String.format("%.2f", summary.meanIterations()));
+            return summary;
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException io) throw io.getCause();
+            throw e;
+        } finally {
+            for (DecodingFrame frame : decoding) frame.reservation().close();
+        }
+    }
+
+    /**
+     * Резервира памет по размерите от хедъра и пуска декодирането в CPU пула.
+     * При грешка кадърът носи вече провален future и празна резервация.
+     */
+    private DecodingFrame startDecode(int index, BatchEntry entry) {
+        long start = System.nanoTime();
+        MemoryAdmissionService.Reservation reservation = null;
+        try {
+            ImageLoadingService.Dimensions dims;
+            try (InputStream in = entry.source().open()) {
+                dims = imageLoadingService.readDimensions(in);
+            }
+            reservation = admissionService.reserve(dims.width(), dims.height(), EnumSet.of(SegmentationEngine.KMEANS));
+            CompletableFuture<BufferedImage> image = CompletableFuture.supplyAsync(() -> {
+                try (InputStream in = entry.source().open()) {
+                    return imageLoadingService.decode(in);
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            }, cpu);
+            return new DecodingFrame(index, entry.name(), reservation, image, start);
+        } catch (IOException | RuntimeException e) {
+            if (reservation != null) reservation.close();
+            return new DecodingFrame(index, entry.name(), admissionService.none(),
+                    CompletableFuture.failedFuture(e), start);
+        }
+    }
+
+    private void write(ZipOutputStream zout, FrameOutput output) {
+        try {
+            if (output.maskPng() != null) {
+                zout.putNextEntry(new ZipEntry("masks/" + output.base() + ".png"));
+                zout.write(output.maskPng());
+                zout.closeEntry();
+            }
+            zout.putNextEntry(new ZipEntry("summaries/" + output.base() + ".json"));
+            zout.write(objectMapper.writeValueAsBytes(output.summary()));
+            zout.closeEntry();
+            zout.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private record DecodingFrame(int index, String name, MemoryAdmissionService.Reservation reservation,
+                                 CompletableFuture<BufferedImage> image, long startNanos) {}
+
+    private record FrameOutput(String base, byte[] maskPng, BatchItemSummary summary) {}
+}
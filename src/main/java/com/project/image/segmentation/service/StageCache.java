@@ -0,0 +1,58 @@
+package com.project.image.segmentation.service;
+
+import com.project.image.segmentation.DTOs.ClusterModel;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LRU кеш на междинните резултати на k-means конвейера до морфологията включително, ограничен по байтове.
+ * Те зависят само от пикселите и режима - при нов minRegionSize за същото изображение се пускат
+ * само етикетирането и почистването.
+ */
+final class StageCache {
+
+    /**
+     * allow - пикселите извън фоновия клъстер; fg - семената след морфологията; threshold - прагът на Otsu;
+     * model - центроидите и фоновият клъстер (за резултата).
+     */
+    record Entry(boolean[] allow, boolean[] fg, int threshold, ClusterModel model) {
+        long bytes() {
+            return allow.length + fg.length + 4L * model.centroids().length;
+        }
+
+        /** Копие с точно n пиксела - масивите от workspace-а се преизползват и може да са по-дълги. */
+        Entry copy(int n) {
+            return new Entry(Arrays.copyOf(allow, n), Arrays.copyOf(fg, n), threshold, model);
+        }
+    }
+
+    private final long maxBytes;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+
+    StageCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    synchronized void put(String key, Entry entry) {
+        if (entry.bytes() > maxBytes) return;
+        Entry previous = entries.put(key, entry);
+        bytes += entry.bytes() - (previous == null ? 0 : previous.bytes());
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            bytes -= it.next().getValue().bytes();
+            it.remove();
+        }
+    }
+
+    synchronized Entry get(String key) {
+        return entries.get(key);
+    }
+
+    synchronized long bytes() {
+        return bytes;
+    }
+}
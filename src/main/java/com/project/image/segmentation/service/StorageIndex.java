@@ -0,0 +1,127 @@
+package com.project.image.segmentation.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Индекс в паметта на файловете в папката за качвания: размер, време на запис и последно сервиране.
+ * Възстановява се при старт чрез обхождане на диска и служи на retention логиката,
+ * за да не се листват директориите при всяко почистване.
+ */
+public final class StorageIndex {
+    private static final Logger log = LoggerFactory.getLogger(StorageIndex.class);
+
+    public static final class Entry {
+        private final Path path;
+        private final long size;
+        private final long createdMillis;
+        private volatile long lastAccessMillis;
+
+        Entry(Path path, long size, long createdMillis, long lastAccessMillis) {
+            this.path = path;
+            this.size = size;
+            this.createdMillis = createdMillis;
+            this.lastAccessMillis = lastAccessMillis;
+        }
+
+        public Path path() { return path; }
+        public long size() { return size; }
+        public long createdMillis() { return createdMillis; }
+        public long lastAccessMillis() { return lastAccessMillis; }
+    }
+
+    private final ConcurrentHashMap<Path, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong totalBytes = new AtomicLong();
+
+    public void add(Path path, long size) {
+        long now = System.currentTimeMillis();
+        put(new Entry(path, size, now, now));
+    }
+
+    private void put(Entry entry) {
+        Entry previous = entries.put(entry.path(), entry);
+        totalBytes.addAndGet(entry.size() - (previous == null ? 0 : previous.size()));
+    }
+
+    /** Повторно качване на съществуващ blob: възрастта започва отначало, все едно е записан сега. */
+    public void renew(Path path) {
+        Entry entry = entries.get(path);
+        if (entry != null) add(path, entry.size());
+    }
+
+    public Entry get(Path path) {
+        return entries.get(path);
+    }
+
+    public void touch(Path path) {
+        Entry entry = entries.get(path);
+        if (entry != null) entry.lastAccessMillis = System.currentTimeMillis();
+    }
+
+    public boolean remove(Path path) {
+        Entry entry = entries.remove(path);
+        if (entry == null) return false;
+        totalBytes.addAndGet(-entry.size());
+        return true;
+    }
+
+    public long totalBytes() {
+        return totalBytes.get();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /** Моментна снимка, подредена от най-отдавна сервирания към най-скорошния. */
+    public List<Entry> leastRecentlyServed() {
+        List<Entry> snapshot = new ArrayList<>(entries.values());
+        snapshot.sort(Comparator.comparingLong(Entry::lastAccessMillis));
+        return snapshot;
+    }
+
+    /**
+     * Обхожда root и добавя всички файлове; вече индексирани (записани междувременно) се запазват.
+     * Скритите служебни файлове и папки (напр. .meta/refs) не подлежат на изтриване и не се индексират.
+     */
+    public void rebuild(Path root) {
+        long start = System.currentTimeMillis();
+        try (Stream<Path> files = Files.walk(root)) {
+            files.filter(p -> !p.getFileName().toString().endsWith(".tmp") && !isHidden(root.relativize(p))).forEach(p -> {
+                try {
+                    BasicFileAttributes attrs = Files.readAttributes(p, BasicFileAttributes.class);
+                    if (!attrs.isRegularFile()) return;
+                    long modified = attrs.lastModifiedTime().toMillis();
+                    long accessed = Math.max(modified, attrs.lastAccessTime().toMillis());
+                    Entry entry = new Entry(p, attrs.size(), modified, accessed);
+                    if (entries.putIfAbsent(p, entry) == null) totalBytes.addAndGet(entry.size());
+                } catch (IOException e) {
+                    log.debug("Skipping {} while indexing: {}", p, e.getMessage());
+                }
+            });
+        } catch (IOException e) {
+            log.error("Failed to rebuild storage index for {}", root, e);
+        }
+        log.info("Storage index rebuilt: {} files, {} MB in {} ms",
+                size(), totalBytes() / (1024 * 1024), System.currentTimeMillis() - start);
+    }
+
+    /** Път (относителен към root), в който някоя част започва с точка - служебен, не се сервира и не се трие. */
+    public static boolean isHidden(Path relative) {
+        for (Path part : relative) {
+            if (part.toString().startsWith(".")) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,139 @@
+package com.project.image.segmentation.service;
+
+import com.project.image.segmentation.exceptions.StorageException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Препратки име на качване -> относителен път на blob-а по съдържание.
+ * Държат се в паметта и се дописват в append-only файл, за да оцелеят рестарт;
+ * при повторение на името печели последният ред.
+ * Всеки blob пази най-много MAX_NAMES_PER_BLOB имена (най-старите отпадат), а при изтриване
+ * на blob-а имената му се премахват; файлът се презаписва, когато мъртвите редове надвишат живите.
+ * Файлът е в скритата папка {@code .meta/} на root - /uploads/** не сервира пътища с точка
+ * (виж StaticResourceConfig), а индексът на retention ги пропуска.
+ */
+final class StorageRefs {
+    private static final Logger log = LoggerFactory.getLogger(StorageRefs.class);
+    static final String DIR = ".meta";
+    static final String FILE_NAME = "refs";
+    // до тази версия файлът беше директно в root - и се сервираше
+    private static final String LEGACY_FILE_NAME = ".refs";
+    static final int MAX_NAMES_PER_BLOB = 8;
+    private static final int MIN_COMPACT_LINES = 1024;
+
+    private final Path file;
+    private final ConcurrentHashMap<String, String> refs = new ConcurrentHashMap<>();
+    // обратният индекс се променя само под synchronized
+    private final Map<String, LinkedHashSet<String>> byBlob = new HashMap<>();
+    private final int minCompactLines;
+    private int lines;
+
+    StorageRefs(Path file) throws IOException {
+        this(file, MIN_COMPACT_LINES);
+    }
+
+    /** Препратките на upload root; стар {@code .refs} в самия root се премества. */
+    static StorageRefs open(Path root) throws IOException {
+        Path file = root.resolve(DIR).resolve(FILE_NAME);
+        Files.createDirectories(file.getParent());
+        Path legacy = root.resolve(LEGACY_FILE_NAME);
+        if (Files.exists(legacy) && !Files.exists(file)) {
+            Files.move(legacy, file, StandardCopyOption.ATOMIC_MOVE);
+        }
+        Files.deleteIfExists(legacy);
+        return new StorageRefs(file);
+    }
+
+    StorageRefs(Path file, int minCompactLines) throws IOException {
+        this.file = file;
+        this.minCompactLines = minCompactLines;
+        if (Files.exists(file)) {
+            try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    lines++;
+                    int tab = line.indexOf('\t');
+                    // недописан последен ред след срив се пропуска
+                    if (tab > 0 && tab < line.length() - 1) put(line.substring(0, tab), line.substring(tab + 1));
+                }
+            }
+        }
+    }
+
+    synchronized void add(String name, String relativePath) {
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.WRITE)) {
+            writer.write(name + "\t" + relativePath + "\n");
+        } catch (IOException e) {
+            throw new StorageException("Failed to record reference " + name, e);
+        }
+        lines++;
+        put(name, relativePath);
+        compactIfSparse();
+    }
+
+    /** Blob-ът е изтрит: имената, сочещи към него, вече не се разрешават. */
+    synchronized void removeBlob(String relativePath) {
+        Set<String> names = byBlob.remove(relativePath);
+        if (names == null) return;
+        for (String name : names) refs.remove(name, relativePath);
+        compactIfSparse();
+    }
+
+    String get(String name) {
+        return refs.get(name);
+    }
+
+    int size() {
+        return refs.size();
+    }
+
+    private void put(String name, String relativePath) {
+        String previous = refs.put(name, relativePath);
+        if (previous != null && !previous.equals(relativePath)) {
+            Set<String> old = byBlob.get(previous);
+            if (old != null) old.remove(name);
+        }
+        LinkedHashSet<String> names = byBlob.computeIfAbsent(relativePath, p -> new LinkedHashSet<>());
+        names.add(name);
+        // повторни качвания на едно и също съдържание не трупат имена безкрайно
+        Iterator<String> oldest = names.iterator();
+        while (names.size() > MAX_NAMES_PER_BLOB) {
+            refs.remove(oldest.next(), relativePath);
+            oldest.remove();
+        }
+    }
+
+    private void compactIfSparse() {
+        if (lines < minCompactLines || lines <= 2 * refs.size()) return;
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                for (Map.Entry<String, LinkedHashSet<String>> blob : byBlob.entrySet()) {
+                    for (String name : blob.getValue()) writer.write(name + "\t" + blob.getKey() + "\n");
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            lines = refs.size();
+        } catch (IOException e) {
+            // append-only файлът остава валиден; опитва се отново при следващата промяна
+            log.warn("Could not compact {}: {}", file, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.project.image.segmentation.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Фоново почистване на папката за качвания според максимална възраст и квота в байтове.
+ * Индексът се възстановява веднъж при старт; след това всяко почистване работи само
+ * с паметта и изтрива най-отдавна сервираните файлове, докато заетото място слезе под квотата.
+ */
+@Service
+public class StorageRetentionService {
+    private static final Logger log = LoggerFactory.getLogger(StorageRetentionService.class);
+
+    /** След надвишена квота се чисти до този дял, за да не се трие при всеки нов файл. */
+    private static final double LOW_WATERMARK = 0.9;
+
+    private final StorageService storageService;
+    private final StorageIndex index;
+    private final long quotaBytes;
+    private final Duration maxAge;
+    private final Duration sweepInterval;
+    private final Counter evictedByAge;
+    private final Counter evictedByQuota;
+    private final ScheduledExecutorService scheduler;
+
+    public StorageRetentionService(StorageService storageService,
+                                   SegmentationMetrics metrics,
+                                   @Value("${app.storage.retention.quota-mb:0}") long quotaMb,
+                                   @Value("${app.storage.retention.max-age:0s}") Duration maxAge,
+                                   @Value("${app.storage.retention.sweep-interval:1m}") Duration sweepInterval) {
+        this.storageService = storageService;
+        this.index = storageService.index();
+        this.quotaBytes = quotaMb * 1024 * 1024;
+        this.maxAge = maxAge;
+        this.sweepInterval = sweepInterval;
+
+        var registry = metrics.registry();
+        Gauge.builder("storage.used", index, StorageIndex::totalBytes).baseUnit("bytes").register(registry);
+        Gauge.builder("storage.files", index, StorageIndex::size).register(registry);
+        this.evictedByAge = Counter.builder("storage.evicted").tag("reason", "age").register(registry);
+        this.evictedByQuota = Counter.builder("storage.evicted").tag("reason", "quota").register(registry);
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "storage-retention");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @PostConstruct
+    void start() {
+        // индексът се строи във фонова нишка, за да не забавя старта при много файлове
+        scheduler.execute(() -> index.rebuild(storageService.rootDir()));
+        if (quotaBytes > 0 || !maxAge.isZero()) {
+            long period = Math.max(1, sweepInterval.toMillis());
+            scheduler.scheduleWithFixedDelay(this::sweepSafely, period, period, TimeUnit.MILLISECONDS);
+            log.info("Storage retention enabled: quota={} MB, max-age={}, sweep every {}",
+                    quotaBytes / (1024 * 1024), maxAge, sweepInterval);
+        } else {
+            log.info("Storage retention disabled (no quota and no max age configured)");
+        }
+    }
+
+    private void sweepSafely() {
+        try {
+            sweep();
+        } catch (RuntimeException e) {
+            log.error("Storage retention sweep failed", e);
+        }
+    }
+
+    /** Едно преминаване: първо остарелите файлове, после LRS до долната граница на квотата. */
+    public int sweep() {
+        int removed = 0;
+        long now = System.currentTimeMillis();
+        long target = (long) (quotaBytes * LOW_WATERMARK);
+        boolean overQuota = quotaBytes > 0 && index.totalBytes() > quotaBytes;
+
+        for (StorageIndex.Entry entry : index.leastRecentlyServed()) {
+            boolean expired = !maxAge.isZero() && now - entry.createdMillis() > maxAge.toMillis();
+            boolean needSpace = overQuota && index.totalBytes() > target;
+            if (!expired && !needSpace) {
+                if (maxAge.isZero()) break;
+                continue;
+            }
+            if (delete(entry, now)) {
+                removed++;
+                (expired ? evictedByAge : evictedByQuota).increment();
+            }
+        }
+
+        if (removed > 0) {
+            log.info("Storage retention removed {} files; now {} files, {} MB",
+                    removed, index.size(), index.totalBytes() / (1024 * 1024));
+        }
+        return removed;
+    }
+
+    /** Файл, сервиран или качен отново след началото на преминаването, се пропуска. */
+    private boolean delete(StorageIndex.Entry entry, long sweepStart) {
+        try {
+            return storageService.evict(entry, sweepStart);
+        } catch (IOException e) {
+            log.warn("Could not evict {}: {}", entry.path(), e.getMessage());
+            return false;
+        }
+    }
+
+    @PreDestroy
+    void stop() {
+        scheduler.shutdownNow();
+    }
+}
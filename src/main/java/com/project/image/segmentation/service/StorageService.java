@@ -1,35 +1,107 @@
 package com.project.image.segmentation.service;
 
 import com.project.image.segmentation.exceptions.StorageException;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.HexFormat;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Stream;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
 
 @Service
 public class StorageService {
     private static final Logger log = LoggerFactory.getLogger(StorageService.class);
+    private static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss_SSS");
+    private static final Pattern SAFE_NAME = Pattern.compile("[a-zA-Z0-9._-]+");
+    private static final Pattern BLOB_NAME = Pattern.compile("[0-9a-f]{64}(\\.[a-z0-9]{1,5})?");
     private final Path rootDir;
-    public StorageService(@Value("${app.upload.dir:uploads}") String root) {
+    private final SegmentationMetrics metrics;
+    private final ExecutorService ioExecutor;
+    // собствена нишка само без ExecutionPools (тестове); иначе I/O пулът е общ
+    private final ExecutorService ownedExecutor;
+    private final Set<CompletableFuture<Path>> flushing = ConcurrentHashMap.newKeySet();
+    private final boolean fsync;
+    // резултати, които още не са записани на диска; сервират се оттук до flush
+    private final ConcurrentHashMap<String, byte[]> pending = new ConcurrentHashMap<>();
+    private final StorageIndex index = new StorageIndex();
+    // заключвания по blob (на ивици) - за дедупликацията срещу изтриването от retention
+    private final Object[] blobLocks = new Object[64];
+    private final StorageRefs refs;
+    private final ArtifactCache hotCache;
+    public StorageService(String root) {
+        this(root, SegmentationMetrics.standalone(), null, false, 16);
+    }
+    @Autowired
+    public StorageService(@Value("${app.upload.dir:uploads}") String root, SegmentationMetrics metrics,
+                          ExecutionPools pools,
+                          @Value("${app.storage.fsync:false}") boolean fsync,
+                          @Value("${app.storage.hot-cache-mb:64}") long hotCacheMb) {
         this.rootDir = Paths.get(root).toAbsolutePath().normalize();
+        this.metrics = metrics;
+        this.fsync = fsync;
+        this.hotCache = new ArtifactCache(hotCacheMb * 1024 * 1024);
+        for (int i = 0; i < blobLocks.length; i++) blobLocks[i] = new Object();
+        this.ownedExecutor = pools == null ? Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "storage-io");
+            t.setDaemon(true);
+            return t;
+        }) : null;
+        this.ioExecutor = pools != null ? pools.io() : ownedExecutor;
         try {
             Files.createDirectories(this.rootDir);
-            log.info("Using upload directory: {}", this.rootDir);
+            this.refs = StorageRefs.open(this.rootDir);
+            log.info("Using upload directory: {} ({} stored references)", this.rootDir, refs.size());
         } catch (IOException e) {
             throw new StorageException("Cannot create upload directory: " + rootDir, e);
         }
     }
-    public record StoredFile(Path path, String filename, String relativeWebPath) {}
+    /**
+     * durable завършва, когато файлът е на диска (след атомарно преименуване и по избор fsync).
+     * contentHash е SHA-256 (hex) на съдържанието - за оригиналите; за резултатите е null.
+     */
+    public record StoredFile(Path path, String filename, String relativeWebPath, CompletableFuture<Path> durable,
+                             String contentHash) {}
+    /**
+     * Оригиналите се пазят по съдържание: {@code <ab>/<cd>/<sha256>.<ext>}, всеки уникален blob веднъж.
+     * Името на качването (timestamp_hash12_име) е само препратка към hash-а в refs файла.
+     * Повторно качване на същите байтове не записва нищо на диска освен един ред в refs.
+     * Проверката за съществуващ blob и записът вървят под заключването на blob-а, което ползва
+     * и {@link #evict}, така че retention не може да изтрие blob между проверката и препратката.
+     */
     public StoredFile store(MultipartFile file) {
         if (file == null || file.isEmpty()) {
             throw new StorageException("Empty upload");
@@ -40,24 +112,249 @@ public class StorageService {
             throw new StorageException("Only image uploads are allowed (received: " + contentType + ")");
         }
         String safeBase = original.replaceAll("[^a-zA-Z0-9._-]", "_");
-        String timestamp = DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss_SSS").format(LocalDateTime.now());
-        String filename = timestamp + "_" + safeBase;
-        Path target = rootDir.resolve(filename);
+        String timestamp = TIMESTAMP.format(LocalDateTime.now());
         try {
-            Files.copy(file.getInputStream(), target, StandardCopyOption.REPLACE_EXISTING);
-            return new StoredFile(target, filename, "uploads/" + filename);
+            long start = System.nanoTime();
+            // multipart частта вече е в паметта/временен файл - хешираме я без запис в uploads/
+            String hash;
+            try (InputStream in = file.getInputStream()) {
+                hash = sha256(in);
+            }
+            // с префикс от hash-а две качвания със същото име в една милисекунда не си пречат в refs
+            String filename = timestamp + "_" + hash.substring(0, 12) + "_" + safeBase;
+            String blob = hash + extension(safeBase);
+            String relative = blobShard(hash) + "/" + blob;
+            Path target = rootDir.resolve(relative);
+            boolean existing;
+            synchronized (lockFor(target)) {
+                existing = Files.isRegularFile(target);
+                if (existing) {
+                    index.renew(target);
+                } else {
+                    Files.createDirectories(target.getParent());
+                    Path tmp = target.resolveSibling(blob + "." + UUID.randomUUID() + ".tmp");
+                    long written;
+                    try (InputStream in = file.getInputStream()) {
+                        written = Files.copy(in, tmp);
+                    }
+                    // едновременни качвания на едно и също съдържание пишат идентични байтове
+                    Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                    metrics.bytesWritten("original", written, start);
+                    index.add(target, written);
+                }
+                refs.add(filename, relative);
+            }
+            metrics.deduplication(existing);
+            return new StoredFile(target, filename, "uploads/" + relative,
+                    CompletableFuture.completedFuture(target), hash);
         } catch (IOException e) {
             throw new StorageException("Failed to store file", e);
         }
     }
+    /**
+     * Вече качен оригинал по SHA-256 на съдържанието - за повторно пускане без ново качване и хеширане.
+     * Празно, ако hash-ът е невалиден или blob-ът е изтрит от retention. Под заключването на blob-а
+     * срокът му се подновява, за да не бъде изтрит между намирането и прочитането.
+     */
+    public Optional<StoredFile> findOriginal(String contentHash) {
+        if (contentHash == null || !contentHash.matches("[0-9a-f]{64}")) return Optional.empty();
+        Path shard = rootDir.resolve(blobShard(contentHash));
+        if (!Files.isDirectory(shard)) return Optional.empty();
+        try (Stream<Path> files = Files.list(shard)) {
+            return files.filter(p -> isBlobOf(p.getFileName().toString(), contentHash))
+                    .findFirst()
+                    .flatMap(target -> {
+                        synchronized (lockFor(target)) {
+                            if (!Files.isRegularFile(target)) return Optional.empty();
+                            index.renew(target);
+                        }
+                        String relative = blobShard(contentHash) + "/" + target.getFileName();
+                        return Optional.of(new StoredFile(target, target.getFileName().toString(),
+                                "uploads/" + relative, CompletableFuture.completedFuture(target), contentHash));
+                    });
+        } catch (IOException e) {
+            throw new StorageException("Failed to look up original " + contentHash, e);
+        }
+    }
+
+    /** SHA-256 (hex) на качването, без запис - същият ключ, който {@link #store} дава на оригинала. */
+    public static String contentHash(MultipartFile file) throws IOException {
+        try (InputStream in = file.getInputStream()) {
+            return sha256(in);
+        }
+    }
+
+    private static boolean isBlobOf(String name, String hash) {
+        return name.startsWith(hash) && !name.endsWith(".tmp") && BLOB_NAME.matcher(name).matches();
+    }
+
+    /** Оригинал по името на качването, ако blob-ът още съществува. */
+    public Optional<Path> resolveOriginal(String filename) {
+        return Optional.ofNullable(refs.get(filename))
+                .map(rootDir::resolve)
+                .filter(Files::isRegularFile);
+    }
+    private static String sha256(InputStream in) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+        byte[] buffer = new byte[64 * 1024];
+        int n;
+        while ((n = in.read(buffer)) > 0) digest.update(buffer, 0, n);
+        return HexFormat.of().formatHex(digest.digest());
+    }
+    private static String extension(String name) {
+        int dot = name.lastIndexOf('.');
+        String ext = dot < 0 ? "" : name.substring(dot + 1).toLowerCase(Locale.ROOT);
+        return ext.matches("[a-z0-9]{1,5}") ? "." + ext : "";
+    }
+    /** При blob-овете самият hash е равномерно разпределен - ползваме първите му символи. */
+    private static String blobShard(String hash) {
+        return hash.substring(0, 2) + "/" + hash.substring(2, 4);
+    }
+    /** Синхронен вариант: връща се след като файлът е записан. */
     public StoredFile storeResultImage(byte[] pngBytes) {
-        String filename = DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss_SSS").format(LocalDateTime.now()) + "_result.png";
-        Path target = rootDir.resolve(filename);
+        StoredFile stored = storeResultImageAsync(pngBytes);
+        try {
+            stored.durable().join();
+            return stored;
+        } catch (CompletionException e) {
+            throw new StorageException("Failed to store result image", e.getCause());
+        }
+    }
+    /**
+     * Write-behind: резултатът получава уникално име веднага, байтовете се държат в паметта
+     * и се записват от I/O пула извън нишката на заявката.
+     * Ако I/O пулът е на лимита си, записът става синхронно в извикващата нишка (обратен натиск).
+     */
+    public StoredFile storeResultImageAsync(byte[] pngBytes) {
+        String id = UUID.randomUUID().toString().replace("-", "");
+        String filename = TIMESTAMP.format(LocalDateTime.now()) + "_" + id + "_result.png";
+        Path target = rootDir.resolve(shard(filename)).resolve(filename);
+        pending.put(filename, pngBytes);
+        CompletableFuture<Path> durable;
         try {
-            Files.write(target, pngBytes);
-            return new StoredFile(target, filename, "uploads/" + filename);
+            durable = CompletableFuture.supplyAsync(() -> flush(target, pngBytes), ioExecutor);
+        } catch (RejectedExecutionException e) {
+            durable = new CompletableFuture<>();
+            try {
+                durable.complete(flush(target, pngBytes));
+            } catch (StorageException error) {
+                durable.completeExceptionally(error);
+            }
+        }
+        CompletableFuture<Path> tracked = durable;
+        flushing.add(tracked);
+        durable.whenComplete((path, error) -> {
+            if (error == null) hotCache.put(filename, pngBytes);
+            pending.remove(filename);
+            flushing.remove(tracked);
+            if (error != null) log.error("Failed to flush result image {}", filename, error);
+        });
+        return new StoredFile(target, filename, "results/" + filename, durable, null);
+    }
+    private Path flush(Path target, byte[] bytes) {
+        long start = System.nanoTime();
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(target.getParent());
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                while (buffer.hasRemaining()) channel.write(buffer);
+                if (fsync) channel.force(true);
+            }
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+            metrics.bytesWritten("result", bytes.length, start);
+            index.add(target, bytes.length);
+            return target;
         } catch (IOException e) {
-            throw new StorageException("Failed to store result image", e);
+            throw new StorageException("Failed to store result image " + target.getFileName(), e);
+        }
+    }
+    /** Байтовете на резултат, който все още чака запис. */
+    public Optional<byte[]> pendingResult(String filename) {
+        return Optional.ofNullable(pending.get(filename));
+    }
+    /** Байтовете на резултат от паметта: чакащ запис или наскоро записан (hot cache). */
+    public Optional<byte[]> cachedResult(String filename) {
+        byte[] bytes = pending.get(filename);
+        return Optional.ofNullable(bytes != null ? bytes : hotCache.get(filename));
+    }
+    public boolean isDurable(String filename) {
+        return !pending.containsKey(filename) && Files.isRegularFile(resolveResult(filename));
+    }
+    /**
+     * Път към резултат по име; отказва имена, които могат да излязат извън папката.
+     * Файловете отпреди разпределянето по поддиректории се намират директно в root.
+     */
+    public Path resolveResult(String filename) {
+        if (filename == null || !SAFE_NAME.matcher(filename).matches() || filename.startsWith(".")) {
+            throw new StorageException("Invalid result name: " + filename);
+        }
+        Path sharded = rootDir.resolve(shard(filename)).resolve(filename);
+        Path legacy = rootDir.resolve(filename);
+        return !Files.exists(sharded) && Files.exists(legacy) ? legacy : sharded;
+    }
+    /**
+     * Път към оригинал по името на blob-а ({@code <sha256>.<ext>}); null при невалидно име.
+     */
+    public Path resolveBlob(String blob) {
+        if (blob == null || !BLOB_NAME.matcher(blob).matches()) return null;
+        return rootDir.resolve(blobShard(blob)).resolve(blob);
+    }
+    /**
+     * Изтрива файл от retention, ако не е бил сервиран или качен отново след notServedSince
+     * (проверява се под заключването на blob-а). Препратките към изтрит оригинал отпадат.
+     */
+    public boolean evict(StorageIndex.Entry entry, long notServedSince) throws IOException {
+        Path path = entry.path();
+        synchronized (lockFor(path)) {
+            StorageIndex.Entry current = index.get(path);
+            if (current == null || current.lastAccessMillis() >= notServedSince) return false;
+            Files.deleteIfExists(path);
+            index.remove(path);
+            refs.removeBlob(rootDir.relativize(path).toString().replace('\\', '/'));
+            return true;
+        }
+    }
+    private Object lockFor(Path path) {
+        return blobLocks[Math.floorMod(path.hashCode(), blobLocks.length)];
+    }
+    /** Отбелязва сервиране на файл, за да не бъде изтрит като отдавна неизползван. */
+    public void touch(Path path) {
+        index.touch(path.toAbsolutePath().normalize());
+    }
+    public Path rootDir() {
+        return rootDir;
+    }
+    public StorageIndex index() {
+        return index;
+    }
+    /**
+     * Два нива поддиректории (256 x 256) според CRC32 на името,
+     * за да няма милиони файлове в една директория.
+     */
+    static String shard(String filename) {
+        CRC32 crc = new CRC32();
+        crc.update(filename.getBytes(StandardCharsets.UTF_8));
+        String hex = String.format("%08x", crc.getValue());
+        return hex.substring(0, 2) + "/" + hex.substring(2, 4);
+    }
+    @PreDestroy
+    public void shutdown() {
+        try {
+            CompletableFuture.allOf(flushing.toArray(CompletableFuture[]::new)).get(30, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            log.warn("Storage writes did not drain; {} results not flushed", pending.size());
+        } catch (ExecutionException e) {
+            // грешките вече са логнати от всеки запис
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
+        if (ownedExecutor != null) ownedExecutor.shutdown();
     }
-}
\ No newline at end of file
+}
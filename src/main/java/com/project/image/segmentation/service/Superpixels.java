@@ -0,0 +1,180 @@
+package com.project.image.segmentation.service;
+
+import java.util.stream.IntStream;
+
+/**
+ * SLIC суперпиксели върху Lab равнините: решетка със стъпка S, центрове в (L, a, b, x, y) и локален
+ * k-means, при който всеки пиксел се сравнява само с центровете от най-близките 2x2 клетки.
+ * Присвояването върви паралелно по редове клетки - редът пише само своите пиксели, а сумите за
+ * центровете от съседните три реда клетки натрупва в собствени масиви, които се сливат накрая.
+ * Стъпката за свързаност от оригиналния алгоритъм липсва - суперпикселите тук са само единици
+ * за клъстериране и маската пак се довършва попикселно.
+ */
+final class Superpixels {
+
+    /** labels[i] - суперпиксел на пиксела (масивът е подаденият буфер); means - средният Lab на всеки от count-те. */
+    record Result(int[] labels, int count, KMeans.Planes means) {}
+
+    private Superpixels() {
+    }
+
+    /**
+     * @param target      желан брой суперпиксели (стъпката е sqrt(n / target), поне 4 пиксела)
+     * @param compactness тежест на разстоянието в равнината спрямо Lab; по-голяма дава по-квадратни клетки
+     * @param labels      буфер с дължина поне w * h за етикетите
+     */
+    static Result compute(KMeans.Planes lab, int w, int h, int target, int iterations, float compactness,
+                          int[] labels) {
+        final int n = w * h;
+        final int step = Math.max(4, (int) Math.round(Math.sqrt((double) n / target)));
+        final int gx = (w + step - 1) / step, gy = (h + step - 1) / step, k = gx * gy;
+        final float[] L = lab.l(), A = lab.a(), B = lab.b();
+
+        float[] cL = new float[k], cA = new float[k], cB = new float[k], cX = new float[k], cY = new float[k];
+        final float[][] centroids = {cL, cA, cB, cX, cY};
+        for (int cy = 0; cy < gy; cy++) {
+            for (int cx = 0; cx < gx; cx++) {
+                int c = cy * gx + cx;
+                int x = Math.min(w - 1, cx * step + step / 2), y = Math.min(h - 1, cy * step + step / 2);
+                cL[c] = L[y * w + x]; cA[c] = A[y * w + x]; cB[c] = B[y * w + x];
+                cX[c] = x; cY[c] = y;
+            }
+        }
+
+        final float spatial = (compactness / step) * (compactness / step);
+        int[] sizes = new int[k];
+
+        for (int it = 0; it < iterations; it++) {
+            double[][] partialSums = new double[gy][];
+            int[][] partialSizes = new int[gy][];
+            IntStream.range(0, gy).parallel().forEach(cy -> {
+                int first = Math.max(0, cy - 1) * gx;
+                int centers = (Math.min(gy - 1, cy + 1) + 1) * gx - first;
+                double[] sum = new double[centers * 5];
+                int[] size = new int[centers];
+                assignCellRow(cy, L, A, B, w, h, step, gx, gy, centroids, spatial, labels, first, sum, size);
+                partialSums[cy] = sum;
+                partialSizes[cy] = size;
+            });
+
+            double[] total = new double[k * 5];
+            sizes = new int[k];
+            for (int cy = 0; cy < gy; cy++) {
+                int first = Math.max(0, cy - 1) * gx;
+                double[] sum = partialSums[cy];
+                int[] size = partialSizes[cy];
+                for (int j = 0; j < size.length; j++) {
+                    sizes[first + j] += size[j];
+                    for (int m = 0; m < 5; m++) total[5 * (first + j) + m] += sum[5 * j + m];
+                }
+            }
+            for (int c = 0; c < k; c++) {
+                if (sizes[c] == 0) continue;
+                cL[c] = (float) (total[5 * c] / sizes[c]);
+                cA[c] = (float) (total[5 * c + 1] / sizes[c]);
+                cB[c] = (float) (total[5 * c + 2] / sizes[c]);
+                cX[c] = (float) (total[5 * c + 3] / sizes[c]);
+                cY[c] = (float) (total[5 * c + 4] / sizes[c]);
+            }
+        }
+
+        // празните суперпиксели отпадат, за да не участват в k-means със стари центрове
+        int[] remap = new int[k];
+        int count = 0;
+        for (int c = 0; c < k; c++) remap[c] = sizes[c] > 0 ? count++ : -1;
+        float[] mL = new float[count], mA = new float[count], mB = new float[count];
+        for (int c = 0; c < k; c++) {
+            int r = remap[c];
+            if (r < 0) continue;
+            mL[r] = cL[c]; mA[r] = cA[c]; mB[r] = cB[c];
+        }
+        if (count < k) {
+            IntStream.range(0, h).parallel().forEach(y -> {
+                for (int i = y * w, end = i + w; i < end; i++) labels[i] = remap[labels[i]];
+            });
+        }
+        return new Result(labels, count, new KMeans.Planes(mL, mA, mB));
+    }
+
+    /**
+     * Присвояване за един ред клетки. Пикселът гледа само 2x2 клетки - своята и съседите откъм
+     * по-близките му страни; центровете рядко се отместват с повече от половин стъпка, а това
+     * е 4 вместо 9 разстояния на пиксел. Редът се обхожда на отсечки от по половин клетка, в които
+     * четирите кандидата са едни и същи и стоят в локални променливи (по края кандидатите се повтарят).
+     * Сумите отиват в sum/size с индекс center - first.
+     */
+    private static void assignCellRow(int cy, float[] L, float[] A, float[] B, int w, int h, int step,
+                                      int gx, int gy, float[][] centroids, float spatial,
+                                      int[] labels, int first, double[] sum, int[] size) {
+        int half = step / 2;
+        int[] cand = new int[4];
+        float[] cl = new float[4], ca = new float[4], cb = new float[4], cx = new float[4], cyy = new float[4];
+        for (int y = cy * step, yEnd = Math.min(h, y + step); y < yEnd; y++) {
+            int ny1 = Math.max(0, Math.min(gy - 1, y - cy * step < half ? cy - 1 : cy + 1));
+            for (int col = 0; col < gx; col++) {
+                for (int side = 0; side < 2; side++) {
+                    int xFrom = col * step + side * half;
+                    int xTo = Math.min(w, side == 0 ? xFrom + half : (col + 1) * step);
+                    if (xFrom >= xTo) continue;
+                    int nx1 = Math.max(0, Math.min(gx - 1, side == 0 ? col - 1 : col + 1));
+                    cand[0] = cy * gx + col; cand[1] = cy * gx + nx1;
+                    cand[2] = ny1 * gx + col; cand[3] = ny1 * gx + nx1;
+                    for (int q = 0; q < 4; q++) {
+                        int c = cand[q];
+                        cl[q] = centroids[0][c]; ca[q] = centroids[1][c]; cb[q] = centroids[2][c];
+                        cx[q] = centroids[3][c]; cyy[q] = centroids[4][c];
+                    }
+                    assignSegment(L, A, B, y * w, xFrom, xTo, y, cand, cl, ca, cb, cx, cyy, spatial,
+                            labels, first, sum, size);
+                }
+            }
+        }
+    }
+
+    private static void assignSegment(float[] L, float[] A, float[] B, int rowStart, int xFrom, int xTo, int y,
+                                      int[] cand, float[] cl, float[] ca, float[] cb, float[] cx, float[] cy,
+                                      float spatial, int[] labels, int first, double[] sum, int[] size) {
+        float l0 = cl[0], a0 = ca[0], b0 = cb[0], x0 = cx[0], dy0 = spatial * (y - cy[0]) * (y - cy[0]);
+        float l1 = cl[1], a1 = ca[1], b1 = cb[1], x1 = cx[1], dy1 = spatial * (y - cy[1]) * (y - cy[1]);
+        float l2 = cl[2], a2 = ca[2], b2 = cb[2], x2 = cx[2], dy2 = spatial * (y - cy[2]) * (y - cy[2]);
+        float l3 = cl[3], a3 = ca[3], b3 = cb[3], x3 = cx[3], dy3 = spatial * (y - cy[3]) * (y - cy[3]);
+        // пикселите подред обикновено са в един суперпиксел - сумите се трупат локално до смяна
+        int run = -1, runSize = 0;
+        double sl = 0, sa = 0, sb = 0, sx = 0;
+        for (int x = xFrom; x < xTo; x++) {
+            int i = rowStart + x;
+            float l = L[i], a = A[i], b = B[i];
+            float d0 = KMeans.dist2(l, a, b, l0, a0, b0) + spatial * (x - x0) * (x - x0) + dy0;
+            float d1 = KMeans.dist2(l, a, b, l1, a1, b1) + spatial * (x - x1) * (x - x1) + dy1;
+            float d2 = KMeans.dist2(l, a, b, l2, a2, b2) + spatial * (x - x2) * (x - x2) + dy2;
+            float d3 = KMeans.dist2(l, a, b, l3, a3, b3) + spatial * (x - x3) * (x - x3) + dy3;
+            int q = 0;
+            float best = d0;
+            if (d1 < best) { best = d1; q = 1; }
+            if (d2 < best) { best = d2; q = 2; }
+            if (d3 < best) { q = 3; }
+
+            int c = cand[q];
+            labels[i] = c;
+            if (c != run) {
+                if (runSize > 0) flush(run - first, sl, sa, sb, sx, y, runSize, sum, size);
+                run = c;
+                runSize = 0;
+                sl = sa = sb = sx = 0;
+            }
+            sl += l; sa += a; sb += b; sx += x;
+            runSize++;
+        }
+        if (runSize > 0) flush(run - first, sl, sa, sb, sx, y, runSize, sum, size);
+    }
+
+    private static void flush(int j, double sl, double sa, double sb, double sx, int y, int count,
+                              double[] sum, int[] size) {
+        sum[5 * j] += sl;
+        sum[5 * j + 1] += sa;
+        sum[5 * j + 2] += sb;
+        sum[5 * j + 3] += sx;
+        sum[5 * j + 4] += (double) y * count;
+        size[j] += count;
+    }
+}
@@ -0,0 +1,193 @@
+package com.project.image.segmentation.service;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Ядрата с Vector API: по SPECIES_PREFERRED пиксела наведнъж (8 при AVX2, 16 при AVX-512).
+ * Клоновете на пиксел са заменени с маски и blend; опашката под една ширина минава скаларно.
+ * Lab се смята във float (разлика от скаларния double вариант под 1e-3), останалите ядра
+ * дават същите резултати като {@link ScalarKernels}; яркостта и смесването са в цели числа,
+ * защото int<->float преобразуванията не се векторизират ефективно. Зарежда се само през {@link PixelKernels#best()}.
+ */
+final class VectorKernels implements PixelKernels {
+    private static final VectorSpecies<Float> FS = FloatVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Integer> IS = IntVector.SPECIES_PREFERRED;
+
+    private static final float[] LINEAR = new float[256];
+    static {
+        for (int v = 0; v < 256; v++) LINEAR[v] = (float) ScalarKernels.LINEAR[v];
+    }
+
+    private static final float EPSILON = (float) ScalarKernels.EPSILON;
+    private static final float INV_KAPPA = (float) (1.0 / ScalarKernels.KAPPA);
+    private static final float OFFSET = 4f / 29f;
+    private static final float INV_XN = (float) (1.0 / ScalarKernels.XN);
+    private static final float INV_ZN = (float) (1.0 / ScalarKernels.ZN);
+
+    private static final int BLOCK = 1024;
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    VectorKernels() {
+        if (FS.length() != IS.length()) {
+            throw new IllegalStateException("Float and int species differ in lane count");
+        }
+    }
+
+    @Override
+    public void toLab(int[] argb, int count, float[] L, float[] A, float[] B, int offset, int[] histogram) {
+        int bound = FS.loopBound(count);
+        Scratch s = SCRATCH.get();
+        // на блокове: XYZ в буфера, после f() и Lab направо в изхода. Цялото в един цикъл не се
+        // инлайнва и векторите се боксират (~36 B/px); двата малки цикъла не заделят нищо
+        for (int start = 0; start < bound; start += BLOCK) {
+            int end = Math.min(start + BLOCK, bound);
+            toXyz(argb, start, end, s, histogram);
+            xyzToLab(s, end - start, L, A, B, offset + start);
+        }
+        ScalarKernels.toLab(argb, bound, count, L, A, B, offset, histogram);
+    }
+
+    private static void toXyz(int[] argb, int start, int end, Scratch s, int[] histogram) {
+        int lanes = FS.length();
+        int[] index = s.index;
+        for (int i = start, j = 0; i < end; i += lanes, j += lanes) {
+            IntVector p = IntVector.fromArray(IS, argb, i);
+            IntVector r8 = p.lanewise(VectorOperators.LSHR, 16).and(0xFF);
+            IntVector g8 = p.lanewise(VectorOperators.LSHR, 8).and(0xFF);
+            IntVector b8 = p.and(0xFF);
+
+            r8.intoArray(index, 0);
+            FloatVector r = FloatVector.fromArray(FS, LINEAR, 0, index, 0);
+            g8.intoArray(index, 0);
+            FloatVector g = FloatVector.fromArray(FS, LINEAR, 0, index, 0);
+            b8.intoArray(index, 0);
+            FloatVector b = FloatVector.fromArray(FS, LINEAR, 0, index, 0);
+
+            r.mul(0.4124564f).add(g.mul(0.3575761f)).add(b.mul(0.1804375f)).mul(INV_XN).intoArray(s.x, j);
+            r.mul(0.2126729f).add(g.mul(0.7151522f)).add(b.mul(0.0721750f)).intoArray(s.y, j);
+            r.mul(0.0193339f).add(g.mul(0.1191920f)).add(b.mul(0.9503041f)).mul(INV_ZN).intoArray(s.z, j);
+
+            // хистограмата е scatter - той остава скаларен
+            r8.mul(13933).add(g8.mul(46871)).add(b8.mul(4732)).add(32768)
+                    .lanewise(VectorOperators.ASHR, 16).intoArray(index, 0);
+            for (int k = 0; k < lanes; k++) histogram[index[k]]++;
+        }
+    }
+
+    private static void xyzToLab(Scratch s, int n, float[] L, float[] A, float[] B, int offset) {
+        int lanes = FS.length();
+        for (int j = 0; j < n; j += lanes) {
+            FloatVector x = FloatVector.fromArray(FS, s.x, j);
+            FloatVector y = FloatVector.fromArray(FS, s.y, j);
+            FloatVector z = FloatVector.fromArray(FS, s.z, j);
+            FloatVector fx = x.mul(INV_KAPPA).add(OFFSET)
+                    .blend(x.lanewise(VectorOperators.CBRT), x.compare(VectorOperators.GT, EPSILON));
+            FloatVector fy = y.mul(INV_KAPPA).add(OFFSET)
+                    .blend(y.lanewise(VectorOperators.CBRT), y.compare(VectorOperators.GT, EPSILON));
+            FloatVector fz = z.mul(INV_KAPPA).add(OFFSET)
+                    .blend(z.lanewise(VectorOperators.CBRT), z.compare(VectorOperators.GT, EPSILON));
+
+            int o = offset + j;
+            fy.mul(116f).sub(16f).intoArray(L, o);
+            fx.sub(fy).mul(500f).intoArray(A, o);
+            fy.sub(fz).mul(200f).intoArray(B, o);
+        }
+    }
+
+    /** Буфер на нишка за един блок XYZ; кратен на ширината на вектора. */
+    private static final class Scratch {
+        final float[] x = new float[BLOCK], y = new float[BLOCK], z = new float[BLOCK];
+        final int[] index = new int[FS.length()];
+    }
+
+    @Override
+    public boolean assign(float[] L, float[] A, float[] B, int n, float[] cent, int k, int[] assign) {
+        int lanes = FS.length();
+        int bound = FS.loopBound(n);
+        boolean changed = false;
+        int i = 0;
+        for (; i < bound; i += lanes) {
+            FloatVector l = FloatVector.fromArray(FS, L, i);
+            FloatVector a = FloatVector.fromArray(FS, A, i);
+            FloatVector b = FloatVector.fromArray(FS, B, i);
+
+            FloatVector bestD = dist2(l, a, b, cent[0], cent[1], cent[2]);
+            IntVector best = IntVector.zero(IS);
+            for (int c = 1; c < k; c++) {
+                FloatVector d = dist2(l, a, b, cent[3 * c], cent[3 * c + 1], cent[3 * c + 2]);
+                VectorMask<Float> closer = d.compare(VectorOperators.LT, bestD);
+                bestD = bestD.blend(d, closer);
+                best = best.blend(c, closer.cast(IS));
+            }
+
+            IntVector previous = IntVector.fromArray(IS, assign, i);
+            if (previous.compare(VectorOperators.NE, best).anyTrue()) {
+                best.intoArray(assign, i);
+                changed = true;
+            }
+        }
+        for (; i < n; i++) {
+            float l = L[i], a = A[i], b = B[i];
+            int best = 0;
+            float bestD = KMeans.dist2(l, a, b, cent[0], cent[1], cent[2]);
+            for (int c = 1; c < k; c++) {
+                float d = KMeans.dist2(l, a, b, cent[3 * c], cent[3 * c + 1], cent[3 * c + 2]);
+                if (d < bestD) {
+                    bestD = d;
+                    best = c;
+                }
+            }
+            if (assign[i] != best) {
+                assign[i] = best;
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    private static FloatVector dist2(FloatVector l, FloatVector a, FloatVector b, float cl, float ca, float cb) {
+        FloatVector dl = l.sub(cl), da = a.sub(ca), db = b.sub(cb);
+        return dl.mul(dl).add(da.mul(da)).add(db.mul(db));
+    }
+
+    @Override
+    public void blend(int[] argb, boolean[] mask, int tintRgb, float alpha) {
+        int weight = ScalarKernels.blendWeight(alpha), keep = 256 - weight;
+        int tr = weight * ((tintRgb >> 16) & 0xFF) + 128;
+        int tg = weight * ((tintRgb >> 8) & 0xFF) + 128;
+        int tb = weight * (tintRgb & 0xFF) + 128;
+        int lanes = IS.length();
+        int bound = IS.loopBound(argb.length);
+        int i = 0;
+        for (; i < bound; i += lanes) {
+            VectorMask<Integer> m = VectorMask.fromArray(IS, mask, i);
+            if (!m.anyTrue()) continue;
+            IntVector p = IntVector.fromArray(IS, argb, i);
+            IntVector r = p.lanewise(VectorOperators.LSHR, 16).and(0xFF).mul(keep).add(tr)
+                    .lanewise(VectorOperators.ASHR, 8);
+            IntVector g = p.lanewise(VectorOperators.LSHR, 8).and(0xFF).mul(keep).add(tg)
+                    .lanewise(VectorOperators.ASHR, 8);
+            IntVector b = p.and(0xFF).mul(keep).add(tb).lanewise(VectorOperators.ASHR, 8);
+            IntVector out = r.lanewise(VectorOperators.LSHL, 16)
+                    .or(g.lanewise(VectorOperators.LSHL, 8)).or(b).or(0xFF000000);
+            p.blend(out, m).intoArray(argb, i);
+        }
+        for (; i < argb.length; i++) {
+            if (!mask[i]) continue;
+            int p = argb[i];
+            int r = (tr + keep * ((p >> 16) & 0xFF)) >> 8;
+            int g = (tg + keep * ((p >> 8) & 0xFF)) >> 8;
+            int b = (tb + keep * (p & 0xFF)) >> 8;
+            argb[i] = 0xFF000000 | (r << 16) | (g << 8) | b;
+        }
+    }
+
+    @Override
+    public String name() {
+        return "vector (" + FS.length() + " lanes, " + FS.vectorBitSize() + " bit)";
+    }
+}
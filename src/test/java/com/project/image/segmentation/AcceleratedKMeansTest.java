@@ -0,0 +1,39 @@
+package com.project.image.segmentation;
+
+import com.project.image.segmentation.DTOs.SegmentationOptions;
+import com.project.image.segmentation.DTOs.SegmentationResult;
+import com.project.image.segmentation.service.SegmentationMetrics;
+import com.project.image.segmentation.service.SegmentationService;
+import com.project.image.segmentation.service.SegmentationSettings;
+import com.project.image.segmentation.service.SegmentationService.KMeansAlgorithm;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+
+import static com.project.image.segmentation.TestImages.iou;
+import static com.project.image.segmentation.TestImages.noisyObjects;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AcceleratedKMeansTest {
+
+    @Test
+    void accelerated_matchesLloydMaskAndSkipsDistances() {
+        BufferedImage img = noisyObjects(320, 240);
+        SegmentationOptions options = SegmentationOptions.defaults(50).withRenderImages(false);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+        SegmentationResult lloyd = new SegmentationService(SegmentationMetrics.standalone(),
+                SegmentationSettings.defaults().withKmeans(KMeansAlgorithm.LLOYD))
+                .segment(img, options);
+        SegmentationResult fast = new SegmentationService(new SegmentationMetrics(registry),
+                SegmentationSettings.defaults().withKmeans(KMeansAlgorithm.ACCELERATED))
+                .segment(img, options);
+
+        assertThat(iou(lloyd.objectMask(), fast.objectMask())).isGreaterThan(0.98);
+        assertThat(fast.clusterModel().iterations()).isLessThanOrEqualTo(15);
+        double skipped = registry.find("segmentation.kmeans.skipped.ratio")
+                .tag("algorithm", "accelerated").summary().max();
+        assertThat(skipped).isGreaterThan(0.3);
+    }
+}
@@ -0,0 +1,141 @@
+package com.project.image.segmentation;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.project.image.segmentation.service.BatchSegmentationService;
+import com.project.image.segmentation.service.ExecutionPools;
+import com.project.image.segmentation.service.ImageLoadingService;
+import com.project.image.segmentation.service.MemoryAdmissionService;
+import com.project.image.segmentation.service.SegmentationMetrics;
+import com.project.image.segmentation.service.SegmentationEngine;
+import com.project.image.segmentation.service.SegmentationService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import javax.imageio.ImageIO;
+
+import static com.project.image.segmentation.TestImages.png;
+import static com.project.image.segmentation.TestImages.unzip;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BatchSegmentationServiceTest {
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final ExecutionPools pools = ExecutionPools.standalone(SegmentationMetrics.standalone());
+    private final BatchSegmentationService batch = new BatchSegmentationService(
+            new SegmentationService(), new ImageLoadingService(),
+            new MemoryAdmissionService(256, 1000, SegmentationMetrics.standalone()),
+            mapper, pools, 2, 1024 * 1024);
+
+    @AfterEach
+    void tearDown() {
+        pools.shutdown();
+    }
+
+    @Test
+    void processZip_streamsMasksAndSummaries() throws Exception {
+        ByteArrayOutputStream zipBytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zout = new ZipOutputStream(zipBytes)) {
+            put(zout, "catalogue/a.png", png(darkSquares()));
+            put(zout, "catalogue/b.png", png(darkSquares()));
+            put(zout, "catalogue/broken.png", new byte[]{1, 2, 3});
+            put(zout, "__MACOSX/catalogue/._a.png", new byte[]{0});
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int processed = batch.processZip(new ByteArrayInputStream(zipBytes.toByteArray()), 50, out);
+
+        Map<String, byte[]> entries = unzip(out.toByteArray());
+        assertThat(processed).isEqualTo(3);
+        assertThat(entries.keySet()).filteredOn(n -> n.startsWith("summaries/")).hasSize(3);
+        assertThat(entries.keySet()).filteredOn(n -> n.startsWith("masks/")).hasSize(2);
+
+        JsonNode broken = mapper.readTree(entries.get("summaries/00003_broken.json"));
+        assertThat(broken.get("status").asText()).isEqualTo("error");
+        JsonNode ok = mapper.readTree(entries.get("summaries/00001_a.json"));
+        assertThat(ok.get("status").asText()).isEqualTo("ok");
+        assertThat(ok.get("mask").asText()).isEqualTo("masks/00001_a.png");
+    }
+
+    @Test
+    void processFiles_recordsInvalidAndFailingPartsPerEntry() throws Exception {
+        MockMultipartFile good = new MockMultipartFile("files", "a.png", "image/png", png(darkSquares()));
+        MockMultipartFile text = new MockMultipartFile("files", "notes.txt", "text/plain", new byte[]{1, 2, 3});
+        // неочаквана RuntimeException при четенето не трябва да прекъсва архива
+        MockMultipartFile exploding = new MockMultipartFile("files", "c.png", "image/png", png(darkSquares())) {
+            @Override
+            public InputStream getInputStream() {
+                throw new IllegalStateException("decoder blew up");
+            }
+        };
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int processed = batch.processFiles(List.of(good, text, exploding), 50, out);
+
+        Map<String, byte[]> entries = unzip(out.toByteArray());
+        assertThat(processed).isEqualTo(3);
+        assertThat(entries).containsKeys("masks/00001_a.png", "summaries/00002_notes.json", "summaries/00003_c.json");
+        assertThat(entries.keySet()).filteredOn(n -> n.startsWith("masks/")).hasSize(1);
+        assertThat(mapper.readTree(entries.get("summaries/00002_notes.json")).get("status").asText()).isEqualTo("error");
+        assertThat(mapper.readTree(entries.get("summaries/00003_c.json")).get("error").asText())
+                .contains("decoder blew up");
+        assertThat(ImageIO.read(new ByteArrayInputStream(entries.get("masks/00001_a.png"))).getWidth()).isEqualTo(120);
+    }
+
+    @Test
+    void processFiles_reservesMemoryOnTheSubmittingThreadNotOnCpuWorkers() throws Exception {
+        List<String> reservingThreads = new CopyOnWriteArrayList<>();
+        // бюджет за едно изображение наведнъж: следващото чака в подаващата нишка, докато предишното свърши
+        MemoryAdmissionService admission = new MemoryAdmissionService(1, 30_000, SegmentationMetrics.standalone()) {
+            @Override
+            public Reservation reserve(int width, int height, Collection<SegmentationEngine> engines) {
+                reservingThreads.add(Thread.currentThread().getName());
+                return super.reserve(width, height, engines);
+            }
+        };
+        BatchSegmentationService oneAtATime = new BatchSegmentationService(new SegmentationService(),
+                new ImageLoadingService(), admission, mapper, pools, 4, 1024 * 1024);
+        List<MultipartFile> files = List.of(
+                new MockMultipartFile("files", "a.png", "image/png", png(darkSquares())),
+                new MockMultipartFile("files", "b.png", "image/png", png(darkSquares())),
+                new MockMultipartFile("files", "c.png", "image/png", png(darkSquares())));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        oneAtATime.processFiles(files, 50, out);
+
+        assertThat(reservingThreads).hasSize(3).allMatch(name -> name.equals(Thread.currentThread().getName()));
+        Map<String, byte[]> entries = unzip(out.toByteArray());
+        for (String name : List.of("00001_a", "00002_b", "00003_c")) {
+            assertThat(mapper.readTree(entries.get("summaries/" + name + ".json")).get("status").asText())
+                    .isEqualTo("ok");
+        }
+    }
+
+    private static BufferedImage darkSquares() {
+        BufferedImage img = new BufferedImage(120, 120, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = img.createGraphics();
+        g.setColor(Color.WHITE); g.fillRect(0, 0, 120, 120);
+        g.setColor(Color.DARK_GRAY); g.fillRect(20, 20, 30, 30);
+        g.setColor(Color.DARK_GRAY); g.fillRect(70, 60, 35, 40);
+        g.dispose();
+        return img;
+    }
+
+    private static void put(ZipOutputStream zout, String name, byte[] data) throws Exception {
+        zout.putNextEntry(new ZipEntry(name));
+        zout.write(data);
+        zout.closeEntry();
+    }
+}
@@ -0,0 +1,62 @@
+package com.project.image.segmentation;
+
+import com.project.image.segmentation.DTOs.SegmentationOptions;
+import com.project.image.segmentation.DTOs.SegmentationResult;
+import com.project.image.segmentation.service.SegmentationMetrics;
+import com.project.image.segmentation.service.SegmentationService;
+import com.project.image.segmentation.service.SegmentationSettings;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ClusterCountSelectionTest {
+
+    private static final SegmentationOptions OPTIONS = SegmentationOptions.defaults(50).withRenderImages(false);
+
+    @Test
+    void selectsClusterCountMatchingTheColours() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        SegmentationService service = service(registry, 2, 6);
+
+        assertThat(service.segment(blobs(new Color(30, 40, 140), new Color(140, 30, 30)), OPTIONS)
+                .clusterModel().k()).isEqualTo(3);
+        assertThat(service.segment(blobs(new Color(30, 40, 140), new Color(140, 30, 30),
+                new Color(20, 110, 40), new Color(200, 160, 20)), OPTIONS).clusterModel().k()).isEqualTo(5);
+        assertThat(registry.find("segmentation.kmeans.clusters").tag("selection", "auto").summary().count())
+                .isEqualTo(2);
+    }
+
+    @Test
+    void fixedRangeAndWarmStartKeepTheirK() {
+        BufferedImage img = blobs(new Color(30, 40, 140), new Color(140, 30, 30));
+        SegmentationResult fixed = service(new SimpleMeterRegistry(), 4, 4).segment(img, OPTIONS);
+        assertThat(fixed.clusterModel().k()).isEqualTo(4);
+
+        SegmentationResult warm = service(new SimpleMeterRegistry(), 2, 6)
+                .segment(img, OPTIONS.withWarmStart(fixed.clusterModel()));
+        assertThat(warm.clusterModel().k()).isEqualTo(4);
+    }
+
+    private static SegmentationService service(SimpleMeterRegistry registry, int minClusters, int maxClusters) {
+        return new SegmentationService(new SegmentationMetrics(registry), SegmentationSettings.defaults()
+                .withWorkspace(1_000_000, 1).withCompactLabMinPixels(Long.MAX_VALUE)
+                .withClusterRange(minClusters, maxClusters));
+    }
+
+    /** Светъл фон и по един правоъгълник от всеки цвят. */
+    private static BufferedImage blobs(Color... colours) {
+        BufferedImage img = new BufferedImage(400, 300, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = img.createGraphics();
+        g.setColor(new Color(235, 235, 230)); g.fillRect(0, 0, 400, 300);
+        for (int i = 0; i < colours.length; i++) {
+            g.setColor(colours[i]);
+            g.fillRect(30 + (i % 2) * 190, 30 + (i / 2) * 130, 150, 100);
+        }
+        g.dispose();
+        return img;
+    }
+}
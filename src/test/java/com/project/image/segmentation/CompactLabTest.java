@@ -0,0 +1,138 @@
+package com.project.image.segmentation;
+
+import com.project.image.segmentation.DTOs.SegmentationOptions;
+import com.project.image.segmentation.DTOs.SegmentationResult;
+import com.project.image.segmentation.service.SegmentationMetrics;
+import com.project.image.segmentation.service.SegmentationService;
+import com.project.image.segmentation.service.SegmentationSettings;
+import com.project.image.segmentation.service.SegmentationService.KMeansAlgorithm;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import static com.project.image.segmentation.TestImages.iou;
+import static com.project.image.segmentation.TestImages.noisyObjects;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CompactLabTest {
+
+    @Test
+    void compactLab_keepsClusterAssignmentsOfFloatPath() {
+        BufferedImage img = noisyObjects(320, 240);
+        SegmentationOptions options = SegmentationOptions.defaults(50).withRenderImages(false);
+
+        SegmentationResult exact = service(Long.MAX_VALUE, KMeansAlgorithm.LLOYD, SegmentationMetrics.standalone())
+                .segment(img, options);
+        SegmentationResult compact = service(0, KMeansAlgorithm.LLOYD, SegmentationMetrics.standalone())
+                .segment(img, options);
+
+        // индексите на клъстерите може да се разминат - съпоставят се по най-близък центроид
+        int k = exact.clusterModel().k();
+        float[] ce = exact.clusterModel().centroids(), cc = compact.clusterModel().centroids();
+        for (int c = 0; c < k; c++) {
+            int match = nearest(ce, k, cc[3 * c], cc[3 * c + 1], cc[3 * c + 2]);
+            assertThat(dist2(ce, match, cc[3 * c], cc[3 * c + 1], cc[3 * c + 2])).isLessThan(2f * 2f);
+        }
+
+        assertThat(labelDisagreement(exact.labels(), compact.labels())).isLessThan(0.01);
+        assertThat(iou(exact.objectMask(), compact.objectMask())).isGreaterThan(0.98);
+    }
+
+    @Test
+    void compactLab_isReportedAsLloydEvenWhenAcceleratedIsConfigured() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        service(0, KMeansAlgorithm.ACCELERATED, new SegmentationMetrics(registry))
+                .segment(noisyObjects(320, 240), SegmentationOptions.defaults(50).withRenderImages(false));
+
+        assertThat(registry.find("segmentation.kmeans.iterations").tag("algorithm", "lloyd").summary())
+                .isNotNull();
+        assertThat(registry.find("segmentation.kmeans.iterations").tag("algorithm", "accelerated").summary())
+                .isNull();
+    }
+
+    @Test
+    void compactLab_allocatesLessLabPerPixelThanFloat() throws Exception {
+        // еднократен workspace, както при настройките по подразбиране (compact от 8 MP, workspace до 4 MP):
+        // всяко извикване заделя Lab наново, затова наклонът на пиксел е цената на Lab
+        SegmentationSettings settings = SegmentationSettings.defaults()
+                .withKmeans(KMeansAlgorithm.LLOYD).withWorkspace(0, 1);
+        SegmentationService compact = new SegmentationService(SegmentationMetrics.standalone(),
+                settings.withCompactLabMinPixels(0));
+        SegmentationService exact = new SegmentationService(SegmentationMetrics.standalone(),
+                settings.withCompactLabMinPixels(Long.MAX_VALUE));
+
+        ForkJoinPool single = new ForkJoinPool(1);
+        try {
+            double compactPerPixel = single.submit(() -> perPixel(compact)).get();
+            double floatPerPixel = single.submit(() -> perPixel(exact)).get();
+
+            // 3 вместо 12 B/px; float Lab на ивици в пълен размер би направил compact по-скъп от float
+            assertThat(floatPerPixel - compactPerPixel).as("float %.1f B/px, compact %.1f B/px",
+                    floatPerPixel, compactPerPixel).isGreaterThan(8);
+        } finally {
+            single.shutdown();
+        }
+    }
+
+    /** Пределни байтове на пиксел между 320x240 и 640x480, в нишката на извикващия (ForkJoinPool(1)). */
+    private static double perPixel(SegmentationService service) {
+        SegmentationOptions options = SegmentationOptions.defaults(50).withRenderImages(false);
+        BufferedImage small = noisyObjects(320, 240), large = noisyObjects(640, 480);
+        for (int i = 0; i < 30; i++) {
+            service.segment(small, options);
+            service.segment(large, options);
+        }
+        long smallBytes = Long.MAX_VALUE, largeBytes = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            smallBytes = Math.min(smallBytes, allocatedBy(() -> service.segment(small, options)));
+            largeBytes = Math.min(largeBytes, allocatedBy(() -> service.segment(large, options)));
+        }
+        return (double) (largeBytes - smallBytes) / (640 * 480 - 320 * 240);
+    }
+
+    private static long allocatedBy(Runnable work) {
+        var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(thread);
+        work.run();
+        return threads.getThreadAllocatedBytes(thread) - before;
+    }
+
+    private static SegmentationService service(long compactLabMinPixels, KMeansAlgorithm algorithm,
+                                               SegmentationMetrics metrics) {
+        return new SegmentationService(metrics, SegmentationSettings.defaults()
+                .withKmeans(algorithm).withWorkspace(1_000_000, 1)
+                .withCompactLabMinPixels(compactLabMinPixels));
+    }
+
+    /**
+     * Дял на пикселите, чийто етикет не съвпада след съпоставяне: всеки етикет на a се свързва
+     * с най-честия етикет на b в същите пиксели, така че номерацията на регионите няма значение.
+     */
+    private static double labelDisagreement(int[] a, int[] b) {
+        Map<Long, Integer> pairs = new HashMap<>();
+        for (int i = 0; i < a.length; i++) pairs.merge(((long) a[i] << 32) | b[i], 1, Integer::sum);
+        Map<Integer, Integer> bestMatch = new HashMap<>();
+        pairs.forEach((pair, count) -> bestMatch.merge((int) (pair >>> 32), count, Math::max));
+        int agree = bestMatch.values().stream().mapToInt(Integer::intValue).sum();
+        return 1.0 - (double) agree / a.length;
+    }
+
+    private static int nearest(float[] cent, int k, float l, float a, float b) {
+        int best = 0;
+        for (int c = 1; c < k; c++) {
+            if (dist2(cent, c, l, a, b) < dist2(cent, best, l, a, b)) best = c;
+        }
+        return best;
+    }
+
+    private static float dist2(float[] cent, int c, float l, float a, float b) {
+        float dl = cent[3 * c] - l, da = cent[3 * c + 1] - a, db = cent[3 * c + 2] - b;
+        return dl * dl + da * da + db * db;
+    }
+}
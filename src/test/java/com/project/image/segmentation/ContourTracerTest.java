@@ -0,0 +1,85 @@
+package com.project.image.segmentation;
+
+import com.project.image.segmentation.DTOs.Contour;
+import com.project.image.segmentation.DTOs.SegmentationOptions;
+import com.project.image.segmentation.DTOs.SegmentationResult;
+import com.project.image.segmentation.service.ContourTracer;
+import com.project.image.segmentation.service.SegmentationService;
+import org.junit.jupiter.api.Test;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ContourTracerTest {
+
+    @Test
+    void trace_rectangleAndSinglePixel_simplifiedToCorners() {
+        int w = 40, h = 30;
+        boolean[] mask = new boolean[w * h];
+        fill(mask, w, 5, 4, 20, 12);
+        mask[25 * w + 35] = true;
+
+        List<Contour> contours = ContourTracer.trace(mask, w, h, ContourTracer.DEFAULT_EPSILON);
+
+        assertThat(contours).hasSize(2);
+        assertThat(contours.get(0).points()).containsExactly(5, 4, 24, 4, 24, 15, 5, 15);
+        assertThat(contours.get(1).points()).containsExactly(35, 25);
+    }
+
+    @Test
+    void trace_diagonalPinch_followsBothLobes() {
+        // два квадрата, допрени само по диагонал - една 8-свързана област
+        int w = 20, h = 20;
+        boolean[] mask = new boolean[w * h];
+        fill(mask, w, 2, 2, 5, 5);
+        fill(mask, w, 7, 7, 5, 5);
+
+        List<Contour> contours = ContourTracer.trace(mask, w, h, 0.0);
+
+        assertThat(contours).hasSize(1);
+        int[] p = contours.get(0).points();
+        int maxX = 0, maxY = 0;
+        for (int i = 0; i < p.length; i += 2) {
+            assertThat(mask[p[i + 1] * w + p[i]]).isTrue();
+            maxX = Math.max(maxX, p[i]);
+            maxY = Math.max(maxY, p[i + 1]);
+        }
+        assertThat(maxX).isEqualTo(11);
+        assertThat(maxY).isEqualTo(11);
+    }
+
+    @Test
+    void segment_withContours_outlinesEachObjectAndRendersSvg() {
+        BufferedImage img = new BufferedImage(300, 200, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = img.createGraphics();
+        g.setColor(new Color(240, 240, 240)); g.fillRect(0, 0, 300, 200);
+        g.setColor(new Color(30, 40, 140)); g.fillRect(20, 30, 60, 40);
+        g.setColor(new Color(140, 30, 30)); g.fillOval(150, 80, 100, 80);
+        g.dispose();
+
+        SegmentationService service = new SegmentationService();
+        SegmentationOptions options = SegmentationOptions.defaults(50).withRenderImages(false);
+        assertThat(service.segment(img, options).contours()).isNull();
+
+        SegmentationResult result = service.segment(img, options.withContours(true));
+        List<Contour> contours = result.contours();
+
+        assertThat(contours).hasSize(2);
+        assertThat(contours.get(0).vertexCount()).isEqualTo(4);
+        // елипсата остава гладка с малко върхове спрямо ~300-те гранични пиксела
+        assertThat(contours.get(1).vertexCount()).isBetween(12, 80);
+
+        String svg = ContourTracer.toSvg(contours, 300, 200);
+        assertThat(svg).startsWith("<svg").contains("viewBox=\"0 0 300 200\"")
+                .contains("M20 30L79 30L79 69L20 69Z");
+    }
+
+    private static void fill(boolean[] mask, int w, int x0, int y0, int width, int height) {
+        for (int y = y0; y < y0 + height; y++) {
+            for (int x = x0; x < x0 + width; x++) mask[y * w + x] = true;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.project.image.segmentation;
+
+import com.project.image.segmentation.exceptions.AdmissionRejectedException;
+import com.project.image.segmentation.service.ExecutionPools;
+import com.project.image.segmentation.service.SegmentationMetrics;
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ExecutionPoolsTest {
+
+    @Test
+    void onCpu_runsOnCpuThreadAndNestedCallsStayInline() throws Exception {
+        ExecutionPools pools = ExecutionPools.standalone(SegmentationMetrics.standalone());
+        try {
+            String thread = pools.onCpu(() -> Thread.currentThread().getName());
+            String nested = pools.onCpu(() -> pools.onCpu(() -> Thread.currentThread().getName()));
+
+            assertThat(thread).startsWith("cpu-");
+            assertThat(nested).startsWith("cpu-");
+            assertThatThrownBy(() -> pools.onCpu(() -> { throw new IllegalStateException("boom"); }))
+                    .isInstanceOf(IllegalStateException.class).hasMessage("boom");
+        } finally {
+            pools.shutdown();
+        }
+    }
+
+    @Test
+    void fullCpuQueue_rejectsWith503InsteadOfWaiting() throws Exception {
+        SegmentationMetrics metrics = SegmentationMetrics.standalone();
+        ExecutionPools pools = new ExecutionPools(1, 1, 2, 1, metrics);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            // една задача заема нишката, втора - единственото място в опашката
+            for (int i = 0; i < 2; i++) {
+                Thread client = new Thread(() -> {
+                    try {
+                        pools.onCpu(() -> release.await(10, TimeUnit.SECONDS));
+                    } catch (Exception ignored) {
+                    }
+                });
+                client.setDaemon(true);
+                client.start();
+            }
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (metrics.registry().get("executor.in.flight").tag("name", "cpu").gauge().value() < 2
+                    && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+
+            assertThatThrownBy(() -> pools.onCpu(() -> 1)).isInstanceOf(AdmissionRejectedException.class);
+            assertThat(metrics.registry().get("executor.rejected").tag("name", "cpu").counter().count())
+                    .isEqualTo(1.0);
+
+            // I/O: лимитът е за задачи в движение, без значение дали нишките са виртуални
+            pools.io().execute(() -> awaitQuietly(release));
+            pools.io().execute(() -> awaitQuietly(release));
+            assertThatThrownBy(() -> pools.io().execute(() -> {}))
+                    .isInstanceOf(RejectedExecutionException.class);
+            assertThat(metrics.registry().get("executor.in.flight").tag("name", "io").gauge().value())
+                    .isEqualTo(2.0);
+        } finally {
+            release.countDown();
+            pools.shutdown();
+        }
+    }
+
+    @Test
+    void parallelStreamsInCpuTasks_stayInCpuPoolAndBackgroundWorkWaits() throws Exception {
+        SegmentationMetrics metrics = SegmentationMetrics.standalone();
+        ExecutionPools pools = new ExecutionPools(2, 1, 2, 1, metrics);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            // лентите на сегментацията не излизат в общия ForkJoinPool
+            Set<String> threads = pools.onCpu(() -> IntStream.range(0, 256).parallel()
+                    .mapToObj(i -> Thread.currentThread().getName()).collect(Collectors.toSet()));
+            assertThat(threads).allMatch(name -> name.startsWith("cpu-"));
+
+            // трите места са заети: интерактивна заявка получава отказ, фоновата чака в подаващата нишка
+            for (int i = 0; i < 3; i++) pools.cpuBackground().execute(() -> awaitQuietly(release));
+            CompletableFuture<String> waiting = new CompletableFuture<>();
+            Thread submitter = new Thread(() -> pools.cpuBackground()
+                    .execute(() -> waiting.complete(Thread.currentThread().getName())));
+            submitter.setDaemon(true);
+            submitter.start();
+            assertThatThrownBy(() -> pools.onCpu(() -> 1)).isInstanceOf(AdmissionRejectedException.class);
+            Thread.sleep(100);
+            assertThat(waiting).isNotDone();
+
+            release.countDown();
+            assertThat(waiting.get(5, TimeUnit.SECONDS)).startsWith("cpu-");
+        } finally {
+            release.countDown();
+            pools.shutdown();
+        }
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,291 @@
+package com.project.image.segmentation;
+
+import com.project.image.segmentation.DTOs.SegmentationOptions;
+import com.project.image.segmentation.DTOs.SegmentationResult;
+import com.project.image.segmentation.service.OpenCVSegmentationService;
+import com.project.image.segmentation.service.SegmentationMetrics;
+import com.project.image.segmentation.service.SegmentationService;
+import com.project.image.segmentation.service.SegmentationSettings;
+import com.project.image.segmentation.service.SegmentationService.KMeansAlgorithm;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Регресия спрямо еталонни маски: всяко изображение от корпуса в src/test/resources/golden се сегментира
+ * с всеки метод и режим, маската се сравнява с записаната (IoU), а заделената памет и времето -
+ * с бюджетите в budgets.properties. Паметта се мери винаги (детерминирана е); времето зависи от машината
+ * и се проверява само с {@code -Dgolden.timing=true}, което пуска профилът {@code mvn -Ploadtest test}.
+ * <p>
+ * При умишлена промяна в алгоритъма еталоните се презаписват с
+ * {@code mvn test -Dtest=GoldenMaskRegressionTest -Dgolden.update=true} и промяната в маските се
+ * преглежда в diff-а. Липсващите изображения от корпуса се генерират тогава.
+ */
+class GoldenMaskRegressionTest {
+
+    private static final Path GOLDEN_DIR = Path.of("src/test/resources/golden");
+    private static final boolean UPDATE = Boolean.getBoolean("golden.update");
+    private static final boolean TIMING = Boolean.getBoolean("golden.timing");
+
+    private static final double MIN_IOU = 0.97;
+    /** Времето се мери на споделени машини - бюджетът е кратно на еталона плюс фиксиран запас. */
+    private static final double TIME_FACTOR = Double.parseDouble(System.getProperty("golden.time-factor", "3.0"));
+    private static final long TIME_SLACK_MS = 30;
+    private static final double ALLOC_FACTOR = 1.1;
+    private static final long ALLOC_SLACK_BYTES = 256L << 10;
+    private static final int MEASURED_RUNS = 3;
+    private static final int WARM_UP_RUNS = 10;
+
+    private static final List<String> CORPUS = List.of("objects", "gradient", "textured", "low-contrast");
+
+    private static final Map<String, String> measured = new TreeMap<>();
+    private static final Map<Mode, Function<BufferedImage, SegmentationResult>> engines = new HashMap<>();
+    /**
+     * Една нишка за всичко: паралелните ленти на сегментацията се разклоняват в пула на извикващата задача,
+     * така че броячът на тази нишка хваща цялата заделена памет, без шума от останалите нишки в JVM-а.
+     */
+    private static final ForkJoinPool single = new ForkJoinPool(1);
+
+    enum Mode {
+        KMEANS_LLOYD, KMEANS_ACCELERATED, KMEANS_SUPERPIXELS, KMEANS_COMPACT_LAB, GRABCUT, WATERSHED;
+
+        String key() {
+            return name().toLowerCase().replace('_', '-');
+        }
+
+        Function<BufferedImage, SegmentationResult> engine() {
+            SegmentationOptions options = SegmentationOptions.defaults(50).withRenderImages(false);
+            return switch (this) {
+                case KMEANS_LLOYD -> kmeans(KMeansAlgorithm.LLOYD, Long.MAX_VALUE, options);
+                case KMEANS_ACCELERATED -> kmeans(KMeansAlgorithm.ACCELERATED, Long.MAX_VALUE, options);
+                case KMEANS_SUPERPIXELS -> kmeans(KMeansAlgorithm.LLOYD, Long.MAX_VALUE, options.withSuperpixels(true));
+                case KMEANS_COMPACT_LAB -> kmeans(KMeansAlgorithm.LLOYD, 0, options);
+                case GRABCUT -> img -> opencv().segmentWithGrabCut(img, false);
+                case WATERSHED -> img -> opencv().segmentWithWatershed(img, false);
+            };
+        }
+
+        private static Function<BufferedImage, SegmentationResult> kmeans(KMeansAlgorithm algorithm,
+                                                                          long compactLabMinPixels,
+                                                                          SegmentationOptions options) {
+            SegmentationService service = new SegmentationService(SegmentationMetrics.standalone(), SegmentationSettings.defaults()
+                    .withKmeans(algorithm).withWorkspace(4_000_000, 1).withCompactLabMinPixels(compactLabMinPixels));
+            return img -> service.segment(img, options);
+        }
+
+        private static OpenCVSegmentationService opencv() {
+            return new OpenCVSegmentationService(SegmentationMetrics.standalone());
+        }
+    }
+
+    /**
+     * Без загряване първите случаи се мерят с интерпретиран Vector API код, който заделя обект за всеки
+     * вектор - бюджетите им ще са десетки пъти по-високи от реалните.
+     */
+    @BeforeAll
+    static void warmUp() throws Exception {
+        BufferedImage input = corpusImage(CORPUS.get(0));
+        for (Mode mode : Mode.values()) {
+            Function<BufferedImage, SegmentationResult> engine = engines.computeIfAbsent(mode, Mode::engine);
+            int runs = mode == Mode.GRABCUT ? 2 : WARM_UP_RUNS;
+            single.submit(() -> {
+                for (int i = 0; i < runs; i++) engine.apply(input);
+            }).get();
+        }
+    }
+
+    static Stream<Arguments> cases() {
+        return CORPUS.stream().flatMap(image -> Arrays.stream(Mode.values()).map(mode -> Arguments.of(image, mode)));
+    }
+
+    @ParameterizedTest(name = "{0} / {1}")
+    @MethodSource("cases")
+    void segment_matchesGoldenMaskWithinBudget(String image, Mode mode) throws Exception {
+        BufferedImage input = corpusImage(image);
+        Function<BufferedImage, SegmentationResult> engine = engines.computeIfAbsent(mode, Mode::engine);
+
+        Measured m = single.submit(() -> measure(engine, input)).get();
+        SegmentationResult result = m.result();
+        long wallMs = Math.max(1, m.nanos() / 1_000_000), bestBytes = m.bytes();
+
+        String id = image + "." + mode.key();
+        Path maskFile = GOLDEN_DIR.resolve(id + ".mask.png");
+        if (UPDATE) {
+            writeMask(maskFile, result.objectMask(), result.width(), result.height());
+            measured.put(id + ".wall-ms", Long.toString(wallMs));
+            measured.put(id + ".alloc-bytes", Long.toString(bestBytes));
+            return;
+        }
+
+        boolean[] golden = readMask(id + ".mask.png", result.width(), result.height());
+        assertThat(TestImages.iou(golden, result.objectMask())).as("IoU %s", id).isGreaterThan(MIN_IOU);
+
+        Properties budgets = budgets();
+        long allocBudget = (long) (Long.parseLong(budget(budgets, id + ".alloc-bytes")) * ALLOC_FACTOR)
+                + ALLOC_SLACK_BYTES;
+        assertThat(bestBytes).as("allocated bytes %s", id).isLessThanOrEqualTo(allocBudget);
+        if (TIMING) {
+            long wallBudget = (long) (Long.parseLong(budget(budgets, id + ".wall-ms")) * TIME_FACTOR) + TIME_SLACK_MS;
+            assertThat(wallMs).as("wall time ms %s", id).isLessThanOrEqualTo(wallBudget);
+        }
+    }
+
+    /** Изпълнява се в {@link #single}; първото извикване с изображението оразмерява работните буфери. */
+    private static Measured measure(Function<BufferedImage, SegmentationResult> engine, BufferedImage input) {
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        SegmentationResult result = engine.apply(input);
+        long bestNanos = Long.MAX_VALUE, bestBytes = Long.MAX_VALUE;
+        for (int run = 0; run < MEASURED_RUNS; run++) {
+            long before = mx.getThreadAllocatedBytes(thread);
+            long start = System.nanoTime();
+            SegmentationResult again = engine.apply(input);
+            bestNanos = Math.min(bestNanos, System.nanoTime() - start);
+            bestBytes = Math.min(bestBytes, mx.getThreadAllocatedBytes(thread) - before);
+            assertThat(again.objectMask()).as("deterministic").isEqualTo(result.objectMask());
+        }
+        return new Measured(result, bestNanos, bestBytes);
+    }
+
+    private record Measured(SegmentationResult result, long nanos, long bytes) {}
+
+    @AfterAll
+    static void shutDown() {
+        single.shutdown();
+    }
+
+    @AfterAll
+    static void writeBudgets() throws IOException {
+        if (!UPDATE || measured.isEmpty()) return;
+        Map<String, String> all = new TreeMap<>();
+        Path file = GOLDEN_DIR.resolve("budgets.properties");
+        if (Files.exists(file)) {
+            Properties old = new Properties();
+            try (InputStream in = Files.newInputStream(file)) {
+                old.load(in);
+            }
+            old.forEach((k, v) -> all.put((String) k, (String) v));
+        }
+        all.putAll(measured);
+        StringBuilder out = new StringBuilder("# Еталонни времена (най-доброто от " + MEASURED_RUNS
+                + " след загряване) и заделена памет в сегментиращата нишка; -Dgolden.update=true ги презаписва\n");
+        all.forEach((k, v) -> out.append(k).append('=').append(v).append('\n'));
+        Files.writeString(file, out);
+    }
+
+    private static Properties budgets() throws IOException {
+        Properties p = new Properties();
+        try (InputStream in = GoldenMaskRegressionTest.class.getResourceAsStream("/golden/budgets.properties")) {
+            assertThat(in).as("golden/budgets.properties").isNotNull();
+            p.load(in);
+        }
+        return p;
+    }
+
+    private static String budget(Properties budgets, String key) {
+        String value = budgets.getProperty(key);
+        assertThat(value).as("budget %s (run with -Dgolden.update=true)", key).isNotNull();
+        return value;
+    }
+
+    private static BufferedImage corpusImage(String name) throws IOException {
+        try (InputStream in = GoldenMaskRegressionTest.class.getResourceAsStream("/golden/" + name + ".png")) {
+            if (in != null) return ImageIO.read(in);
+        }
+        assertThat(UPDATE).as("corpus image golden/%s.png (run with -Dgolden.update=true)", name).isTrue();
+        BufferedImage img = generate(name);
+        Files.createDirectories(GOLDEN_DIR);
+        ImageIO.write(img, "png", GOLDEN_DIR.resolve(name + ".png").toFile());
+        return img;
+    }
+
+    private static boolean[] readMask(String resource, int w, int h) throws IOException {
+        try (InputStream in = GoldenMaskRegressionTest.class.getResourceAsStream("/golden/" + resource)) {
+            assertThat(in).as("golden mask %s (run with -Dgolden.update=true)", resource).isNotNull();
+            BufferedImage img = ImageIO.read(in);
+            assertThat(img.getWidth()).isEqualTo(w);
+            assertThat(img.getHeight()).isEqualTo(h);
+            boolean[] mask = new boolean[w * h];
+            for (int y = 0; y < h; y++) {
+                for (int x = 0; x < w; x++) mask[y * w + x] = (img.getRGB(x, y) & 0xFFFFFF) != 0;
+            }
+            return mask;
+        }
+    }
+
+    private static void writeMask(Path file, boolean[] mask, int w, int h) {
+        BufferedImage img = new BufferedImage(w, h, BufferedImage.TYPE_BYTE_BINARY);
+        for (int i = 0; i < mask.length; i++) {
+            if (mask[i]) img.setRGB(i % w, i / w, 0xFFFFFF);
+        }
+        try {
+            Files.createDirectories(file.getParent());
+            ImageIO.write(img, "png", file.toFile());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** Корпусът се генерира веднъж и се пази като PNG - еталонът не зависи от Java2D рендерирането. */
+    private static BufferedImage generate(String name) {
+        int w = 320, h = 240;
+        if (name.equals("objects")) return TestImages.noisyObjects(w, h);
+
+        BufferedImage img = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = img.createGraphics();
+        switch (name) {
+            case "gradient" -> {
+                g.setPaint(new GradientPaint(0, 0, new Color(250, 245, 230), 0, h, new Color(190, 200, 215)));
+                g.fillRect(0, 0, w, h);
+                g.setColor(new Color(150, 60, 30)); g.fillOval(40, 50, 110, 90);
+                g.setColor(new Color(40, 70, 110)); g.fillPolygon(new int[]{200, 290, 230}, new int[]{40, 90, 200}, 3);
+            }
+            case "textured" -> {
+                for (int y = 0; y < h; y += 8) {
+                    for (int x = 0; x < w; x += 8) {
+                        g.setColor(((x + y) / 8) % 2 == 0 ? new Color(220, 215, 200) : new Color(200, 195, 185));
+                        g.fillRect(x, y, 8, 8);
+                    }
+                }
+                for (int i = 0; i < 8; i++) {
+                    g.setColor(i % 2 == 0 ? new Color(60, 90, 50) : new Color(80, 110, 60));
+                    g.fillRect(60 + i * 10, 50, 10, 140);
+                }
+                g.setColor(new Color(110, 40, 90)); g.fillOval(190, 70, 90, 110);
+            }
+            case "low-contrast" -> {
+                g.setColor(new Color(170, 165, 160)); g.fillRect(0, 0, w, h);
+                g.setColor(new Color(135, 125, 120)); g.fillOval(50, 40, 120, 100);
+                g.setColor(new Color(125, 135, 145)); g.fillRect(190, 110, 90, 90);
+            }
+            default -> throw new IllegalArgumentException(name);
+        }
+        g.dispose();
+        TestImages.addNoise(img, new Random(name.hashCode()), 3);
+        return img;
+    }
+}
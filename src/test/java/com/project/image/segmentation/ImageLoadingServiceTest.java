@@ -0,0 +1,75 @@
+package com.project.image.segmentation;
+
+import com.project.image.segmentation.service.ImageLoadingService;
+import com.project.image.segmentation.service.ImageLoadingService.Dimensions;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ImageLoadingServiceTest {
+
+    private final ImageLoadingService loader = new ImageLoadingService();
+
+    @Test
+    void decode_subsamplesAtSourceIntoBgrRaster() throws Exception {
+        byte[] jpeg = encode(quadrants(1600, 1200), "jpg");
+
+        BufferedImage full = loader.decode(jpeg);
+        assertThat(full.getType()).isEqualTo(BufferedImage.TYPE_3BYTE_BGR);
+        assertThat(full.getWidth()).isEqualTo(1600);
+
+        BufferedImage preview = loader.decode(new ByteArrayInputStream(jpeg), 400);
+        assertThat(preview.getType()).isEqualTo(BufferedImage.TYPE_3BYTE_BGR);
+        assertThat(new int[]{preview.getWidth(), preview.getHeight()}).containsExactly(400, 300);
+        // всеки четвърти пиксел от източника - квадрантите остават на мястото си
+        assertClose(preview.getRGB(100, 75), full.getRGB(400, 300));
+        assertClose(preview.getRGB(300, 225), full.getRGB(1200, 900));
+    }
+
+    @Test
+    void decode_pngKeepsPixels() throws Exception {
+        BufferedImage src = quadrants(120, 80);
+        BufferedImage png = loader.decode(encode(src, "png"));
+        assertThat(png.getType()).isEqualTo(BufferedImage.TYPE_3BYTE_BGR);
+        assertThat(png.getRGB(10, 10)).isEqualTo(src.getRGB(10, 10));
+        assertThat(png.getRGB(100, 70)).isEqualTo(src.getRGB(100, 70));
+    }
+
+    @Test
+    void subsampling_capsLongSideButKeepsMinimumShortSide() {
+        assertThat(ImageLoadingService.subsampling(new Dimensions(4000, 3000), 0)).isEqualTo(1);
+        assertThat(ImageLoadingService.subsampling(new Dimensions(4000, 3000), 1000)).isEqualTo(4);
+        assertThat(ImageLoadingService.subsampling(new Dimensions(4000, 3000), 1024)).isEqualTo(4);
+        assertThat(ImageLoadingService.subsampling(new Dimensions(4000, 120), 100)).isEqualTo(2);
+        assertThat(ImageLoadingService.subsampled(new Dimensions(1001, 750), 4)).isEqualTo(new Dimensions(251, 188));
+    }
+
+    private static BufferedImage quadrants(int w, int h) {
+        BufferedImage img = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = img.createGraphics();
+        g.setColor(new Color(200, 40, 40)); g.fillRect(0, 0, w / 2, h / 2);
+        g.setColor(new Color(40, 200, 40)); g.fillRect(w / 2, 0, w - w / 2, h / 2);
+        g.setColor(new Color(40, 40, 200)); g.fillRect(0, h / 2, w / 2, h - h / 2);
+        g.setColor(new Color(230, 230, 230)); g.fillRect(w / 2, h / 2, w - w / 2, h - h / 2);
+        g.dispose();
+        return img;
+    }
+
+    private static byte[] encode(BufferedImage img, String format) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(img, format, out);
+        return out.toByteArray();
+    }
+
+    private static void assertClose(int a, int b) {
+        for (int shift = 0; shift <= 16; shift += 8) {
+            assertThat(Math.abs(((a >> shift) & 0xFF) - ((b >> shift) & 0xFF))).isLessThanOrEqualTo(4);
+        }
+    }
+}
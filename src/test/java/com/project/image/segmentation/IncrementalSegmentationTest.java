@@ -0,0 +1,74 @@
+package com.project.image.segmentation;
+
+import com.project.image.segmentation.DTOs.SegmentationOptions;
+import com.project.image.segmentation.DTOs.SegmentationResult;
+import com.project.image.segmentation.service.OpenCVSegmentationService;
+import com.project.image.segmentation.service.SegmentationMetrics;
+import com.project.image.segmentation.service.SegmentationService;
+import com.project.image.segmentation.service.SegmentationSettings;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+
+import static com.project.image.segmentation.TestImages.noisyObjects;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class IncrementalSegmentationTest {
+
+    @Test
+    void segment_sameCacheKey_reusesUpstreamStagesAndMatchesFullRun() {
+        BufferedImage img = noisyObjects(320, 240);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        SegmentationService service = new SegmentationService(new SegmentationMetrics(registry), SegmentationSettings.defaults());
+
+        SegmentationResult first = service.segment(img,
+                SegmentationOptions.defaults(50).withRenderImages(false).withCacheKey("img-1"));
+        // 6000 px отрязва овала (~5600 px), правоъгълниците остават
+        SegmentationResult cached = service.segment(img,
+                SegmentationOptions.defaults(6000).withRenderImages(false).withCacheKey("img-1"));
+        SegmentationResult full = new SegmentationService().segment(img,
+                SegmentationOptions.defaults(6000).withRenderImages(false));
+
+        assertThat(first.segmentCount()).isEqualTo(3);
+        assertThat(cached.segmentCount()).isEqualTo(2);
+        assertThat(cached.objectMask()).isEqualTo(full.objectMask());
+        assertThat(cached.areasPx()).isEqualTo(full.areasPx());
+        assertThat(cached.clusterModel().centroids()).isEqualTo(first.clusterModel().centroids());
+        assertThat(registry.counter("segmentation.stage.cache", "result", "miss").count()).isEqualTo(1);
+        assertThat(registry.counter("segmentation.stage.cache", "result", "hit").count()).isEqualTo(1);
+        assertThat(registry.find("segmentation.stage.duration").tag("stage", "kmeans").timer().count()).isEqualTo(1);
+    }
+
+    @Test
+    void segment_differentImageSize_doesNotHitCache() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        SegmentationService service = new SegmentationService(new SegmentationMetrics(registry), SegmentationSettings.defaults());
+        SegmentationOptions options = SegmentationOptions.defaults(50).withRenderImages(false).withCacheKey("same");
+
+        service.segment(noisyObjects(320, 240), options);
+        SegmentationResult other = service.segment(noisyObjects(300, 240), options);
+
+        assertThat(other.width()).isEqualTo(300);
+        assertThat(registry.counter("segmentation.stage.cache", "result", "hit").count()).isZero();
+    }
+
+    @Test
+    void grabCut_sameCacheKey_isComputedOnce() {
+        BufferedImage img = noisyObjects(160, 120);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        OpenCVSegmentationService service = new OpenCVSegmentationService(new SegmentationMetrics(registry), true);
+
+        SegmentationResult first = service.segmentWithGrabCut(img, true, "img-1");
+        SegmentationResult again = service.segmentWithGrabCut(img, true, "img-1");
+        // без рендериране е друг ключ - PNG полетата не се вземат от кешираните
+        SegmentationResult masksOnly = service.segmentWithGrabCut(img, false, "img-1");
+
+        assertThat(again).isSameAs(first);
+        assertThat(masksOnly.outlinePng()).isNull();
+        assertThat(masksOnly.objectMask()).hasSize(160 * 120);
+        assertThat(registry.counter("segmentation.result.cache", "engine", "grabcut", "result", "hit").count())
+                .isEqualTo(1);
+        assertThat(registry.find("segmentation.duration").tags("engine", "grabcut", "outcome", "success").timer().count()).isEqualTo(2);
+    }
+}
@@ -0,0 +1,42 @@
+package com.project.image.segmentation;
+
+import com.project.image.segmentation.exceptions.AdmissionRejectedException;
+import com.project.image.segmentation.service.MemoryAdmissionService;
+import com.project.image.segmentation.service.SegmentationEngine;
+import com.project.image.segmentation.service.SegmentationMetrics;
+import org.junit.jupiter.api.Test;
+
+import java.util.EnumSet;
+
+import static org.assertj.core.api.Assertions.*;
+
+class MemoryAdmissionServiceTest {
+
+    @Test
+    void estimate_growsWithPixelsAndEngines() {
+        long kmeans = MemoryAdmissionService.estimateBytes(4000, 4000, EnumSet.of(SegmentationEngine.KMEANS));
+        long both = MemoryAdmissionService.estimateBytes(4000, 4000,
+                EnumSet.of(SegmentationEngine.KMEANS, SegmentationEngine.GRABCUT));
+
+        assertThat(kmeans).isGreaterThan(400L * 1024 * 1024 * 2);
+        assertThat(both).isGreaterThan(kmeans);
+        assertThat(MemoryAdmissionService.estimateBytes(100, 100, EnumSet.of(SegmentationEngine.KMEANS)))
+                .isLessThan(kmeans / 1000);
+    }
+
+    @Test
+    void reserve_rejectsAfterQueueTimeoutAndAdmitsAfterRelease() {
+        // 64 MB бюджет; 1000x1000 k-means е ~64 MB
+        MemoryAdmissionService admission = new MemoryAdmissionService(64, 50, SegmentationMetrics.standalone());
+        var kmeans = EnumSet.of(SegmentationEngine.KMEANS);
+
+        var first = admission.reserve(1000, 1000, kmeans);
+        assertThatThrownBy(() -> admission.reserve(1000, 1000, kmeans))
+                .isInstanceOf(AdmissionRejectedException.class);
+
+        first.close();
+        try (var second = admission.reserve(1000, 1000, kmeans)) {
+            assertThat(second.bytes()).isPositive();
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.project.image.segmentation;
+
+import com.project.image.segmentation.exceptions.SegmentationException;
+import com.project.image.segmentation.service.OpenCVSegmentationService;
+import com.project.image.segmentation.service.OpenCvHealthIndicator;
+import com.project.image.segmentation.service.SegmentationMetrics;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.Status;
+
+import java.awt.image.BufferedImage;
+
+import static com.project.image.segmentation.TestImages.noisyObjects;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class OpenCvLoadingTest {
+
+    @Test
+    void disabled_neverLoadsNativeAndRejectsOpenCvEngines() {
+        OpenCVSegmentationService service = new OpenCVSegmentationService(SegmentationMetrics.standalone(), false);
+
+        assertThat(service.isUsable()).isFalse();
+        assertThatThrownBy(() -> service.segmentWithWatershed(noisyObjects(120, 100), false))
+                .isInstanceOf(SegmentationException.class).hasMessageContaining("disabled");
+        Health health = new OpenCvHealthIndicator(service).health();
+        assertThat(health.getStatus()).isEqualTo(Status.UP);
+        assertThat(health.getDetails()).containsEntry("native", "disabled");
+    }
+
+    @Test
+    void enabled_loadsNativeOnFirstUse() {
+        OpenCVSegmentationService service = new OpenCVSegmentationService(SegmentationMetrics.standalone(), true);
+        BufferedImage img = noisyObjects(160, 120);
+
+        // проверката преди първото извикване не зарежда библиотеката
+        assertThat(service.isUsable()).isTrue();
+        assertThat(service.segmentWithWatershed(img, false).objectMask()).hasSize(160 * 120);
+        Health health = new OpenCvHealthIndicator(service).health();
+        assertThat(health.getStatus()).isEqualTo(Status.UP);
+        assertThat(health.getDetails()).containsEntry("native", "loaded");
+    }
+}
@@ -0,0 +1,99 @@
+package com.project.image.segmentation;
+
+import com.project.image.segmentation.service.PixelKernels;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PixelKernelsTest {
+    private static final int N = 10_007; // не е кратно на ширината на вектора - проверява и опашката
+
+    private final PixelKernels scalar = PixelKernels.scalar();
+    private final PixelKernels best = PixelKernels.best();
+
+    @Test
+    void vectorKernelsAreSelectedWhenModuleIsLoaded() {
+        // surefire стартира с --add-modules jdk.incubator.vector
+        assertThat(best.name()).startsWith("vector");
+    }
+
+    @Test
+    void toLab_matchesScalar() {
+        int[] argb = randomPixels(1);
+        float[] l1 = new float[N + 5], a1 = new float[N + 5], b1 = new float[N + 5];
+        float[] l2 = new float[N + 5], a2 = new float[N + 5], b2 = new float[N + 5];
+        int[] h1 = new int[256], h2 = new int[256];
+
+        scalar.toLab(argb, N, l1, a1, b1, 5, h1);
+        best.toLab(argb, N, l2, a2, b2, 5, h2);
+
+        assertThat(h2).containsExactly(h1);
+        assertThat(IntStream.of(h1).sum()).isEqualTo(N);
+        for (int i = 5; i < N + 5; i++) {
+            assertThat(Math.abs(l1[i] - l2[i])).isLessThan(1e-2f);
+            assertThat(Math.abs(a1[i] - a2[i])).isLessThan(1e-2f);
+            assertThat(Math.abs(b1[i] - b2[i])).isLessThan(1e-2f);
+        }
+    }
+
+    @Test
+    void toLab_doesNotAllocateOnceCompiled() {
+        int[] argb = randomPixels(5);
+        float[] l = new float[N], a = new float[N], b = new float[N];
+        int[] h = new int[256];
+        var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+
+        // C2 компилира асинхронно - взима се най-добрият от няколко опита след загряване
+        long best = Long.MAX_VALUE;
+        for (int attempt = 0; attempt < 5 && best > 0; attempt++) {
+            for (int i = 0; i < 1000; i++) this.best.toLab(argb, N, l, a, b, 0, h);
+            long before = threads.getThreadAllocatedBytes(thread);
+            for (int i = 0; i < 100; i++) this.best.toLab(argb, N, l, a, b, 0, h);
+            best = Math.min(best, threads.getThreadAllocatedBytes(thread) - before);
+        }
+
+        // до 1 KB за 100 извиквания по ~10k пиксела - боксираните вектори биха дали ~36 MB
+        assertThat(best).isLessThan(1024);
+    }
+
+    @Test
+    void assign_matchesScalar() {
+        Random rnd = new Random(2);
+        float[] l = new float[N], a = new float[N], b = new float[N];
+        for (int i = 0; i < N; i++) {
+            l[i] = rnd.nextFloat() * 100; a[i] = rnd.nextFloat() * 200 - 100; b[i] = rnd.nextFloat() * 200 - 100;
+        }
+        float[] cent = {20, 0, 0, 50, 40, -30, 80, -20, 60, 60, 10, 10};
+        int[] s = new int[N], v = new int[N];
+
+        assertThat(scalar.assign(l, a, b, N, cent, 4, s)).isTrue();
+        assertThat(best.assign(l, a, b, N, cent, 4, v)).isTrue();
+        assertThat(v).containsExactly(s);
+        assertThat(best.assign(l, a, b, N, cent, 4, v)).isFalse();
+    }
+
+    @Test
+    void blend_matchesScalar() {
+        int[] s = randomPixels(3), v = s.clone();
+        boolean[] mask = new boolean[N];
+        Random rnd = new Random(4);
+        for (int i = 0; i < N; i++) mask[i] = rnd.nextBoolean();
+
+        scalar.blend(s, mask, 0x00B4FF, 0.45f);
+        best.blend(v, mask, 0x00B4FF, 0.45f);
+
+        assertThat(v).containsExactly(s);
+    }
+
+    private static int[] randomPixels(long seed) {
+        Random rnd = new Random(seed);
+        int[] argb = new int[N];
+        for (int i = 0; i < N; i++) argb[i] = 0xFF000000 | rnd.nextInt(0x1000000);
+        return argb;
+    }
+}
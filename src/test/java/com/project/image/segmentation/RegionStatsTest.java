@@ -0,0 +1,45 @@
+package com.project.image.segmentation;
+
+import com.project.image.segmentation.DTOs.RegionStats;
+import com.project.image.segmentation.DTOs.SegmentationOptions;
+import com.project.image.segmentation.DTOs.SegmentationResult;
+import com.project.image.segmentation.service.SegmentationService;
+import org.junit.jupiter.api.Test;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class RegionStatsTest {
+
+    @Test
+    void segment_reportsBoxCentroidColourAndPerimeterPerRegion() {
+        BufferedImage img = new BufferedImage(300, 200, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = img.createGraphics();
+        g.setColor(new Color(240, 240, 240)); g.fillRect(0, 0, 300, 200);
+        g.setColor(new Color(30, 40, 140)); g.fillRect(20, 30, 60, 40);
+        g.setColor(new Color(140, 30, 30)); g.fillRect(150, 100, 100, 50);
+        g.dispose();
+
+        SegmentationResult result = new SegmentationService()
+                .segment(img, SegmentationOptions.defaults(50).withRenderImages(false));
+        RegionStats stats = result.regionStats();
+
+        assertThat(stats.count()).isEqualTo(2).isEqualTo(result.keptLabels().length);
+        // регионите са номерирани по реда на обхождане - първо горният ляв
+        assertThat(new int[]{stats.minX()[0], stats.minY()[0], stats.maxX()[0], stats.maxY()[0]})
+                .containsExactly(20, 30, 79, 69);
+        assertThat(stats.area()[0]).isEqualTo(60 * 40).isEqualTo(result.areasPx().get(0));
+        assertThat(stats.centroidX()[0]).isCloseTo(49.5f, within(0.01f));
+        assertThat(stats.centroidY()[0]).isCloseTo(49.5f, within(0.01f));
+        assertThat(stats.meanRgb()[0]).isEqualTo(0x1e288c);
+        assertThat(stats.perimeter()[0]).isEqualTo(2 * 60 + 2 * 40 - 4);
+
+        assertThat(new int[]{stats.minX()[1], stats.minY()[1], stats.maxX()[1], stats.maxY()[1]})
+                .containsExactly(150, 100, 249, 149);
+        assertThat(stats.meanRgb()[1]).isEqualTo(0x8c1e1e);
+        assertThat(stats.summaries(result.keptLabels(), 300 * 200).get(1).meanColor()).isEqualTo("#8c1e1e");
+    }
+}
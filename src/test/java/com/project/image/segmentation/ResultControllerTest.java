@@ -0,0 +1,69 @@
+package com.project.image.segmentation;
+
+import com.project.image.segmentation.controller.ResultController;
+import com.project.image.segmentation.service.StorageService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.nio.file.Files;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+class ResultControllerTest {
+    private StorageService storage;
+    private MockMvc mvc;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        storage = new StorageService(Files.createTempDirectory("artifacts").toString());
+        mvc = MockMvcBuilders.standaloneSetup(new ResultController(storage)).build();
+    }
+
+    @AfterEach
+    void tearDown() {
+        storage.shutdown();
+    }
+
+    @Test
+    void result_isImmutableWithStrongEtagAndRanges() throws Exception {
+        var stored = storage.storeResultImage(new byte[]{0, 1, 2, 3, 4, 5, 6, 7, 8, 9});
+        String url = "/" + stored.relativeWebPath();
+        String etag = "\"" + stored.filename() + "\"";
+
+        mvc.perform(get(url))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", etag))
+                .andExpect(header().string("Cache-Control", "public, max-age=31536000, immutable"))
+                .andExpect(content().bytes(new byte[]{0, 1, 2, 3, 4, 5, 6, 7, 8, 9}));
+
+        mvc.perform(get(url).header("If-None-Match", etag))
+                .andExpect(status().isNotModified());
+
+        mvc.perform(get(url).header("Range", "bytes=2-4"))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string("Content-Range", "bytes 2-4/10"))
+                .andExpect(content().bytes(new byte[]{2, 3, 4}));
+
+        mvc.perform(get(url).header("Range", "bytes=20-"))
+                .andExpect(status().isRequestedRangeNotSatisfiable())
+                .andExpect(header().string("Content-Range", "bytes */10"));
+    }
+
+    @Test
+    void original_isServedFromDiskByContentHash() throws Exception {
+        var stored = storage.store(new MockMultipartFile("file", "a.png", "image/png", new byte[]{5, 6, 7}));
+
+        mvc.perform(get("/" + stored.relativeWebPath()).header("Range", "bytes=-2"))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string("ETag", "\"" + stored.contentHash() + "\""))
+                .andExpect(content().bytes(new byte[]{6, 7}));
+
+        mvc.perform(get("/uploads/00/00/" + stored.path().getFileName()))
+                .andExpect(status().isNotFound());
+    }
+}
@@ -0,0 +1,122 @@
+package com.project.image.segmentation;
+
+import com.project.image.segmentation.DTOs.RleMask;
+import com.project.image.segmentation.DTOs.SegmentationOptions;
+import com.project.image.segmentation.DTOs.SegmentationResult;
+import com.project.image.segmentation.service.RleEncoder;
+import com.project.image.segmentation.service.SegmentationService;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RleEncoderTest {
+
+    @Test
+    void encode_usesColumnMajorCocoOrder() {
+        // 3x2 (w=3, h=2), row-major:
+        // 0 1 1
+        // 0 0 1
+        boolean[] mask = {false, true, true, false, false, true};
+
+        RleMask rle = RleEncoder.encode(mask, 3, 2);
+
+        // column-major: 0,0 | 1,0 | 1,1  ->  2 нули, 1 единица, 1 нула, 2 единици
+        assertThat(rle.size()).containsExactly(2, 3);
+        assertThat(rle.counts()).containsExactly(2, 1, 1, 2);
+    }
+
+    @Test
+    void encode_startsWithZeroRunWhenFirstPixelIsSet() {
+        boolean[] mask = {true, true, true, true};
+        assertThat(RleEncoder.encode(mask, 2, 2).counts()).containsExactly(0, 4);
+    }
+
+    @Test
+    void encodeRegions_matchesPerLabelMasks() {
+        int w = 5, h = 4;
+        int[] labels = {
+                1, 1, 0, 2, 2,
+                1, 0, 0, 2, 3,
+                0, 0, 4, 4, 3,
+                5, 5, 4, 0, 0
+        };
+        int[] kept = {1, 2, 4};
+
+        RleMask[] regions = RleEncoder.encodeRegions(labels, kept, w, h);
+
+        assertThat(regions).hasSize(3);
+        for (int r = 0; r < kept.length; r++) {
+            boolean[] single = new boolean[w * h];
+            for (int i = 0; i < labels.length; i++) single[i] = labels[i] == kept[r];
+            assertThat(regions[r].counts()).containsExactly(RleEncoder.encode(single, w, h).counts());
+        }
+    }
+
+    @Test
+    void encodeRegions_withFinalMask_unionEqualsMask() {
+        int w = 6, h = 4;
+        // етикети от flood fill преди доизглаждането
+        int[] labels = {
+                1, 1, 0, 0, 2, 2,
+                1, 1, 0, 0, 2, 2,
+                0, 0, 0, 0, 0, 0,
+                3, 0, 0, 0, 0, 0
+        };
+        // финалната маска: дупката между 1 и 2 е запълнена, 1 е отрязан отгоре, 3 е премахнат
+        // от почистването, а в долния десен ъгъл има компонент без етикет
+        boolean[] mask = {
+                false, false, true, true, true, true,
+                true,  true,  true, true, true, true,
+                false, false, false, false, false, false,
+                false, false, false, false, true, true
+        };
+        int[] kept = {1, 2, 3};
+
+        RleMask[] regions = RleEncoder.encodeRegions(labels, kept, mask, w, h);
+
+        boolean[] union = new boolean[w * h];
+        int total = 0;
+        for (RleMask region : regions) {
+            boolean[] decoded = decode(region, w, h);
+            for (int i = 0; i < union.length; i++) {
+                if (!decoded[i]) continue;
+                assertThat(union[i]).as("pixel %d in two regions", i).isFalse();
+                union[i] = true;
+            }
+            total += RleEncoder.area(region);
+        }
+        assertThat(union).isEqualTo(mask);
+        assertThat(total).isEqualTo(12);
+        assertThat(RleEncoder.area(regions[2])).isZero();
+        // компонентът без етикет отива при най-близкия регион - 2
+        assertThat(decode(regions[1], w, h)[3 * w + 5]).isTrue();
+    }
+
+    @Test
+    void encodeRegions_ofSegmentationResult_coverObjectMask() {
+        SegmentationResult result = new SegmentationService().segment(TestImages.noisyObjects(320, 240),
+                SegmentationOptions.defaults(50).withRenderImages(false));
+        int w = result.width(), h = result.height();
+
+        RleMask[] regions = RleEncoder.encodeRegions(result.labels(), result.keptLabels(), result.objectMask(), w, h);
+
+        boolean[] union = new boolean[w * h];
+        for (RleMask region : regions) {
+            boolean[] decoded = decode(region, w, h);
+            for (int i = 0; i < union.length; i++) union[i] |= decoded[i];
+        }
+        assertThat(union).isEqualTo(result.objectMask());
+    }
+
+    /** Обратното на encode: column-major серии към row-major маска. */
+    private static boolean[] decode(RleMask rle, int w, int h) {
+        boolean[] mask = new boolean[w * h];
+        int pos = 0;
+        boolean value = false;
+        for (int count : rle.counts()) {
+            for (int k = 0; k < count; k++, pos++) mask[(pos % h) * w + pos / h] = value;
+            value = !value;
+        }
+        return mask;
+    }
+}
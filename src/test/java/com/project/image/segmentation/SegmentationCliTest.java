@@ -0,0 +1,65 @@
+package com.project.image.segmentation;
+
+import com.project.image.segmentation.cli.SegmentationCli;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static com.project.image.segmentation.TestImages.noisyObjects;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SegmentationCliTest {
+
+    @Test
+    void run_writesMasksAndSummaryAndResumesOnlyFailures(@TempDir Path dir) throws IOException {
+        Path input = Files.createDirectories(dir.resolve("in/sub"));
+        ImageIO.write(noisyObjects(320, 240), "png", input.resolve("a.png").toFile());
+        ImageIO.write(noisyObjects(300, 200), "png", dir.resolve("in/b.png").toFile());
+        Files.writeString(dir.resolve("in/broken.jpg"), "not an image");
+        Files.writeString(dir.resolve("in/notes.txt"), "ignored");
+        String[] args = {"--input", dir.resolve("in").toString(), "--output", dir.resolve("out").toString(),
+                "--threads", "2"};
+
+        assertThat(SegmentationCli.run(args, quiet(), quiet())).isEqualTo(1);
+
+        assertThat(ImageIO.read(dir.resolve("out/masks/sub/a.png").toFile()).getWidth()).isEqualTo(320);
+        assertThat(dir.resolve("out/masks/b.png")).exists();
+        List<String> rows = Files.readAllLines(dir.resolve("out/summary.csv"));
+        assertThat(rows.get(0)).startsWith("file,status,width,height,segments");
+        assertThat(rows.subList(1, rows.size())).hasSize(3)
+                .anySatisfy(r -> assertThat(r).startsWith("sub/a.png,ok,320,240,3,"))
+                .anySatisfy(r -> assertThat(r).startsWith("b.png,ok,300,200,"))
+                .anySatisfy(r -> assertThat(r).startsWith("broken.jpg,error,"));
+
+        // второ пускане: само неуспелият файл се опитва наново, без дублирани редове
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertThat(SegmentationCli.run(args, new PrintStream(out), quiet())).isEqualTo(1);
+        assertThat(out.toString()).contains("1 images to segment, 2 already done");
+        assertThat(Files.readAllLines(dir.resolve("out/summary.csv"))).hasSize(4);
+
+        Files.delete(dir.resolve("in/broken.jpg"));
+        assertThat(SegmentationCli.run(args, quiet(), quiet())).isZero();
+        assertThat(Files.readAllLines(dir.resolve("out/summary.csv"))).hasSize(3);
+    }
+
+    @Test
+    void run_rejectsUnknownOption(@TempDir Path dir) {
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        int code = SegmentationCli.run(new String[]{"--input", dir.toString(), "--output", dir.toString(),
+                "--engine", "magic"}, quiet(), new PrintStream(err));
+
+        assertThat(code).isEqualTo(2);
+        assertThat(err.toString()).contains("Unknown segmentation engine").contains("Usage:");
+    }
+
+    private static PrintStream quiet() {
+        return new PrintStream(new ByteArrayOutputStream());
+    }
+}
@@ -49,4 +49,16 @@ class SegmentationControllerTest {
                 .andExpect(status().is3xxRedirection())
                 .andExpect(header().string("Location", org.hamcrest.Matchers.containsString("/login")));
     }
-}
\ No newline at end of file
+    @Test
+    void uploadIndex_isNotServed() throws Exception {
+        var stored = storageService.store(new MockMultipartFile("file", "secret-name.png", "image/png",
+                new byte[]{1, 2, 3, 4}));
+        // стар файл от предишна версия в самия root
+        Files.writeString(storageService.rootDir().resolve(".refs"), "x\t00/00/x.png\n");
+
+        mvc.perform(get("/uploads/.refs")).andExpect(status().isNotFound());
+        mvc.perform(get("/uploads/.meta/refs")).andExpect(status().isNotFound());
+        mvc.perform(get("/" + stored.relativeWebPath())).andExpect(status().isOk());
+        Files.deleteIfExists(storageService.rootDir().resolve(".refs"));
+    }
+}
@@ -0,0 +1,328 @@
+package com.project.image.segmentation;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.net.CookieManager;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Натоварващ тест за POST /segment: вдига приложението на случаен порт и изпраща смес от синтетични
+ * изображения с постоянна честота (open loop - закъснението се мери от планирания момент на заявката,
+ * така че бавен сървър не намалява натоварването). Резултатът е JSON в target/loadtest, който може да се
+ * сравнява между версии. Пуска се само с профила loadtest: {@code mvn -Ploadtest test}.
+ * <p>
+ * Параметри (system properties): loadtest.endpoint (/segment с формен логин или /api/segment с HTTP basic),
+ * loadtest.rate (заявки/с), loadtest.warmup-seconds, loadtest.duration-seconds,
+ * loadtest.mix ("ШxВ:тегло,..."), loadtest.seed, loadtest.max-error-rate, loadtest.report-dir.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "app.upload.dir=target/loadtest/uploads",
+        "logging.level.com.project.image.segmentation=WARN",
+        "logging.level.org.springframework.security=WARN",
+        "logging.level.org.springframework.web.multipart=WARN"
+})
+class SegmentationLoadTest {
+
+    private static final String USER = "user", PASSWORD = "password";
+    private static final Pattern CSRF = Pattern.compile("name=\"_csrf\"\\s+value=\"([^\"]+)\"");
+
+    @LocalServerPort
+    int port;
+
+    @Test
+    void segment_underConstantRate() throws Exception {
+        String endpoint = System.getProperty("loadtest.endpoint", "/segment");
+        double rate = Double.parseDouble(System.getProperty("loadtest.rate", "0.5"));
+        int warmupSeconds = Integer.getInteger("loadtest.warmup-seconds", 5);
+        int durationSeconds = Integer.getInteger("loadtest.duration-seconds", 20);
+        String mix = System.getProperty("loadtest.mix", "320x240:4,1024x768:2,2048x1536:1");
+        long seed = Long.getLong("loadtest.seed", 42L);
+        double maxErrorRate = Double.parseDouble(System.getProperty("loadtest.max-error-rate", "0.01"));
+        Path reportDir = Path.of(System.getProperty("loadtest.report-dir", "target/loadtest"));
+
+        List<Payload> payloads = payloads(mix, seed);
+        Client client = endpoint.startsWith("/api/") ? Client.basic(port, endpoint) : Client.formLogin(port, endpoint);
+
+        // загрявката минава през JIT и пуловете на workspace-ите и не влиза в отчета
+        run(client, payloads, rate, warmupSeconds, new Random(seed), null);
+
+        JvmSnapshot before = JvmSnapshot.take();
+        ManagementFactory.getMemoryPoolMXBeans().forEach(MemoryPoolMXBean::resetPeakUsage);
+        ConcurrentLinkedQueue<Sample> samples = new ConcurrentLinkedQueue<>();
+        long elapsed = run(client, payloads, rate, durationSeconds, new Random(seed + 1), samples);
+        JvmSnapshot after = JvmSnapshot.take();
+
+        Map<String, Object> report = report(endpoint, rate, durationSeconds, mix, seed, samples, elapsed, before, after);
+        Files.createDirectories(reportDir);
+        ObjectMapper json = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+        String body = json.writeValueAsString(report);
+        Files.writeString(reportDir.resolve("segment-" + Instant.now().toString().replace(':', '-') + ".json"), body);
+        Files.writeString(reportDir.resolve("segment-latest.json"), body);
+
+        assertThat(samples).isNotEmpty();
+        assertThat((double) report.get("errorRate")).as(body).isLessThanOrEqualTo(maxErrorRate);
+    }
+
+    /**
+     * Изпраща заявките по разписание без да чака отговорите и връща продължителността в ns
+     * до последния отговор. samples null - само загрявка.
+     */
+    private static long run(Client client, List<Payload> payloads, double rate, int seconds, Random rnd,
+                            ConcurrentLinkedQueue<Sample> samples) {
+        int total = 0;
+        for (Payload p : payloads) total += p.weight;
+        long period = (long) (1e9 / rate), start = System.nanoTime();
+        int count = (int) Math.round(rate * seconds);
+        List<CompletableFuture<?>> pending = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Payload payload = pick(payloads, total, rnd);
+            long scheduled = start + i * period;
+            long wait = scheduled - System.nanoTime();
+            if (wait > 0) LockSupport.parkNanos(wait);
+            pending.add(client.send(payload).handle((status, error) -> {
+                if (samples != null) {
+                    samples.add(new Sample(payload.label, error != null ? -1 : status, System.nanoTime() - scheduled));
+                }
+                return null;
+            }));
+        }
+        CompletableFuture.allOf(pending.toArray(CompletableFuture[]::new)).join();
+        return System.nanoTime() - start;
+    }
+
+    private static Payload pick(List<Payload> payloads, int total, Random rnd) {
+        int r = rnd.nextInt(total);
+        for (Payload p : payloads) {
+            r -= p.weight;
+            if (r < 0) return p;
+        }
+        return payloads.get(payloads.size() - 1);
+    }
+
+    private static Map<String, Object> report(String endpoint, double rate, int seconds, String mix, long seed,
+                                              ConcurrentLinkedQueue<Sample> samples, long elapsedNanos,
+                                              JvmSnapshot before, JvmSnapshot after) {
+        Map<String, List<Long>> bySize = new TreeMap<>();
+        List<Long> ok = new ArrayList<>();
+        Map<String, Integer> statuses = new TreeMap<>();
+        int errors = 0;
+        for (Sample s : samples) {
+            statuses.merge(s.status < 0 ? "io-error" : String.valueOf(s.status), 1, Integer::sum);
+            if (s.status / 100 == 2) {
+                ok.add(s.latencyNanos);
+                bySize.computeIfAbsent(s.label, l -> new ArrayList<>()).add(s.latencyNanos);
+            } else {
+                errors++;
+            }
+        }
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("timestamp", Instant.now().toString());
+        report.put("config", Map.of("endpoint", endpoint, "rate", rate, "durationSeconds", seconds, "mix", mix,
+                "seed", seed, "availableProcessors", Runtime.getRuntime().availableProcessors(),
+                "javaVersion", System.getProperty("java.version")));
+        report.put("requests", samples.size());
+        report.put("errors", errors);
+        report.put("errorRate", samples.isEmpty() ? 0.0 : (double) errors / samples.size());
+        report.put("throughputPerSecond", ok.size() / (elapsedNanos / 1e9));
+        report.put("latencyMs", latency(ok));
+        Map<String, Object> sizes = new LinkedHashMap<>();
+        bySize.forEach((label, latencies) -> sizes.put(label, latency(latencies)));
+        report.put("latencyMsBySize", sizes);
+        report.put("statuses", statuses);
+        report.put("jvm", after.since(before));
+        return report;
+    }
+
+    /** Перцентили по метода nearest-rank, в милисекунди. */
+    private static Map<String, Object> latency(List<Long> nanos) {
+        List<Long> sorted = new ArrayList<>(nanos);
+        sorted.sort(null);
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("count", sorted.size());
+        if (sorted.isEmpty()) return out;
+        out.put("mean", sorted.stream().mapToLong(Long::longValue).average().orElse(0) / 1e6);
+        for (double p : new double[]{50, 95, 99}) {
+            int rank = (int) Math.ceil(p / 100 * sorted.size());
+            out.put("p" + (int) p, sorted.get(Math.max(0, rank - 1)) / 1e6);
+        }
+        out.put("max", sorted.get(sorted.size() - 1) / 1e6);
+        return out;
+    }
+
+    private static List<Payload> payloads(String mix, long seed) throws IOException {
+        List<Payload> payloads = new ArrayList<>();
+        for (String entry : mix.split(",")) {
+            String[] sizeAndWeight = entry.trim().split(":");
+            String[] wh = sizeAndWeight[0].split("x");
+            int w = Integer.parseInt(wh[0]), h = Integer.parseInt(wh[1]);
+            int weight = sizeAndWeight.length > 1 ? Integer.parseInt(sizeAndWeight[1]) : 1;
+            ByteArrayOutputStream png = new ByteArrayOutputStream();
+            ImageIO.write(syntheticImage(w, h, seed), "png", png);
+            payloads.add(new Payload(sizeAndWeight[0], weight, png.toByteArray()));
+        }
+        return payloads;
+    }
+
+    /** Тъмни обекти върху шумен светъл фон, мащабирани към размера - сегментацията винаги намира нещо. */
+    static BufferedImage syntheticImage(int w, int h, long seed) {
+        BufferedImage img = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = img.createGraphics();
+        g.setColor(new Color(235, 235, 230)); g.fillRect(0, 0, w, h);
+        g.setColor(new Color(40, 40, 120)); g.fillOval(w / 10, h / 6, w / 4, h / 3);
+        g.setColor(new Color(120, 30, 30)); g.fillRect(w / 2, h / 4, w / 3, h / 3);
+        g.setColor(new Color(30, 90, 40)); g.fillRect(w / 4, 2 * h / 3, w / 2, h / 4);
+        g.dispose();
+        TestImages.addNoise(img, new Random(seed), 5);
+        return img;
+    }
+
+    private record Payload(String label, int weight, byte[] png) {}
+
+    private record Sample(String label, int status, long latencyNanos) {}
+
+    /**
+     * HTTP клиент с готова автентикация. Формата (/segment) иска сесия и CSRF токен - взимат се веднъж
+     * чрез логин и се ползват от всички заявки; /api/** приема HTTP basic без CSRF.
+     */
+    private static final class Client {
+        private static final String BOUNDARY = "loadtest-boundary";
+
+        private final HttpClient http;
+        private final URI target;
+        private final String authorization, csrf;
+
+        private Client(HttpClient http, URI target, String authorization, String csrf) {
+            this.http = http;
+            this.target = target;
+            this.authorization = authorization;
+            this.csrf = csrf;
+        }
+
+        static Client basic(int port, String endpoint) {
+            String token = Base64.getEncoder().encodeToString((USER + ":" + PASSWORD).getBytes(StandardCharsets.UTF_8));
+            return new Client(HttpClient.newHttpClient(), base(port).resolve(endpoint), "Basic " + token, null);
+        }
+
+        static Client formLogin(int port, String endpoint) throws IOException, InterruptedException {
+            HttpClient http = HttpClient.newBuilder().cookieHandler(new CookieManager())
+                    .followRedirects(HttpClient.Redirect.NEVER).build();
+            URI base = base(port);
+            String loginToken = csrfToken(http, base.resolve("/login"));
+            String form = "username=" + USER + "&password=" + PASSWORD
+                    + "&_csrf=" + URLEncoder.encode(loginToken, StandardCharsets.UTF_8);
+            HttpResponse<Void> login = http.send(HttpRequest.newBuilder(base.resolve("/login"))
+                    .header("Content-Type", "application/x-www-form-urlencoded")
+                    .POST(HttpRequest.BodyPublishers.ofString(form)).build(), HttpResponse.BodyHandlers.discarding());
+            assertThat(login.headers().firstValue("Location")).hasValueSatisfying(l -> assertThat(l).doesNotContain("error"));
+            // логинът сменя сесията, а с нея и CSRF токена
+            return new Client(http, base.resolve(endpoint), null, csrfToken(http, base.resolve(endpoint)));
+        }
+
+        CompletableFuture<Integer> send(Payload payload) {
+            ByteArrayOutputStream body = new ByteArrayOutputStream(payload.png.length + 512);
+            if (csrf != null) part(body, "name=\"_csrf\"", null, csrf.getBytes(StandardCharsets.UTF_8));
+            part(body, "name=\"minRegionSize\"", null, "50".getBytes(StandardCharsets.UTF_8));
+            part(body, "name=\"file\"; filename=\"" + payload.label + ".png\"", "image/png", payload.png);
+            body.writeBytes(("--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.UTF_8));
+
+            HttpRequest.Builder request = HttpRequest.newBuilder(target)
+                    .timeout(Duration.ofMinutes(2))
+                    .header("Content-Type", "multipart/form-data; boundary=" + BOUNDARY)
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(body.toByteArray()));
+            if (authorization != null) request.header("Authorization", authorization);
+            return http.sendAsync(request.build(), HttpResponse.BodyHandlers.discarding()).thenApply(HttpResponse::statusCode);
+        }
+
+        private static void part(ByteArrayOutputStream body, String disposition, String contentType, byte[] content) {
+            StringBuilder header = new StringBuilder("--").append(BOUNDARY).append("\r\n")
+                    .append("Content-Disposition: form-data; ").append(disposition).append("\r\n");
+            if (contentType != null) header.append("Content-Type: ").append(contentType).append("\r\n");
+            body.writeBytes(header.append("\r\n").toString().getBytes(StandardCharsets.UTF_8));
+            body.writeBytes(content);
+            body.writeBytes("\r\n".getBytes(StandardCharsets.UTF_8));
+        }
+
+        private static String csrfToken(HttpClient http, URI page) throws IOException, InterruptedException {
+            String html = http.send(HttpRequest.newBuilder(page).GET().build(), HttpResponse.BodyHandlers.ofString()).body();
+            Matcher m = CSRF.matcher(html);
+            assertThat(m.find()).as("CSRF token on %s", page).isTrue();
+            return m.group(1);
+        }
+
+        private static URI base(int port) {
+            return URI.create("http://localhost:" + port);
+        }
+    }
+
+    /** Хийп и GC на целия JVM - сървърът върви в същия процес. */
+    private record JvmSnapshot(long heapUsed, long heapMax, long gcCount, long gcMillis, Map<String, Long> gcByName) {
+
+        static JvmSnapshot take() {
+            long count = 0, millis = 0;
+            Map<String, Long> byName = new LinkedHashMap<>();
+            for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+                count += Math.max(0, gc.getCollectionCount());
+                millis += Math.max(0, gc.getCollectionTime());
+                byName.put(gc.getName(), gc.getCollectionCount());
+            }
+            var heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+            return new JvmSnapshot(heap.getUsed(), heap.getMax(), count, millis, byName);
+        }
+
+        Map<String, Object> since(JvmSnapshot before) {
+            // пикът е от нулирането след before
+            long peak = 0;
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP) peak += pool.getPeakUsage().getUsed();
+            }
+            Map<String, Long> collections = new LinkedHashMap<>();
+            gcByName.forEach((name, c) -> collections.put(name, c - before.gcByName.getOrDefault(name, 0L)));
+            Map<String, Object> out = new LinkedHashMap<>();
+            out.put("heapUsedBeforeMb", before.heapUsed / (1024 * 1024));
+            out.put("heapUsedAfterMb", heapUsed / (1024 * 1024));
+            out.put("heapPeakMb", peak / (1024 * 1024));
+            out.put("heapMaxMb", heapMax / (1024 * 1024));
+            out.put("gcCount", gcCount - before.gcCount);
+            out.put("gcTimeMs", gcMillis - before.gcMillis);
+            out.put("gcCollections", collections);
+            return out;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.project.image.segmentation;
+
+import com.project.image.segmentation.service.SegmentationMetrics;
+import com.project.image.segmentation.service.SegmentationService;
+import com.project.image.segmentation.service.SegmentationSettings;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SegmentationMetricsTest {
+
+    @Test
+    void segment_recordsEveryStage() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        SegmentationService service = new SegmentationService(new SegmentationMetrics(registry), SegmentationSettings.defaults());
+
+        BufferedImage img = new BufferedImage(100, 100, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = img.createGraphics();
+        g.setColor(Color.WHITE); g.fillRect(0, 0, 100, 100);
+        g.setColor(Color.DARK_GRAY); g.fillRect(20, 20, 40, 40);
+        g.dispose();
+
+        service.segment(img, 50);
+
+        for (String stage : new String[]{"ingest", "kmeans", "background", "otsu", "threshold",
+                "morphology", "labeling", "refine", "render", "encode"}) {
+            Timer timer = registry.find("segmentation.stage.duration").tag("stage", stage).timer();
+            assertThat(timer).as(stage).isNotNull();
+            assertThat(timer.count()).as(stage).isEqualTo(1);
+        }
+        assertThat(registry.find("segmentation.duration").tag("outcome", "success").timer().count()).isEqualTo(1);
+        assertThat(registry.find("segmentation.kmeans.iterations").summary().max()).isBetween(1.0, 15.0);
+        assertThat(registry.find("segmentation.image.megapixels").summary().totalAmount()).isEqualTo(0.01);
+    }
+}
@@ -26,4 +26,26 @@ class SegmentationServiceTest {
         assertThat(res.threshold()).isBetween(1, 254);
         assertThat(res.segmentCount()).isGreaterThanOrEqualTo(2);
     }
-}
\ No newline at end of file
+
+    @Test
+    void segment_sameMaskForEveryRasterLayout() {
+        BufferedImage rgb = new BufferedImage(150, 110, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = rgb.createGraphics();
+        g.setColor(Color.WHITE); g.fillRect(0, 0, 150, 110);
+        g.setColor(new Color(60, 40, 120)); g.fillOval(20, 15, 60, 70);
+        g.setColor(Color.DARK_GRAY); g.fillRect(95, 40, 40, 50);
+        g.dispose();
+
+        SegmentationResult reference = service.segment(rgb, 50);
+        for (int type : new int[]{BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_4BYTE_ABGR,
+                BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_INT_BGR}) {
+            BufferedImage copy = new BufferedImage(150, 110, type);
+            Graphics2D cg = copy.createGraphics();
+            cg.drawImage(rgb, 0, 0, null);
+            cg.dispose();
+
+            assertThat(service.segment(copy, 50).objectMask()).as("type %d", type)
+                    .containsExactly(reference.objectMask());
+        }
+    }
+}
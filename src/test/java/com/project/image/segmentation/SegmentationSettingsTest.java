@@ -0,0 +1,43 @@
+package com.project.image.segmentation;
+
+import com.project.image.segmentation.service.SegmentationService.KMeansAlgorithm;
+import com.project.image.segmentation.service.SegmentationSettings;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.MapConfigurationPropertySource;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SegmentationSettingsTest {
+
+    @Test
+    void bind_readsApplicationPropertiesAndFallsBackToDefaults() {
+        SegmentationSettings bound = bind(Map.of(
+                "app.segmentation.kmeans", "lloyd",
+                "app.segmentation.workspace.max-pixels", "1000",
+                "app.segmentation.max-clusters", "7"));
+
+        assertThat(bound.kmeans()).isEqualTo(KMeansAlgorithm.LLOYD);
+        assertThat(bound.workspace().maxPixels()).isEqualTo(1000);
+        assertThat(bound.workspace().poolSize()).isZero();
+        assertThat(bound.maxClusters()).isEqualTo(7);
+        assertThat(bound.withKmeans(KMeansAlgorithm.ACCELERATED).withWorkspace(4_000_000, 0).withClusterRange(3, 5))
+                .isEqualTo(SegmentationSettings.defaults());
+        assertThat(bind(Map.of("app.segmentation.default-min-region-size", "50")))
+                .isEqualTo(SegmentationSettings.defaults());
+    }
+
+    @Test
+    void invalidClusterRange_isRejected() {
+        assertThatThrownBy(() -> SegmentationSettings.defaults().withClusterRange(4, 3))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static SegmentationSettings bind(Map<String, String> properties) {
+        return new Binder(new MapConfigurationPropertySource(properties))
+                .bindOrCreate("app.segmentation", SegmentationSettings.class);
+    }
+}
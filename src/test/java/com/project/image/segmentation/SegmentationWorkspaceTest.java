@@ -0,0 +1,97 @@
+package com.project.image.segmentation;
+
+import com.project.image.segmentation.DTOs.SegmentationOptions;
+import com.project.image.segmentation.DTOs.SegmentationResult;
+import com.project.image.segmentation.service.SegmentationMetrics;
+import com.project.image.segmentation.service.SegmentationService;
+import com.project.image.segmentation.service.SegmentationSettings;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SegmentationWorkspaceTest {
+
+    private static final SegmentationOptions OPTIONS = SegmentationOptions.defaults(50).withRenderImages(false);
+
+    @Test
+    void reusedWorkspace_givesSameResultAsFreshOne() {
+        BufferedImage large = TestImages.noisyObjects(480, 360);
+        BufferedImage small = TestImages.noisyObjects(320, 240);
+        SegmentationResult freshLarge = fresh().segment(large, OPTIONS);
+        SegmentationResult freshSmall = fresh().segment(small, OPTIONS);
+
+        // един workspace в пула: голямо, малко (стари данни в по-дългите буфери), пак голямо
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        SegmentationService service = new SegmentationService(new SegmentationMetrics(registry),
+                SegmentationSettings.defaults().withWorkspace(1_000_000, 1));
+        for (BufferedImage img : new BufferedImage[]{large, small, large}) {
+            SegmentationResult expected = img == large ? freshLarge : freshSmall;
+            SegmentationResult result = service.segment(img, OPTIONS);
+            assertThat(result.objectMask()).containsExactly(expected.objectMask());
+            assertThat(result.labels()).containsExactly(expected.labels());
+        }
+        assertThat(registry.get("segmentation.workspace.retained").gauge().value()).isGreaterThan(480 * 360);
+    }
+
+    @Test
+    void imagesAboveCap_areNotRetained() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        SegmentationService service = new SegmentationService(new SegmentationMetrics(registry),
+                SegmentationSettings.defaults().withWorkspace(100_000, 1));
+
+        service.segment(TestImages.noisyObjects(480, 360), OPTIONS);
+
+        assertThat(registry.get("segmentation.workspace.retained").gauge().value()).isZero();
+    }
+
+    @Test
+    void steadyState_allocatesOnlyTheResultPerPixel() throws Exception {
+        // ядрата по подразбиране (векторни) и един workspace в пула
+        SegmentationService service = new SegmentationService(SegmentationMetrics.standalone(),
+                SegmentationSettings.defaults().withWorkspace(1_000_000, 1));
+        BufferedImage small = TestImages.noisyObjects(320, 240);
+        BufferedImage large = TestImages.noisyObjects(640, 480);
+
+        // ForkJoinPool с една нишка: лентите се изпълняват в нея, затова броячът на нишката хваща всичко
+        ForkJoinPool single = new ForkJoinPool(1);
+        try {
+            long[] bytes = single.submit(() -> {
+                for (int i = 0; i < 50; i++) {
+                    service.segment(small, OPTIONS);
+                    service.segment(large, OPTIONS);
+                }
+                long smallBytes = Long.MAX_VALUE, largeBytes = Long.MAX_VALUE;
+                for (int i = 0; i < 5; i++) {
+                    smallBytes = Math.min(smallBytes, allocatedBy(() -> service.segment(small, OPTIONS)));
+                    largeBytes = Math.min(largeBytes, allocatedBy(() -> service.segment(large, OPTIONS)));
+                }
+                return new long[]{smallBytes, largeBytes};
+            }).get();
+
+            // извадката за избор на k и дребните обекти не зависят от размера; на пиксел растат само
+            // labels (int) и objectMask (boolean) от резултата - 5 B/px; без workspace са ~41 B/px
+            double perPixel = (double) (bytes[1] - bytes[0]) / (640 * 480 - 320 * 240);
+            assertThat(perPixel).isLessThan(5.5);
+        } finally {
+            single.shutdown();
+        }
+    }
+
+    private static long allocatedBy(Runnable work) {
+        var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(thread);
+        work.run();
+        return threads.getThreadAllocatedBytes(thread) - before;
+    }
+
+    private static SegmentationService fresh() {
+        return new SegmentationService(SegmentationMetrics.standalone(),
+                SegmentationSettings.defaults().withWorkspace(1_000_000, 0));
+    }
+}
@@ -0,0 +1,82 @@
+package com.project.image.segmentation;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.project.image.segmentation.DTOs.SegmentationOptions;
+import com.project.image.segmentation.DTOs.SegmentationResult;
+import com.project.image.segmentation.service.ExecutionPools;
+import com.project.image.segmentation.service.ImageLoadingService;
+import com.project.image.segmentation.service.MemoryAdmissionService;
+import com.project.image.segmentation.service.SegmentationMetrics;
+import com.project.image.segmentation.service.SegmentationService;
+import com.project.image.segmentation.service.SequenceSegmentationService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import javax.imageio.ImageIO;
+
+import static com.project.image.segmentation.TestImages.unzip;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SequenceSegmentationServiceTest {
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final ExecutionPools pools = ExecutionPools.standalone(SegmentationMetrics.standalone());
+    private final SegmentationService segmentation = new SegmentationService();
+    private final SequenceSegmentationService sequence = new SequenceSegmentationService(
+            segmentation, new ImageLoadingService(),
+            new MemoryAdmissionService(256, 1000, SegmentationMetrics.standalone()),
+            mapper, pools, 2, 1024 * 1024);
+
+    @AfterEach
+    void tearDown() {
+        pools.shutdown();
+    }
+
+    @Test
+    void processDirectory_warmStartsEveryFrameAfterTheFirst() throws Exception {
+        Path dir = Files.createTempDirectory("frames");
+        for (int i = 0; i < 5; i++) {
+            ImageIO.write(frame(i * 4), "png", dir.resolve(String.format("frame_%02d.png", i)).toFile());
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        var summary = sequence.processDirectory(dir, 50, out);
+
+        assertThat(summary.frames()).isEqualTo(5);
+        assertThat(summary.failed()).isZero();
+        assertThat(summary.warmStarted()).isEqualTo(4);
+
+        Map<String, byte[]> entries = unzip(out.toByteArray());
+        assertThat(entries.keySet()).filteredOn(n -> n.startsWith("masks/")).hasSize(5);
+        JsonNode first = mapper.readTree(entries.get("summaries/00001_frame_00.json"));
+        assertThat(first.get("status").asText()).isEqualTo("ok");
+        assertThat(entries).containsKey("sequence.json");
+    }
+
+    @Test
+    void warmStart_convergesInFewerIterations() {
+        SegmentationOptions options = SegmentationOptions.defaults(50).withRenderImages(false);
+        SegmentationResult cold = segmentation.segment(frame(0), options);
+        SegmentationResult warm = segmentation.segment(frame(4), options.withWarmStart(cold.clusterModel()));
+
+        assertThat(warm.clusterModel().iterations()).isLessThanOrEqualTo(cold.clusterModel().iterations());
+        assertThat(warm.clusterModel().backgroundCluster()).isEqualTo(cold.clusterModel().backgroundCluster());
+        assertThat(warm.segmentCount()).isEqualTo(cold.segmentCount());
+    }
+
+    /** Тъмен квадрат върху бял фон, изместен хоризонтално - като кадър от въртяща се маса. */
+    private static BufferedImage frame(int shift) {
+        BufferedImage img = new BufferedImage(120, 120, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = img.createGraphics();
+        g.setColor(Color.WHITE); g.fillRect(0, 0, 120, 120);
+        g.setColor(Color.DARK_GRAY); g.fillRect(30 + shift, 30, 40, 45);
+        g.dispose();
+        return img;
+    }
+}
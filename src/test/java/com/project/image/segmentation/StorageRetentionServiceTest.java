@@ -0,0 +1,110 @@
+package com.project.image.segmentation;
+
+import com.project.image.segmentation.service.SegmentationMetrics;
+import com.project.image.segmentation.service.StorageIndex;
+import com.project.image.segmentation.service.StorageRetentionService;
+import com.project.image.segmentation.service.StorageService;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockMultipartFile;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StorageRetentionServiceTest {
+
+    @Test
+    void sweep_evictsLeastRecentlyServedUntilUnderQuota() throws Exception {
+        Path tmp = Files.createTempDirectory("uploads-retention");
+        StorageService storage = new StorageService(tmp.toString());
+        // квота 1 MB, пет файла по 300 KB
+        StorageRetentionService retention = new StorageRetentionService(
+                storage, SegmentationMetrics.standalone(), 1, Duration.ZERO, Duration.ofHours(1));
+
+        var files = new java.util.ArrayList<StorageService.StoredFile>();
+        for (int i = 0; i < 5; i++) {
+            files.add(storage.storeResultImage(new byte[300 * 1024]));
+            Thread.sleep(5);
+        }
+        // първият файл е сервиран наскоро и трябва да оцелее
+        storage.touch(files.get(0).path());
+
+        int removed = retention.sweep();
+
+        // 1500 KB -> под 90% от квотата (~921 KB) след изтриване на два файла
+        assertThat(removed).isEqualTo(2);
+        assertThat(storage.index().totalBytes()).isLessThanOrEqualTo(1024 * 1024);
+        assertThat(Files.exists(files.get(0).path())).isTrue();
+        assertThat(Files.exists(files.get(1).path())).isFalse();
+        assertThat(Files.exists(files.get(2).path())).isFalse();
+        assertThat(Files.exists(files.get(4).path())).isTrue();
+        storage.shutdown();
+    }
+
+    @Test
+    void sweep_dropsReferencesOfEvictedBlobsAndSkipsBlobsReuploadedMidSweep() throws Exception {
+        Path tmp = Files.createTempDirectory("uploads-refs");
+        StorageService storage = new StorageService(tmp.toString());
+        StorageRetentionService retention = new StorageRetentionService(
+                storage, SegmentationMetrics.standalone(), 0, Duration.ofMillis(1), Duration.ofHours(1));
+        byte[] bytes = {1, 2, 3, 4, 5};
+
+        var first = storage.store(new MockMultipartFile("file", "a.png", "image/png", bytes));
+        var copy = storage.store(new MockMultipartFile("file", "copy.png", "image/png", bytes));
+        Thread.sleep(5);
+        StorageIndex.Entry stale = storage.index().leastRecentlyServed().get(0);
+        long sweepStart = System.currentTimeMillis();
+        // качване на същото съдържание по време на почистването - blob-ът трябва да оцелее
+        var again = storage.store(new MockMultipartFile("file", "again.png", "image/png", bytes));
+
+        assertThat(storage.evict(stale, sweepStart)).isFalse();
+        assertThat(storage.resolveOriginal(again.filename())).contains(first.path());
+
+        Thread.sleep(5);
+        assertThat(retention.sweep()).isEqualTo(1);
+        assertThat(Files.exists(first.path())).isFalse();
+        assertThat(storage.resolveOriginal(first.filename())).isEmpty();
+        assertThat(storage.resolveOriginal(copy.filename())).isEmpty();
+        // препратките не оживяват след рестарт
+        assertThat(new StorageService(tmp.toString()).resolveOriginal(again.filename())).isEmpty();
+
+        // ново качване след изтриването записва blob-а отново
+        var fresh = storage.store(new MockMultipartFile("file", "fresh.png", "image/png", bytes));
+        assertThat(Files.exists(fresh.path())).isTrue();
+        storage.shutdown();
+    }
+
+    @Test
+    void repeatedUploads_keepReferencesFileBounded() throws Exception {
+        Path tmp = Files.createTempDirectory("uploads-refs-compact");
+        StorageService storage = new StorageService(tmp.toString());
+        byte[] bytes = {7, 7, 7};
+
+        StorageService.StoredFile first = null, last = null;
+        for (int i = 0; i < 1100; i++) {
+            last = storage.store(new MockMultipartFile("file", "same" + i + ".png", "image/png", bytes));
+            if (first == null) first = last;
+        }
+
+        assertThat(Files.readAllLines(tmp.resolve(".meta/refs"))).hasSizeLessThan(100);
+        assertThat(storage.resolveOriginal(last.filename())).contains(last.path());
+        assertThat(storage.resolveOriginal(first.filename())).isEmpty();
+        assertThat(new StorageService(tmp.toString()).resolveOriginal(last.filename())).contains(last.path());
+        storage.shutdown();
+    }
+
+    @Test
+    void results_areSpreadAcrossHashedSubdirectories() throws Exception {
+        Path tmp = Files.createTempDirectory("uploads-shards");
+        StorageService storage = new StorageService(tmp.toString());
+
+        var stored = storage.storeResultImage(new byte[]{1});
+
+        Path relative = tmp.toAbsolutePath().normalize().relativize(stored.path());
+        assertThat(relative.getNameCount()).isEqualTo(3);
+        assertThat(storage.resolveResult(stored.filename())).isEqualTo(stored.path());
+        storage.shutdown();
+    }
+}
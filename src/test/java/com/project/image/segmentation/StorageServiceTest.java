@@ -6,6 +6,8 @@ import org.junit.jupiter.api.Test;
 import org.springframework.mock.web.MockMultipartFile;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
 import static org.assertj.core.api.Assertions.*;
 
 class StorageServiceTest {
@@ -24,6 +26,57 @@ class StorageServiceTest {
         assertThat(Files.exists(res.path())).isTrue();
     }
     @Test
+    void store_deduplicatesIdenticalContent() throws Exception {
+        Path tmp = Files.createTempDirectory("uploads-dedup");
+        StorageService storage = new StorageService(tmp.toString());
+        byte[] bytes = {1, 2, 3, 4, 5};
+
+        var first = storage.store(new MockMultipartFile("file", "a.png", "image/png", bytes));
+        long modified = Files.getLastModifiedTime(first.path()).toMillis();
+        var second = storage.store(new MockMultipartFile("file", "copy of a.png", "image/png", bytes));
+        var other = storage.store(new MockMultipartFile("file", "b.png", "image/png", new byte[]{9}));
+
+        assertThat(second.contentHash()).isEqualTo(first.contentHash()).hasSize(64);
+        assertThat(second.path()).isEqualTo(first.path());
+        assertThat(Files.getLastModifiedTime(second.path()).toMillis()).isEqualTo(modified);
+        assertThat(other.path()).isNotEqualTo(first.path());
+        assertThat(storage.index().size()).isEqualTo(2);
+
+        // препратките оцеляват рестарт
+        StorageService reopened = new StorageService(tmp.toString());
+        assertThat(reopened.resolveOriginal(second.filename())).contains(first.path());
+    }
+    @Test
+    void store_sameNameSameMillisecond_keepsBothReferences() throws Exception {
+        Path tmp = Files.createTempDirectory("uploads-names");
+        StorageService storage = new StorageService(tmp.toString());
+
+        var a = storage.store(new MockMultipartFile("file", "photo.png", "image/png", new byte[]{1}));
+        var b = storage.store(new MockMultipartFile("file", "photo.png", "image/png", new byte[]{2}));
+
+        // различното съдържание дава различно име дори при еднакъв timestamp
+        assertThat(a.filename()).isNotEqualTo(b.filename()).endsWith("_photo.png");
+        assertThat(storage.resolveOriginal(a.filename())).contains(a.path());
+        assertThat(storage.resolveOriginal(b.filename())).contains(b.path());
+    }
+    @Test
+    void findOriginal_resolvesStoredContentByHashWithoutUpload() throws Exception {
+        Path tmp = Files.createTempDirectory("uploads-find");
+        StorageService storage = new StorageService(tmp.toString());
+        byte[] bytes = {1, 2, 3, 4, 5};
+        var stored = storage.store(new MockMultipartFile("file", "a.png", "image/png", bytes));
+
+        var found = storage.findOriginal(stored.contentHash()).orElseThrow();
+
+        assertThat(found.path()).isEqualTo(stored.path());
+        assertThat(found.contentHash()).isEqualTo(stored.contentHash());
+        assertThat(found.relativeWebPath()).isEqualTo(stored.relativeWebPath());
+        assertThat(StorageService.contentHash(new MockMultipartFile("file", "b.png", "image/png", bytes)))
+                .isEqualTo(stored.contentHash());
+        assertThat(storage.findOriginal("0".repeat(64))).isEmpty();
+        assertThat(storage.findOriginal("../" + stored.contentHash())).isEmpty();
+    }
+    @Test
     void store_rejectsNonImage() {
         Path tmp = Path.of(System.getProperty("java.io.tmpdir"), "uploads-test2");
         StorageService storage = new StorageService(tmp.toString());
@@ -31,4 +84,39 @@ class StorageServiceTest {
         MockMultipartFile notImage = new MockMultipartFile("file", "x.txt", "text/plain", "hi".getBytes());
         assertThatThrownBy(() -> storage.store(notImage)).isInstanceOf(StorageException.class);
     }
-}
\ No newline at end of file
+    @Test
+    void storeResultImageAsync_servesFromMemoryUntilDurable() throws Exception {
+        Path tmp = Files.createTempDirectory("uploads-test3");
+        StorageService storage = new StorageService(tmp.toString());
+
+        var res = storage.storeResultImageAsync(new byte[]{7, 7, 7});
+        // докато чака запис, байтовете са достъпни от паметта; после - от диска
+        assertThat(storage.pendingResult(res.filename()).isPresent() || storage.isDurable(res.filename())).isTrue();
+
+        Path written = res.durable().get();
+        assertThat(Files.readAllBytes(written)).containsExactly(7, 7, 7);
+        assertThat(res.relativeWebPath()).isEqualTo("results/" + res.filename());
+        storage.shutdown();
+    }
+    @Test
+    void storeResultImageAsync_namesNeverCollide() throws Exception {
+        Path tmp = Files.createTempDirectory("uploads-test4");
+        StorageService storage = new StorageService(tmp.toString());
+
+        Set<String> names = new HashSet<>();
+        for (int i = 0; i < 200; i++) {
+            names.add(storage.storeResultImageAsync(new byte[]{(byte) i}).filename());
+        }
+        storage.shutdown();
+
+        assertThat(names).hasSize(200);
+        try (var files = Files.walk(tmp)) {
+            assertThat(files.filter(p -> p.toString().endsWith("_result.png")).count()).isEqualTo(200);
+        }
+    }
+    @Test
+    void resolveResult_rejectsTraversal() {
+        StorageService storage = new StorageService(System.getProperty("java.io.tmpdir") + "/uploads-test5");
+        assertThatThrownBy(() -> storage.resolveResult("../etc/passwd")).isInstanceOf(StorageException.class);
+    }
+}
@@ -0,0 +1,44 @@
+package com.project.image.segmentation;
+
+import com.project.image.segmentation.DTOs.SegmentationOptions;
+import com.project.image.segmentation.DTOs.SegmentationResult;
+import com.project.image.segmentation.service.SegmentationMetrics;
+import com.project.image.segmentation.service.SegmentationService;
+import com.project.image.segmentation.service.SegmentationSettings;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SuperpixelSegmentationTest {
+
+    @Test
+    void superpixels_closelyMatchPerPixelMask() {
+        BufferedImage img = TestImages.noisyObjects(480, 360);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        SegmentationService service = new SegmentationService(new SegmentationMetrics(registry), SegmentationSettings.defaults());
+        SegmentationOptions options = SegmentationOptions.defaults(50).withRenderImages(false);
+
+        SegmentationResult pixels = service.segment(img, options);
+        SegmentationResult superpixels = service.segment(img, options.withSuperpixels(true));
+
+        assertThat(TestImages.iou(pixels.objectMask(), superpixels.objectMask())).isGreaterThan(0.95);
+        assertThat(superpixels.segmentCount()).isEqualTo(pixels.segmentCount());
+        assertThat(registry.find("segmentation.stage.duration").tag("stage", "superpixels").timer())
+                .isNotNull();
+    }
+
+    @Test
+    void superpixels_warmStartModelIsInLabSpace() {
+        BufferedImage img = TestImages.noisyObjects(480, 360);
+        SegmentationService service = new SegmentationService();
+        SegmentationOptions options = SegmentationOptions.defaults(50).withRenderImages(false).withSuperpixels(true);
+
+        SegmentationResult first = service.segment(img, options);
+        SegmentationResult second = service.segment(img, options.withWarmStart(first.clusterModel()));
+
+        assertThat(TestImages.iou(first.objectMask(), second.objectMask())).isGreaterThan(0.99);
+    }
+}
@@ -0,0 +1,76 @@
+package com.project.image.segmentation;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import javax.imageio.ImageIO;
+
+/** Общи тестови данни и помощни методи: синтетични изображения, IoU на маски, PNG и ZIP. */
+final class TestImages {
+    private TestImages() {
+    }
+
+    /** Три тъмни обекта с различен цвят върху шумен светъл фон. */
+    static BufferedImage noisyObjects(int w, int h) {
+        BufferedImage img = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = img.createGraphics();
+        g.setColor(new Color(235, 235, 230)); g.fillRect(0, 0, w, h);
+        g.setColor(new Color(40, 40, 120)); g.fillOval(30, 40, 90, 80);
+        g.setColor(new Color(120, 30, 30)); g.fillRect(170, 60, 100, 70);
+        g.setColor(new Color(30, 90, 40)); g.fillRect(80, 150, 140, 60);
+        g.dispose();
+        addNoise(img, new Random(7), 5);
+        return img;
+    }
+
+    /** Еднакъв шум в [-amplitude, amplitude] към трите канала на всеки пиксел, ред по ред. */
+    static void addNoise(BufferedImage img, Random rnd, int amplitude) {
+        int w = img.getWidth();
+        int[] row = new int[w];
+        for (int y = 0; y < img.getHeight(); y++) {
+            img.getRGB(0, y, w, 1, row, 0, w);
+            for (int x = 0; x < w; x++) {
+                int p = row[x], noise = rnd.nextInt(2 * amplitude + 1) - amplitude;
+                row[x] = (clamp(((p >> 16) & 0xFF) + noise) << 16) | (clamp(((p >> 8) & 0xFF) + noise) << 8)
+                        | clamp((p & 0xFF) + noise);
+            }
+            img.setRGB(0, y, w, 1, row, 0, w);
+        }
+    }
+
+    static double iou(boolean[] a, boolean[] b) {
+        int inter = 0, union = 0;
+        for (int i = 0; i < a.length; i++) {
+            if (a[i] && b[i]) inter++;
+            if (a[i] || b[i]) union++;
+        }
+        return union == 0 ? 1.0 : (double) inter / union;
+    }
+
+    static byte[] png(BufferedImage img) throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ImageIO.write(img, "png", baos);
+        return baos.toByteArray();
+    }
+
+    static Map<String, byte[]> unzip(byte[] data) throws Exception {
+        Map<String, byte[]> entries = new HashMap<>();
+        try (ZipInputStream zin = new ZipInputStream(new ByteArrayInputStream(data))) {
+            ZipEntry e;
+            while ((e = zin.getNextEntry()) != null) {
+                entries.put(e.getName(), zin.readAllBytes());
+            }
+        }
+        return entries;
+    }
+
+    private static int clamp(int v) {
+        return Math.max(0, Math.min(255, v));
+    }
+}
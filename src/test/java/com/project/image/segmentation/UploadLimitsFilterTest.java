@@ -0,0 +1,45 @@
+package com.project.image.segmentation;
+
+import com.project.image.segmentation.config.UploadLimitsFilter;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.util.unit.DataSize;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class UploadLimitsFilterTest {
+    private final UploadLimitsFilter filter = new UploadLimitsFilter(DataSize.ofMegabytes(1));
+
+    @Test
+    void largeMultipart_isRejectedOutsideBatchEndpoints() throws Exception {
+        assertThat(status("/api/segment", 2 * 1024 * 1024)).isEqualTo(413);
+        assertThat(status("/segment", 2 * 1024 * 1024)).isEqualTo(413);
+        assertThat(status("/segment", 512 * 1024)).isEqualTo(200);
+        assertThat(status("/api/segment/batch", 2 * 1024 * 1024)).isEqualTo(200);
+        assertThat(status("/api/segment/sequence", 2 * 1024 * 1024)).isEqualTo(200);
+    }
+
+    @Test
+    void chunkedMultipart_withoutContentLength_isPassedOn() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/segment");
+        request.setContentType("multipart/form-data; boundary=x");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        MockFilterChain chain = new MockFilterChain();
+
+        filter.doFilter(request, response, chain);
+
+        assertThat(response.getStatus()).isEqualTo(200);
+        assertThat(chain.getRequest()).isSameAs(request);
+    }
+
+    private int status(String path, int bytes) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", path);
+        request.setContentType("multipart/form-data; boundary=x");
+        request.setContent(new byte[bytes]);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(request, response, new MockFilterChain());
+        return response.getStatus();
+    }
+}